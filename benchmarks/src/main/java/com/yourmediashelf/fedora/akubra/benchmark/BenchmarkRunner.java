@@ -0,0 +1,88 @@
+/**
+ * Copyright (C) 2012 MediaShelf <http://www.yourmediashelf.com/>
+ *
+ * This file is part of uuid-datepath-idmapper.
+ *
+ * uuid-datepath-idmapper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * uuid-datepath-idmapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with uuid-datepath-idmapper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.yourmediashelf.fedora.akubra.benchmark;
+
+import java.io.File;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with 1, 2, 4, ... threads up to one thread per 
+ * available processor, with the GC/allocation profiler, so that the results
+ * show how throughput scales with threads, and writes the results of each
+ * run as JSON to <code>jmh-&lt;version&gt;-&lt;threads&gt;t.json</code> so that
+ * they can be compared across releases.
+ *
+ * <p>Any arguments are passed on to JMH, e.g. a benchmark regexp:
+ * <pre>
+ * java -jar benchmarks/target/benchmarks.jar IdMapperBenchmark
+ * </pre>
+ *
+ * @author Edwin Shin
+ *
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        CommandLineOptions cli = new CommandLineOptions(args);
+        String version = BenchmarkRunner.class.getPackage().getImplementationVersion();
+        if (version == null) {
+            version = "dev";
+        }
+
+        for (int threads : threadCounts(Runtime.getRuntime().availableProcessors())) {
+            File result = new File("jmh-" + version + "-" + threads + "t.json");
+            OptionsBuilder builder = new OptionsBuilder();
+            if (cli.getIncludes().isEmpty()) {
+                builder.include(".*Benchmark.*");
+            }
+            Options opts = builder.parent(cli)
+                    .threads(threads)
+                    .addProfiler(GCProfiler.class)
+                    .resultFormat(ResultFormatType.JSON)
+                    .result(result.getPath())
+                    .build();
+            new Runner(opts).run();
+        }
+    }
+
+    /**
+     * @return 1, 2, 4, ... up to and including the number of processors
+     */
+    static int[] threadCounts(int processors) {
+        int n = 1;
+        while (1 << n <= processors) {
+            n++;
+        }
+        boolean powerOfTwo = Integer.bitCount(processors) == 1;
+        int[] threadCounts = new int[powerOfTwo ? n : n + 1];
+        for (int i = 0; i < n; i++) {
+            threadCounts[i] = 1 << i;
+        }
+        threadCounts[threadCounts.length - 1] = processors;
+        return threadCounts;
+    }
+}
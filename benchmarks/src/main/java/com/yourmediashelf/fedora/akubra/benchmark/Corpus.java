@@ -0,0 +1,170 @@
+/**
+ * Copyright (C) 2012 MediaShelf <http://www.yourmediashelf.com/>
+ *
+ * This file is part of uuid-datepath-idmapper.
+ *
+ * uuid-datepath-idmapper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * uuid-datepath-idmapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with uuid-datepath-idmapper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.yourmediashelf.fedora.akubra.benchmark;
+
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Reproducible corpora of external ids for the benchmarks.
+ *
+ * <p>Every corpus is generated from a fixed seed, so that results are
+ * comparable across releases.
+ *
+ * @author Edwin Shin
+ *
+ */
+public enum Corpus {
+
+    /**
+     * Fedora PIDs with a version 1 UUID, e.g.
+     * <code>info:fedora/cellar:25f814ce-f5ac-11e0-b139-2837370107a5</code>.
+     */
+    UUID_PIDS {
+        @Override
+        String id(Random random) {
+            return "info:fedora/" + namespace(random) + ":" + timeBasedUUID(random);
+        }
+    },
+
+    /**
+     * Datastream ids of objects with a version 1 UUID PID, e.g.
+     * <code>info:fedora/cellar:25f814ce-f5ac-11e0-b139-2837370107a5/DS1/DS1.0</code>.
+     */
+    DATASTREAM_IDS {
+        @Override
+        String id(Random random) {
+            String dsid = DSIDS[random.nextInt(DSIDS.length)];
+            return "info:fedora/" + namespace(random) + ":" + timeBasedUUID(random)
+                    + "/" + dsid + "/" + dsid + "." + random.nextInt(5);
+        }
+    },
+
+    /**
+     * Legacy, sequential Fedora PIDs that are handled by the fallback mapper,
+     * e.g. <code>info:fedora/demo:1234</code>.
+     */
+    FALLBACK_IDS {
+        @Override
+        String id(Random random) {
+            return "info:fedora/" + namespace(random) + ":" + random.nextInt(10000000);
+        }
+    },
+
+    /**
+     * Ids containing many characters that must be escaped, e.g.
+     * <code>info:fedora/demo:r&eacute;sum&eacute;%20(draft)_2+1*.</code>.
+     */
+    ESCAPED_IDS {
+        @Override
+        String id(Random random) {
+            StringBuilder id = new StringBuilder("info:fedora/");
+            id.append(namespace(random)).append(':');
+            int length = 8 + random.nextInt(24);
+            for (int j = 0; j < length; j++) {
+                id.append(ESCAPED_TOKENS[random.nextInt(ESCAPED_TOKENS.length)]);
+            }
+            return id.append('.').toString();
+        }
+    },
+
+    /**
+     * Fedora PIDs with a (random) version 4 UUID, which contain a UUID but are
+     * handled by the fallback mapper, e.g.
+     * <code>info:fedora/cellar:9b2e4f1c-3d7a-4c55-8e21-0f6a7b3c9d12</code>.
+     */
+    RANDOM_UUID_PIDS {
+        @Override
+        String id(Random random) {
+            return "info:fedora/" + namespace(random) + ":" + randomUUID(random);
+        }
+    };
+
+    /**
+     * The number of ids in each corpus.
+     */
+    public static final int SIZE = 4096;
+
+    private static final long SEED = 20121013L;
+
+    private static final String[] NAMESPACES = {"cellar", "demo", "test", "changeme", "fedora-system"};
+
+    private static final String[] DSIDS = {"DC", "RELS-EXT", "AUDIT", "OBJ", "THUMBNAIL"};
+
+    /**
+     * Characters (and escape sequences) that are legal in a URI, most of which
+     * must be escaped in a filename.
+     */
+    private static final String[] ESCAPED_TOKENS = {"a", "Z", "0", "_", "+", "*",
+            "~", "!", "'", "&", ":", "/", ".", "(", ")", "%20", "\u00e9", "\u00fc",
+            "\u00df", "\u4e2d", "\u6587"};
+
+    /**
+     * The number of 100-ns intervals between the UUID epoch 1582-10-15 00:00:00
+     * and the Unix epoch 1970-01-01 00:00:00.
+     */
+    private static final long NUM_100NS_INTERVALS_SINCE_UUID_EPOCH = 0x01b21dd213814000L;
+
+    /**
+     * The first day of the ingest window, 2012-01-01T00:00:00Z.
+     */
+    private static final long START_MILLIS = 1325376000000L;
+
+    /**
+     * UUIDs are spread over a handful of days, as with real ingests.
+     */
+    private static final int DAYS = 7;
+
+    abstract String id(Random random);
+
+    /**
+     * @return the external ids of this corpus
+     */
+    public String[] ids() {
+        Random random = new Random(SEED + ordinal());
+        String[] ids = new String[SIZE];
+        for (int i = 0; i < SIZE; i++) {
+            ids[i] = id(random);
+        }
+        return ids;
+    }
+
+    private static String namespace(Random random) {
+        return NAMESPACES[random.nextInt(NAMESPACES.length)];
+    }
+
+    private static UUID timeBasedUUID(Random random) {
+        long millis = START_MILLIS + (long) (random.nextDouble() * DAYS * 86400000L);
+        long timestamp = millis * 10000 + NUM_100NS_INTERVALS_SINCE_UUID_EPOCH + random.nextInt(10000);
+        long msb = (timestamp << 32)
+                | ((timestamp >>> 16) & 0xffff0000L)
+                | 0x1000L
+                | ((timestamp >>> 48) & 0x0fffL);
+        // variant 2, random clock sequence and node
+        long lsb = (random.nextLong() & 0x3fffffffffffffffL) | 0x8000000000000000L;
+        return new UUID(msb, lsb);
+    }
+
+    private static UUID randomUUID(Random random) {
+        // version 4, variant 2; unlike UUID.randomUUID(), reproducible
+        long msb = (random.nextLong() & 0xffffffffffff0fffL) | 0x4000L;
+        long lsb = (random.nextLong() & 0x3fffffffffffffffL) | 0x8000000000000000L;
+        return new UUID(msb, lsb);
+    }
+}
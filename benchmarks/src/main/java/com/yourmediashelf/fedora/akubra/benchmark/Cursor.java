@@ -0,0 +1,43 @@
+/**
+ * Copyright (C) 2012 MediaShelf <http://www.yourmediashelf.com/>
+ *
+ * This file is part of uuid-datepath-idmapper.
+ *
+ * uuid-datepath-idmapper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * uuid-datepath-idmapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with uuid-datepath-idmapper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.yourmediashelf.fedora.akubra.benchmark;
+
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Per-thread position in a {@link Corpus}, so that threads walk the corpus
+ * independently and don't share a counter.
+ *
+ * @author Edwin Shin
+ *
+ */
+@State(Scope.Thread)
+public class Cursor {
+
+    private int i;
+
+    /**
+     * @return the index of the next id in the corpus
+     */
+    public int next() {
+        i = (i + 1) & (Corpus.SIZE - 1);
+        return i;
+    }
+}
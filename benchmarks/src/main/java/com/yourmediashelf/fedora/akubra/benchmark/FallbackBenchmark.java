@@ -0,0 +1,87 @@
+/**
+ * Copyright (C) 2012 MediaShelf <http://www.yourmediashelf.com/>
+ *
+ * This file is part of uuid-datepath-idmapper.
+ *
+ * uuid-datepath-idmapper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * uuid-datepath-idmapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with uuid-datepath-idmapper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.yourmediashelf.fedora.akubra.benchmark;
+
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+import org.akubraproject.map.IdMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.yourmediashelf.fedora.akubra.TrivialIdMapper;
+import com.yourmediashelf.fedora.akubra.UUIDDatePathIdMapper;
+
+/**
+ * Benchmarks how UUIDDatePathIdMapper classifies ids: with the (cheapest
+ * possible) TrivialIdMapper as fallback mapper, ids that are handled by the
+ * fallback mapper, with or without a UUID, should cost no more than version 1
+ * UUID ids.
+ *
+ * @author Edwin Shin
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class FallbackBenchmark {
+
+    @Param({"UUID_PIDS", "FALLBACK_IDS", "RANDOM_UUID_PIDS"})
+    public Corpus corpus;
+
+    private IdMapper idMapper;
+
+    private URI[] externalIds;
+
+    private URI[] internalIds;
+
+    @Setup
+    public void setup() {
+        idMapper = new UUIDDatePathIdMapper(new TrivialIdMapper());
+        String[] ids = corpus.ids();
+        externalIds = new URI[ids.length];
+        internalIds = new URI[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            externalIds[i] = URI.create(ids[i]);
+            internalIds[i] = idMapper.getInternalId(externalIds[i]);
+        }
+    }
+
+    @Benchmark
+    public URI getInternalId(Cursor cursor) {
+        return idMapper.getInternalId(externalIds[cursor.next()]);
+    }
+
+    @Benchmark
+    public URI getExternalId(Cursor cursor) {
+        return idMapper.getExternalId(internalIds[cursor.next()]);
+    }
+}
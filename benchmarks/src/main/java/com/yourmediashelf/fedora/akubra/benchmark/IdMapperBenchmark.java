@@ -0,0 +1,154 @@
+/**
+ * Copyright (C) 2012 MediaShelf <http://www.yourmediashelf.com/>
+ *
+ * This file is part of uuid-datepath-idmapper.
+ *
+ * uuid-datepath-idmapper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * uuid-datepath-idmapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with uuid-datepath-idmapper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.yourmediashelf.fedora.akubra.benchmark;
+
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+import org.akubraproject.map.IdMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.yourmediashelf.fedora.akubra.CachingIdMapper;
+import com.yourmediashelf.fedora.akubra.FedoraNamespacePrefixer;
+import com.yourmediashelf.fedora.akubra.IdMapperPrefixer;
+import com.yourmediashelf.fedora.akubra.PathHashAlgorithm;
+import com.yourmediashelf.fedora.akubra.PathIdMapper;
+import com.yourmediashelf.fedora.akubra.PrefixingHashPathIdMapper;
+import com.yourmediashelf.fedora.akubra.TrivialIdMapper;
+import com.yourmediashelf.fedora.akubra.UUIDDateHashPathIdMapper;
+import com.yourmediashelf.fedora.akubra.UUIDDatePathIdMapper;
+
+/**
+ * Benchmarks getInternalId and getExternalId of the IdMapper implementations,
+ * and their URI-free {@link PathIdMapper} equivalents. Run with the GC
+ * profiler to compare the allocation rates.
+ *
+ * @author Edwin Shin
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class IdMapperBenchmark {
+
+    @Param({"UUIDDatePath", "UUIDDatePathPrefixed", "UUIDDateHashPath", "PrefixingHashPath", "PrefixingHashPathMurmur3", "Trivial", "Caching"})
+    public String mapper;
+
+    @Param({"UUID_PIDS", "DATASTREAM_IDS", "FALLBACK_IDS", "ESCAPED_IDS"})
+    public Corpus corpus;
+
+    private IdMapper idMapper;
+
+    private URI[] externalIds;
+
+    private URI[] internalIds;
+
+    private PathIdMapper pathMapper;
+
+    private String[] ids;
+
+    private String[] internalPaths;
+
+    @Setup
+    public void setup() {
+        idMapper = createMapper(mapper);
+        pathMapper = PathIdMapper.adapt(idMapper);
+        ids = corpus.ids();
+        externalIds = new URI[ids.length];
+        internalIds = new URI[ids.length];
+        internalPaths = new String[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            externalIds[i] = URI.create(ids[i]);
+            internalIds[i] = idMapper.getInternalId(externalIds[i]);
+            internalPaths[i] = internalIds[i].toString().substring("file:".length());
+        }
+    }
+
+    @Benchmark
+    public URI getInternalId(Cursor cursor) {
+        return idMapper.getInternalId(externalIds[cursor.next()]);
+    }
+
+    @Benchmark
+    public URI getExternalId(Cursor cursor) {
+        return idMapper.getExternalId(internalIds[cursor.next()]);
+    }
+
+    @Benchmark
+    public StringBuilder appendInternalPath(Cursor cursor, Buffer buffer) {
+        StringBuilder path = buffer.clear();
+        pathMapper.appendInternalPath(ids[cursor.next()], path);
+        return path;
+    }
+
+    @Benchmark
+    public StringBuilder appendExternalId(Cursor cursor, Buffer buffer) {
+        StringBuilder externalId = buffer.clear();
+        pathMapper.appendExternalId(internalPaths[cursor.next()], externalId);
+        return externalId;
+    }
+
+    static IdMapper createMapper(String name) {
+        IdMapperPrefixer prefixer = new FedoraNamespacePrefixer();
+        if (name.equals("UUIDDatePath")) {
+            return new UUIDDatePathIdMapper(new PrefixingHashPathIdMapper("##/##"));
+        } else if (name.equals("UUIDDatePathPrefixed")) {
+            return new UUIDDatePathIdMapper(new PrefixingHashPathIdMapper("##/##", prefixer), prefixer);
+        } else if (name.equals("UUIDDateHashPath")) {
+            return new UUIDDateHashPathIdMapper("##", new PrefixingHashPathIdMapper("##/##", prefixer), prefixer);
+        } else if (name.equals("PrefixingHashPath")) {
+            return new PrefixingHashPathIdMapper("##/##", prefixer);
+        } else if (name.equals("PrefixingHashPathMurmur3")) {
+            return new PrefixingHashPathIdMapper("##/##", prefixer, PathHashAlgorithm.MURMUR3_128);
+        } else if (name.equals("Trivial")) {
+            return new TrivialIdMapper();
+        } else if (name.equals("Caching")) {
+            // the corpus fits the cache, i.e. this measures repeat lookups
+            return new CachingIdMapper(createMapper("UUIDDatePathPrefixed"));
+        }
+        throw new IllegalArgumentException("Unknown mapper: " + name);
+    }
+
+    /**
+     * A per-thread StringBuilder, reused across calls as a blob store would.
+     */
+    @State(Scope.Thread)
+    public static class Buffer {
+
+        private final StringBuilder sb = new StringBuilder(256);
+
+        StringBuilder clear() {
+            sb.setLength(0);
+            return sb;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/**
+ * Copyright (C) 2012 MediaShelf <http://www.yourmediashelf.com/>
+ *
+ * This file is part of uuid-datepath-idmapper.
+ *
+ * uuid-datepath-idmapper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * uuid-datepath-idmapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with uuid-datepath-idmapper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.yourmediashelf.fedora.akubra.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.yourmediashelf.fedora.akubra.IdMapperUtil;
+
+/**
+ * Benchmarks {@link IdMapperUtil#encode(String)} and
+ * {@link IdMapperUtil#decode(String)}.
+ *
+ * @author Edwin Shin
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class IdMapperUtilBenchmark {
+
+    @Param({"UUID_PIDS", "DATASTREAM_IDS", "FALLBACK_IDS", "ESCAPED_IDS"})
+    public Corpus corpus;
+
+    private String[] ids;
+
+    private String[] encodedIds;
+
+    @Setup
+    public void setup() {
+        ids = corpus.ids();
+        encodedIds = new String[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            encodedIds[i] = IdMapperUtil.encode(ids[i]);
+        }
+    }
+
+    @Benchmark
+    public String encode(Cursor cursor) {
+        return IdMapperUtil.encode(ids[cursor.next()]);
+    }
+
+    @Benchmark
+    public String decode(Cursor cursor) {
+        return IdMapperUtil.decode(encodedIds[cursor.next()]);
+    }
+}
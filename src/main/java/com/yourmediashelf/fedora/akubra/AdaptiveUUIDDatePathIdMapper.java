@@ -0,0 +1,147 @@
+/**
+ * Copyright (C) 2012 MediaShelf <http://www.yourmediashelf.com/>
+ *
+ * This file is part of uuid-datepath-idmapper.
+ *
+ * uuid-datepath-idmapper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * uuid-datepath-idmapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with uuid-datepath-idmapper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.yourmediashelf.fedora.akubra;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+
+import org.akubraproject.map.IdMapper;
+
+/**
+ * <p>A {@link UUIDDatePathIdMapper} whose date paths adapt to the ingest
+ * volume: ids are mapped to day directories ("yyyy/MM/dd/"), and once a day
+ * directory holds maxEntries new ids, further ids of that day are mapped to
+ * hour directories below it ("yyyy/MM/dd/HH/"), which in turn are split into
+ * minute directories ("yyyy/MM/dd/HH/mm/").
+ *
+ * <p>The number of ids per period and the split decisions are kept in a small
+ * memory-mapped index file (see {@link PeriodIndex}). Mapping an id does not
+ * count it: the store records the ids it adds with {@link #setStored(URI)},
+ * and periods are only split by recorded ids (i.e. without it, this mapper
+ * keeps every id in its day directory). A recorded id counts as new if its
+ * UUID timestamp is greater than that of any id counted before in its
+ * period, which holds for ids minted by a time-based UUID generator as they
+ * are ingested. A split only applies to ids with timestamps greater than any
+ * counted timestamp, and than the current time plus a minute of clock skew, 
+ * so stored ids are never moved, and the mapping is deterministic across 
+ * restarts.
+ *
+ * <p>The index must only be used by a single mapper (and process) at a time,
+ * and must be kept with the store: without it, ids below split periods
+ * cannot be found.
+ *
+ * @author Edwin Shin
+ *
+ */
+public class AdaptiveUUIDDatePathIdMapper extends UUIDDatePathIdMapper implements Closeable {
+
+    private static final String[] FORMATS = {"yyyy/MM/dd", "yyyy/MM/dd/HH", "yyyy/MM/dd/HH/mm"};
+
+    private final DatePathRenderer[] renderers = new DatePathRenderer[FORMATS.length];
+
+    private final PeriodIndex index;
+
+    /**
+     *
+     * @param indexFile The index file, created if it does not exist.
+     * @param maxEntries The number of ids after which a day or hour directory
+     * is split.
+     * @param fallbackMapper The {@link IdMapper} to use if/when we encounter an
+     * id that is not a version 1 UUID. If null, defaults to TrivialIdMapper.
+     * @param prefixer The IdMapperPrefixer to use, or <code>null</code>.
+     * @throws IOException if the index file cannot be opened
+     * @throws IllegalStateException if the index file is in use
+     */
+    public AdaptiveUUIDDatePathIdMapper(File indexFile, int maxEntries, IdMapper fallbackMapper,
+            IdMapperPrefixer prefixer) throws IOException, IllegalStateException {
+        this(indexFile, maxEntries, fallbackMapper, prefixer, null);
+    }
+
+    /**
+     *
+     * @param indexFile The index file, created if it does not exist.
+     * @param maxEntries The number of ids after which a day or hour directory
+     * is split.
+     * @param fallbackMapper The {@link IdMapper} to use if/when we encounter an
+     * id whose time cannot be extracted. If null, defaults to TrivialIdMapper.
+     * @param prefixer The IdMapperPrefixer to use, or <code>null</code>.
+     * @param timestampExtractor The TimestampExtractor of the UUIDs. If null,
+     * defaults to {@link UUIDTimestampExtractor#V1}.
+     * @throws IOException if the index file cannot be opened
+     * @throws IllegalStateException if the index file is in use
+     */
+    public AdaptiveUUIDDatePathIdMapper(File indexFile, int maxEntries, IdMapper fallbackMapper,
+            IdMapperPrefixer prefixer, TimestampExtractor timestampExtractor)
+            throws IOException, IllegalStateException {
+        super(FORMATS[PeriodIndex.DAY], null, fallbackMapper, prefixer, timestampExtractor);
+        for (int i = 0; i < FORMATS.length; i++) {
+            renderers[i] = new DatePathRenderer(FORMATS[i]);
+        }
+        index = new PeriodIndex(indexFile, maxEntries);
+    }
+
+    /**
+     * Returns the path of the day, hour or minute of the timestamp, depending
+     * on the splits of the index.
+     *
+     * @see com.yourmediashelf.fedora.akubra.UUIDDatePathIdMapper#getDatePath(long)
+     */
+    @Override
+    protected String getDatePath(long timestamp) {
+        long millis = getMillis(timestamp);
+        return renderers[index.level(timestamp, millis)].getPath(millis);
+    }
+
+    /**
+     * Records that the store added externalId, if it is mapped by its UUID, 
+     * so that it counts towards the split of its day or hour. The store 
+     * records an id right after writing it: an id stamped more than a minute 
+     * ahead of the current time is only safe from splits once it is recorded.
+     *
+     * @param externalId the external id
+     * @throws NullPointerException if externalId is null
+     * @throws IllegalStateException if the index cannot be written
+     */
+    public void setStored(URI externalId) throws NullPointerException, IllegalStateException {
+        long timestamp = getTimestamp(externalId.toString());
+        if (timestamp != TimestampExtractor.NO_TIMESTAMP) {
+            index.record(timestamp, getMillis(timestamp));
+        }
+    }
+
+    /**
+     * Returns false, as day directories may be split.
+     *
+     * @see com.yourmediashelf.fedora.akubra.UUIDDatePathIdMapper#hasDayDirectories()
+     */
+    @Override
+    protected boolean hasDayDirectories() {
+        return false;
+    }
+
+    /**
+     * Forces the index to disk and closes it.
+     */
+    @Override
+    public void close() throws IOException {
+        index.close();
+    }
+}
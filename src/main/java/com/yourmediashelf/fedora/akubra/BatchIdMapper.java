@@ -0,0 +1,166 @@
+/**
+ * Copyright (C) 2012 MediaShelf <http://www.yourmediashelf.com/>
+ *
+ * This file is part of uuid-datepath-idmapper.
+ *
+ * uuid-datepath-idmapper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * uuid-datepath-idmapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with uuid-datepath-idmapper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.yourmediashelf.fedora.akubra;
+
+import java.net.URI;
+import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import org.akubraproject.map.IdMapper;
+
+/**
+ * An {@link IdMapper} that can map many ids at once, e.g. for bulk ingest or
+ * when rebuilding a store.
+ *
+ * <p>All batch methods are implemented in terms of {@link #internalIdFunction()}
+ * and {@link #externalIdFunction()}, which implementations may override to
+ * reuse work between consecutive ids of a batch.
+ *
+ * @author Edwin Shin
+ *
+ */
+public interface BatchIdMapper extends IdMapper {
+
+    /**
+     * Returns a function equivalent to {@link #getInternalId(URI)} that may
+     * keep state between calls, and must therefore be confined to a single
+     * thread.
+     *
+     * @return a function mapping external ids to internal ids
+     */
+    default Function<URI, URI> internalIdFunction() {
+        return this::getInternalId;
+    }
+
+    /**
+     * Returns a function equivalent to {@link #getExternalId(URI)} that may
+     * keep state between calls, and must therefore be confined to a single
+     * thread.
+     *
+     * @return a function mapping internal ids to external ids
+     */
+    default Function<URI, URI> externalIdFunction() {
+        return this::getExternalId;
+    }
+
+    /**
+     * Maps each external id to the internal id at the same index.
+     *
+     * @param externalIds the external ids
+     * @param internalIds the array to store the internal ids in, at least as
+     * long as externalIds
+     * @param parallel whether to split large batches across the common
+     * {@link ForkJoinPool}
+     * @throws NullPointerException if any of the arguments or ids is null
+     * @throws IllegalArgumentException if internalIds is too short
+     */
+    default void getInternalIds(URI[] externalIds, URI[] internalIds, boolean parallel)
+            throws NullPointerException, IllegalArgumentException {
+        BatchTask.map(externalIds, internalIds, parallel, this::internalIdFunction);
+    }
+
+    /**
+     * Maps each external id to the internal id at the same index.
+     *
+     * @param externalIds the external ids
+     * @param internalIds the array to store the internal ids in, at least as
+     * long as externalIds
+     * @throws NullPointerException if any of the arguments or ids is null
+     * @throws IllegalArgumentException if internalIds is too short
+     */
+    default void getInternalIds(URI[] externalIds, URI[] internalIds)
+            throws NullPointerException, IllegalArgumentException {
+        getInternalIds(externalIds, internalIds, false);
+    }
+
+    /**
+     * Maps external ids, in iteration order, into the supplied array.
+     *
+     * @param externalIds the external ids
+     * @param internalIds the array to store the internal ids in
+     * @return the number of ids mapped
+     * @throws NullPointerException if any of the arguments or ids is null
+     * @throws IllegalArgumentException if externalIds has more elements than
+     * internalIds
+     */
+    default int getInternalIds(Iterable<URI> externalIds, URI[] internalIds)
+            throws NullPointerException, IllegalArgumentException {
+        Function<URI, URI> f = internalIdFunction();
+        int i = 0;
+        for (Iterator<URI> it = externalIds.iterator(); it.hasNext(); i++) {
+            if (i == internalIds.length) {
+                throw new IllegalArgumentException("More than " + i + " external ids");
+            }
+            internalIds[i] = f.apply(it.next());
+        }
+        return i;
+    }
+
+    /**
+     * Lazily maps a stream of external ids. Parallel streams are mapped in
+     * parallel.
+     *
+     * @param externalIds the external ids
+     * @return a stream of the internal ids
+     */
+    default Stream<URI> getInternalIds(Stream<URI> externalIds) {
+        return BatchTask.map(externalIds, this::internalIdFunction);
+    }
+
+    /**
+     * Lazily maps a spliterator of external ids. Each split of the returned
+     * spliterator uses its own {@link #internalIdFunction()}.
+     *
+     * @param externalIds the external ids
+     * @return a spliterator of the internal ids
+     */
+    default Spliterator<URI> getInternalIds(Spliterator<URI> externalIds) {
+        return new BatchTask.MappingSpliterator(externalIds, this::internalIdFunction);
+    }
+
+    /**
+     * Maps each internal id to the external id at the same index.
+     *
+     * @param internalIds the internal ids
+     * @param externalIds the array to store the external ids in, at least as
+     * long as internalIds
+     * @param parallel whether to split large batches across the common
+     * {@link ForkJoinPool}
+     * @throws NullPointerException if any of the arguments or ids is null
+     * @throws IllegalArgumentException if externalIds is too short
+     */
+    default void getExternalIds(URI[] internalIds, URI[] externalIds, boolean parallel)
+            throws NullPointerException, IllegalArgumentException {
+        BatchTask.map(internalIds, externalIds, parallel, this::externalIdFunction);
+    }
+
+    /**
+     * Lazily maps a stream of internal ids. Parallel streams are mapped in
+     * parallel.
+     *
+     * @param internalIds the internal ids
+     * @return a stream of the external ids
+     */
+    default Stream<URI> getExternalIds(Stream<URI> internalIds) {
+        return BatchTask.map(internalIds, this::externalIdFunction);
+    }
+}
@@ -0,0 +1,160 @@
+/**
+ * Copyright (C) 2012 MediaShelf <http://www.yourmediashelf.com/>
+ *
+ * This file is part of uuid-datepath-idmapper.
+ *
+ * uuid-datepath-idmapper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * uuid-datepath-idmapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with uuid-datepath-idmapper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.yourmediashelf.fedora.akubra;
+
+import java.net.URI;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Maps a range of an array of ids, splitting it across a {@link ForkJoinPool}
+ * if it is large. Every (sub)task maps its ids with its own mapping function.
+ *
+ * @author Edwin Shin
+ *
+ * @see BatchIdMapper
+ */
+class BatchTask extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Batches of at most this many ids are mapped by a single thread.
+     */
+    static final int THRESHOLD = 1024;
+
+    private final URI[] in;
+    private final URI[] out;
+    private final int from;
+    private final int to;
+    private final Supplier<Function<URI, URI>> functions;
+
+    BatchTask(URI[] in, URI[] out, int from, int to, Supplier<Function<URI, URI>> functions) {
+        this.in = in;
+        this.out = out;
+        this.from = from;
+        this.to = to;
+        this.functions = functions;
+    }
+
+    /**
+     * Maps in[i] to out[i] for every index of in.
+     *
+     * @param in the ids to map
+     * @param out the array to store the mapped ids in
+     * @param parallel whether to split large batches across the common
+     * {@link ForkJoinPool}
+     * @param functions supplies the mapping function of each task
+     */
+    static void map(URI[] in, URI[] out, boolean parallel, Supplier<Function<URI, URI>> functions) {
+        if (out.length < in.length) {
+            throw new IllegalArgumentException("Result array is shorter ("
+                    + out.length + ") than the batch (" + in.length + ")");
+        }
+        BatchTask task = new BatchTask(in, out, 0, in.length, functions);
+        if (parallel && in.length > THRESHOLD) {
+            ForkJoinPool.commonPool().invoke(task);
+        } else {
+            task.compute();
+        }
+    }
+
+    /**
+     * Lazily maps a stream, with one mapping function per split.
+     *
+     * @param ids the ids to map
+     * @param functions supplies the mapping function of each split
+     * @return a stream of the mapped ids
+     */
+    static Stream<URI> map(Stream<URI> ids, Supplier<Function<URI, URI>> functions) {
+        return StreamSupport.stream(new MappingSpliterator(ids.spliterator(), functions),
+                ids.isParallel()).onClose(ids::close);
+    }
+
+    @Override
+    protected void compute() {
+        if (to - from > THRESHOLD) {
+            int mid = (from + to) >>> 1;
+            invokeAll(new BatchTask(in, out, from, mid, functions),
+                    new BatchTask(in, out, mid, to, functions));
+        } else {
+            Function<URI, URI> f = functions.get();
+            for (int i = from; i < to; i++) {
+                out[i] = f.apply(in[i]);
+            }
+        }
+    }
+
+    /**
+     * A spliterator that maps the elements of another, with one mapping
+     * function per split.
+     */
+    static class MappingSpliterator implements Spliterator<URI> {
+        private final Spliterator<URI> source;
+        private final Supplier<Function<URI, URI>> functions;
+        private Function<URI, URI> f;
+
+        MappingSpliterator(Spliterator<URI> source, Supplier<Function<URI, URI>> functions) {
+            this.source = source;
+            this.functions = functions;
+        }
+
+        private Function<URI, URI> function() {
+            if (f == null) {
+                f = functions.get();
+            }
+            return f;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super URI> action) {
+            Function<URI, URI> f = function();
+            return source.tryAdvance(id -> action.accept(f.apply(id)));
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super URI> action) {
+            Function<URI, URI> f = function();
+            source.forEachRemaining(id -> action.accept(f.apply(id)));
+        }
+
+        @Override
+        public Spliterator<URI> trySplit() {
+            Spliterator<URI> prefix = source.trySplit();
+            return prefix == null ? null : new MappingSpliterator(prefix, functions);
+        }
+
+        @Override
+        public long estimateSize() {
+            return source.estimateSize();
+        }
+
+        @Override
+        public int characteristics() {
+            // the mapped ids are neither sorted nor distinct
+            return source.characteristics() & (ORDERED | SIZED | SUBSIZED | NONNULL | IMMUTABLE | CONCURRENT);
+        }
+    }
+}
@@ -0,0 +1,246 @@
+/**
+ * Copyright (C) 2012 MediaShelf <http://www.yourmediashelf.com/>
+ *
+ * This file is part of uuid-datepath-idmapper.
+ *
+ * uuid-datepath-idmapper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * uuid-datepath-idmapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with uuid-datepath-idmapper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.yourmediashelf.fedora.akubra;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongBiFunction;
+
+/**
+ * A concurrent cache, bounded by number of entries and by (estimated) bytes.
+ *
+ * <p>The cache is split into segments. Lookups are lock-free, inserts lock
+ * their segment only. Each segment evicts with the CLOCK algorithm, extended
+ * with a small saturating frequency counter per entry: a hit increments the
+ * counter, and the clock hand decrements it, evicting the first entry whose
+ * counter is zero. Entries that are looked up repeatedly therefore survive
+ * bursts of one-off lookups.
+ *
+ * <p>The entries and bytes are divided evenly among the segments, so an 
+ * entry is only cached if it weighs at most maxBytes / the number of 
+ * segments. Caches with small budgets therefore have fewer segments: each
+ * segment holds at least 64 entries and {@link #MIN_SEGMENT_BYTES}, and 
+ * small caches consist of a single segment, which can hold any entry that 
+ * fits into maxBytes.
+ *
+ * @author Edwin Shin
+ *
+ * @param <K> the type of keys
+ * @param <V> the type of values
+ */
+final class BoundedCache<K, V> {
+
+    /**
+     * The maximum value of the per-entry frequency counter.
+     */
+    private static final int MAX_FREQUENCY = 3;
+
+    /**
+     * The minimum number of bytes per segment, if there are several.
+     */
+    static final long MIN_SEGMENT_BYTES = 64 * 1024;
+
+    private final Segment<K, V>[] segments;
+
+    private final ToLongBiFunction<K, V> weigher;
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param maxEntries the maximum number of entries
+     * @param maxBytes the maximum total weight of the entries
+     * @param weigher estimates the size in bytes of an entry
+     * @throws IllegalArgumentException if maxEntries or maxBytes are not positive
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    BoundedCache(int maxEntries, long maxBytes, ToLongBiFunction<K, V> weigher) {
+        if (maxEntries <= 0 || maxBytes <= 0) {
+            throw new IllegalArgumentException("maxEntries (" + maxEntries
+                    + ") and maxBytes (" + maxBytes + ") must be positive");
+        }
+        // about 4 segments per processor, but at least 64 entries and 
+        // MIN_SEGMENT_BYTES per segment
+        int count = Math.min(4 * Runtime.getRuntime().availableProcessors(),
+                Math.max(1, maxEntries / 64));
+        count = (int) Math.max(1, Math.min(count, maxBytes / MIN_SEGMENT_BYTES));
+        count = Integer.highestOneBit(count);
+        segments = new Segment[count];
+        for (int i = 0; i < count; i++) {
+            segments[i] = new Segment<K, V>(maxEntries / count + (i < maxEntries % count ? 1 : 0),
+                    maxBytes / count);
+        }
+        this.weigher = weigher;
+    }
+
+    /**
+     * @param key the key
+     * @return the cached value, or null
+     * @throws NullPointerException if key is null
+     */
+    V get(K key) throws NullPointerException {
+        Node<K, V> node = segmentFor(key).map.get(key);
+        if (node == null) {
+            misses.increment();
+            return null;
+        }
+        // racy, but a lost increment only makes eviction slightly less accurate
+        if (node.frequency < MAX_FREQUENCY) {
+            node.frequency++;
+        }
+        hits.increment();
+        return node.value;
+    }
+
+    /**
+     * Adds an entry, unless the key is already cached, or the entry weighs
+     * more than the bytes of a segment.
+     *
+     * @param key the key
+     * @param value the value
+     * @throws NullPointerException if key or value is null
+     */
+    void put(K key, V value) throws NullPointerException {
+        if (key == null || value == null) {
+            throw new NullPointerException();
+        }
+        segmentFor(key).put(new Node<K, V>(key, value, weigher.applyAsLong(key, value)), evictions);
+    }
+
+    long hitCount() {
+        return hits.sum();
+    }
+
+    long missCount() {
+        return misses.sum();
+    }
+
+    long evictionCount() {
+        return evictions.sum();
+    }
+
+    int size() {
+        int size = 0;
+        for (Segment<K, V> segment : segments) {
+            size += segment.map.size();
+        }
+        return size;
+    }
+
+    long bytes() {
+        long bytes = 0;
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                bytes += segment.bytes;
+            }
+        }
+        return bytes;
+    }
+
+    void clear() {
+        for (Segment<K, V> segment : segments) {
+            segment.clear();
+        }
+    }
+
+    private Segment<K, V> segmentFor(K key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return segments[(h * 0x9e3779b9 >>> 16) & (segments.length - 1)];
+    }
+
+    private static final class Node<K, V> {
+        final K key;
+        final V value;
+        final long weight;
+        int frequency;
+
+        Node(K key, V value, long weight) {
+            this.key = key;
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    private static final class Segment<K, V> {
+        final ConcurrentHashMap<K, Node<K, V>> map;
+        final long maxBytes;
+
+        // guarded by this
+        final Node<K, V>[] ring;
+        int hand;
+        int count;
+        long bytes;
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        Segment(int maxEntries, long maxBytes) {
+            map = new ConcurrentHashMap<K, Node<K, V>>(maxEntries * 4 / 3 + 1);
+            ring = new Node[maxEntries];
+            this.maxBytes = maxBytes;
+        }
+
+        synchronized void put(Node<K, V> node, LongAdder evictions) {
+            if (node.weight > maxBytes || map.containsKey(node.key)) {
+                return;
+            }
+            while (count == ring.length || bytes + node.weight > maxBytes) {
+                evict();
+                evictions.increment();
+            }
+            while (ring[hand] != null) {
+                hand = (hand + 1) % ring.length;
+            }
+            ring[hand] = node;
+            hand = (hand + 1) % ring.length;
+            count++;
+            bytes += node.weight;
+            map.put(node.key, node);
+        }
+
+        // advances the clock hand to the first entry that was not hit since
+        // the hand last passed it, and evicts it
+        private void evict() {
+            for (;;) {
+                Node<K, V> node = ring[hand];
+                if (node != null) {
+                    if (node.frequency == 0) {
+                        ring[hand] = null;
+                        map.remove(node.key);
+                        count--;
+                        bytes -= node.weight;
+                        return;
+                    }
+                    node.frequency--;
+                }
+                hand = (hand + 1) % ring.length;
+            }
+        }
+
+        synchronized void clear() {
+            map.clear();
+            Arrays.fill(ring, null);
+            count = 0;
+            bytes = 0;
+        }
+    }
+}
@@ -0,0 +1,456 @@
+/**
+ * Copyright (C) 2012 MediaShelf <http://www.yourmediashelf.com/>
+ *
+ * This file is part of uuid-datepath-idmapper.
+ *
+ * uuid-datepath-idmapper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * uuid-datepath-idmapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with uuid-datepath-idmapper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.yourmediashelf.fedora.akubra;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.akubraproject.map.IdMapper;
+
+/**
+ * <p>A Bloom filter of the file names of each bucket directory of a store,
+ * i.e. of each date (and hash bucket) directory of a
+ * {@link UUIDDatePathIdMapper}, or of each directory of another IdMapper, so
+ * that a store can answer most existence checks of ids that were never 
+ * stored (e.g. ingest collision checks or broken references) without a stat.
+ * {@link #mightContain(CharSequence)} returns false only if the id is 
+ * certainly not stored, and true for stored ids and about 1% of the others.
+ *
+ * <p>The filter of a directory is built on its first use by listing the
+ * directory, and sized by its number of entries. The store must
+ * {@link #add(CharSequence) add} each id before it creates its file; when a
+ * filter holds more entries than it was sized for, it is rebuilt from the
+ * directory. The names of added ids are only kept in memory until a 
+ * {@link #flush()} finds their files, so that a rebuild cannot miss files
+ * that were not created yet. Deletions are not recorded, so the ids of 
+ * deleted files merely remain false positives until the next rebuild.
+ *
+ * <p>Filters are persisted by {@link #flush()} and {@link #close()} as 
+ * sidecar files of a separate directory, one per bucket directory, with the 
+ * modification time of the bucket directory. A sidecar is only used if the 
+ * bucket directory has not been modified since, so files that were added 
+ * while the filters were not open (e.g. after a crash, or by another 
+ * process) are found by listing the directory again. Note that this relies 
+ * on the precision of the file system's directory timestamps.
+ *
+ * <p>Only one instance may use a sidecar directory at a time.
+ *
+ * @author Edwin Shin
+ *
+ */
+public final class BucketBloomFilters implements Closeable {
+
+    private static final int MAGIC = 0x55444246; // "UDBF"
+    private static final int FORMAT_VERSION = 1;
+    private static final String SUFFIX = ".bloom";
+
+    /**
+     * The minimum number of entries a filter is sized for.
+     */
+    static final int MIN_CAPACITY = 64;
+
+    /**
+     * 10 bits per entry and 7 hash functions give a false positive rate of 
+     * about 1% at capacity, 0.1% at half of it.
+     */
+    private static final int BITS_PER_ENTRY = 10;
+    private static final int HASHES = 7;
+
+    private final PathIdMapper mapper;
+    private final Path root;
+    private final Path directory;
+
+    private final ConcurrentMap<String, Filter> filters = new ConcurrentHashMap<String, Filter>();
+
+    private final AtomicLong scans = new AtomicLong();
+
+    /**
+     *
+     * @param mapper the IdMapper of the store
+     * @param root the root directory of the store
+     * @param directory the directory of the sidecar files, created if it does
+     * not exist. It must not be a bucket directory of the store.
+     * @throws IOException if the directory cannot be created
+     */
+    public BucketBloomFilters(IdMapper mapper, Path root, Path directory) throws IOException {
+        if (mapper == null || root == null || directory == null) {
+            throw new NullPointerException();
+        }
+        this.mapper = PathIdMapper.adapt(mapper);
+        this.root = root;
+        this.directory = Files.createDirectories(directory);
+    }
+
+    /**
+     * @param externalId the external id
+     * @return false if the store certainly does not hold externalId, true 
+     * if it might
+     * @throws NullPointerException if externalId is null
+     * @throws UncheckedIOException if the filter of the id's directory had
+     * to be built, and the directory could not be listed
+     */
+    public boolean mightContain(CharSequence externalId) throws NullPointerException, UncheckedIOException {
+        StringBuilder path = new StringBuilder(externalId.length() * 5 / 4 + 32);
+        mapper.appendInternalPath(externalId, path);
+        int slash = path.lastIndexOf("/");
+        return filter(path.substring(0, Math.max(slash, 0))).mightContain(path, slash + 1);
+    }
+
+    /**
+     * Records that the store is about to create the file of externalId. 
+     * Must be called before the file is created, so that a concurrent 
+     * {@link #flush()} or rebuild of the filter cannot miss it.
+     *
+     * @param externalId the external id
+     * @throws NullPointerException if externalId is null
+     * @throws UncheckedIOException if the filter of the id's directory had
+     * to be built, and the directory could not be listed
+     */
+    public void add(CharSequence externalId) throws NullPointerException, UncheckedIOException {
+        StringBuilder path = new StringBuilder(externalId.length() * 5 / 4 + 32);
+        mapper.appendInternalPath(externalId, path);
+        int slash = path.lastIndexOf("/");
+        String dir = path.substring(0, Math.max(slash, 0));
+        String name = path.substring(slash + 1);
+        while (true) {
+            Filter filter = filter(dir);
+            synchronized (filter) {
+                if (filter.retired) {
+                    // rebuilt concurrently
+                    continue;
+                }
+                if (filter.add(name) && filter.count > filter.capacity) {
+                    Filter rebuilt;
+                    try {
+                        rebuilt = scan(dir, filter.pending);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    filter.retired = true;
+                    filters.put(dir, rebuilt);
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Writes the sidecar files of the filters that changed since they were
+     * last written, and forgets the added ids whose files were created.
+     *
+     * @throws IOException if a sidecar file cannot be written
+     */
+    public void flush() throws IOException {
+        for (Filter filter : filters.values()) {
+            prune(filter);
+            if (filter.dirty) {
+                filter.dirty = false;
+                try {
+                    write(filter);
+                } catch (IOException e) {
+                    filter.dirty = true;
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Flushes the filters.
+     */
+    @Override
+    public void close() throws IOException {
+        flush();
+    }
+
+    /**
+     * @return the number of directories listed to build filters
+     */
+    long getScanCount() {
+        return scans.get();
+    }
+
+    /**
+     * Returns the filter of a directory, reading or building it outside of
+     * the map, so that the I/O does not block the lookups of other 
+     * directories. Concurrent first uses of a directory may both build its
+     * filter, but only the first one is kept.
+     */
+    private Filter filter(String dir) throws UncheckedIOException {
+        Filter filter = filters.get(dir);
+        if (filter != null) {
+            return filter;
+        }
+        try {
+            filter = read(dir);
+            if (filter == null) {
+                filter = scan(dir, Collections.<String>emptySet());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        Filter existing = filters.putIfAbsent(dir, filter);
+        return existing != null ? existing : filter;
+    }
+
+    /**
+     * Builds the filter of a directory from its entries, and the names of
+     * the ids that were added to the filter it replaces, but whose files had
+     * not been created when it was last flushed.
+     */
+    private Filter scan(String dir, Set<String> pending) throws IOException {
+        scans.incrementAndGet();
+        Set<String> names = new HashSet<String>();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(root.resolve(dir))) {
+            for (Path entry : entries) {
+                // subdirectories (e.g. of an AdaptiveUUIDDatePathIdMapper) 
+                // are merely false positives
+                names.add(entry.getFileName().toString());
+            }
+        } catch (NoSuchFileException e) {
+            // no id of the directory was stored yet
+        }
+        Filter filter = new Filter(dir, Math.max(MIN_CAPACITY, 2 * (names.size() + pending.size())));
+        for (String name : names) {
+            filter.set(name, 0);
+        }
+        for (String name : pending) {
+            if (!names.contains(name)) {
+                filter.set(name, 0);
+                filter.pending.add(name);
+            }
+        }
+        filter.count = names.size() + filter.pending.size();
+        filter.dirty = true;
+        return filter;
+    }
+
+    /**
+     * Forgets the pending names of a filter whose files exist, as a rebuild
+     * will find them in the directory.
+     */
+    private void prune(Filter filter) {
+        List<String> pending;
+        synchronized (filter) {
+            if (filter.pending.isEmpty()) {
+                return;
+            }
+            pending = new ArrayList<String>(filter.pending);
+        }
+        Path dir = root.resolve(filter.directory);
+        List<String> created = new ArrayList<String>();
+        for (String name : pending) {
+            if (Files.exists(dir.resolve(name), LinkOption.NOFOLLOW_LINKS)) {
+                created.add(name);
+            }
+        }
+        synchronized (filter) {
+            filter.pending.removeAll(created);
+        }
+    }
+
+    /**
+     * @return the filter of the sidecar file of a directory, or null if 
+     * there is none, or the directory was modified since it was written
+     */
+    private Filter read(String dir) throws IOException {
+        Path sidecar = directory.resolve(IdMapperUtil.encode(dir) + SUFFIX);
+        long modified = modified(root.resolve(dir));
+        try (InputStream in = Files.newInputStream(sidecar)) {
+            DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+            if (data.readInt() != MAGIC || data.readInt() != FORMAT_VERSION 
+                    || data.readLong() != modified) {
+                return null;
+            }
+            int capacity = data.readInt();
+            int count = data.readInt();
+            if (capacity < MIN_CAPACITY || count < 0 || data.readInt() != words(capacity)) {
+                return null;
+            }
+            Filter filter = new Filter(dir, capacity);
+            for (int i = 0; i < filter.words.length(); i++) {
+                filter.words.set(i, data.readLong());
+            }
+            filter.count = count;
+            return filter;
+        } catch (IOException e) {
+            // no sidecar, or e.g. a truncated one, which is rebuilt
+            return null;
+        }
+    }
+
+    /**
+     * Writes the sidecar file of a filter, with the modification time of its
+     * directory read before the bits, so that the files of ids added after
+     * the bits were read modify the directory afterwards.
+     */
+    private void write(Filter filter) throws IOException {
+        long modified = modified(root.resolve(filter.directory));
+        Path sidecar = directory.resolve(IdMapperUtil.encode(filter.directory) + SUFFIX);
+        Path temp = directory.resolve(sidecar.getFileName() + ".tmp");
+        int count;
+        synchronized (filter) {
+            count = filter.count;
+        }
+        try (OutputStream out = Files.newOutputStream(temp)) {
+            DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+            data.writeInt(MAGIC);
+            data.writeInt(FORMAT_VERSION);
+            data.writeLong(modified);
+            data.writeInt(filter.capacity);
+            data.writeInt(count);
+            data.writeInt(filter.words.length());
+            for (int i = 0; i < filter.words.length(); i++) {
+                data.writeLong(filter.words.get(i));
+            }
+            data.flush();
+        }
+        Files.move(temp, sidecar, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return the modification time of a directory in nanoseconds, or -1 if
+     * it does not exist
+     */
+    private static long modified(Path dir) throws IOException {
+        try {
+            return Files.getLastModifiedTime(dir).to(TimeUnit.NANOSECONDS);
+        } catch (NoSuchFileException e) {
+            return -1;
+        }
+    }
+
+    private static int words(int capacity) {
+        return (int) (((long) capacity * BITS_PER_ENTRY + 63) / 64);
+    }
+
+    /**
+     * The 64-bit FNV-1a hash of the chars of s from begin, mixed.
+     */
+    private static long hash(CharSequence s, int begin) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = begin; i < s.length(); i++) {
+            h = (h ^ s.charAt(i)) * 0x100000001b3L;
+        }
+        return HashBuckets.mix(h);
+    }
+
+    /**
+     * The Bloom filter of a directory. Readers don't lock; bits are only 
+     * ever set.
+     */
+    private static final class Filter {
+        final String directory;
+        final int capacity;
+        final AtomicLongArray words;
+        final long bits;
+
+        // guarded by this
+        int count;
+        boolean retired;
+
+        /**
+         * The names added whose files may not have been created yet, which a
+         * rebuild may not find in the directory.
+         */
+        // guarded by this
+        final Set<String> pending = new HashSet<String>();
+
+        volatile boolean dirty;
+
+        Filter(String directory, int capacity) {
+            this.directory = directory;
+            this.capacity = capacity;
+            this.words = new AtomicLongArray(words(capacity));
+            this.bits = 64L * words.length();
+        }
+
+        boolean mightContain(CharSequence path, int begin) {
+            long h = hash(path, begin);
+            long step = (h >>> 32) | 1;
+            for (int i = 0; i < HASHES; i++, h += step) {
+                long bit = (h & Long.MAX_VALUE) % bits;
+                if ((words.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * @return true if the name was not in the filter before, i.e. if a 
+         * bit was set, in which case it is counted
+         */
+        // guarded by this
+        boolean add(String name) {
+            pending.add(name);
+            if (!set(name, 0)) {
+                return false;
+            }
+            count++;
+            dirty = true;
+            return true;
+        }
+
+        /**
+         * @return true if a bit was set
+         */
+        boolean set(CharSequence name, int begin) {
+            boolean changed = false;
+            long h = hash(name, begin);
+            long step = (h >>> 32) | 1;
+            for (int i = 0; i < HASHES; i++, h += step) {
+                long bit = (h & Long.MAX_VALUE) % bits;
+                int word = (int) (bit >>> 6);
+                long mask = 1L << bit;
+                long value;
+                while (((value = words.get(word)) & mask) == 0) {
+                    if (words.compareAndSet(word, value, value | mask)) {
+                        changed = true;
+                        break;
+                    }
+                }
+            }
+            return changed;
+        }
+    }
+}
@@ -0,0 +1,233 @@
+/**
+ * Copyright (C) 2012 MediaShelf <http://www.yourmediashelf.com/>
+ *
+ * This file is part of uuid-datepath-idmapper.
+ *
+ * uuid-datepath-idmapper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * uuid-datepath-idmapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with uuid-datepath-idmapper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.yourmediashelf.fedora.akubra;
+
+import java.net.URI;
+
+import org.akubraproject.map.IdMapper;
+
+/**
+ * An IdMapper that caches the mappings of another IdMapper, in both
+ * directions.
+ *
+ * <p>Fedora resolves the same hot ids (content models, frequently accessed
+ * objects) over and over; with this decorator, repeat lookups cost a single
+ * concurrent hash lookup. The caches are bounded by number of entries and by
+ * estimated memory, and evict entries that are rarely hit first (see
+ * {@link BoundedCache}).
+ *
+ * <p>Ids are cached by their string form, as distinct ids may be equal 
+ * URIs (e.g. <code>info:fedora/a%2fb</code> and <code>info:fedora/a%2Fb</code>),
+ * which are mapped to different internal ids. Mapping an external id also
+ * caches the reverse mapping, as Akubra IdMappers are required to be 
+ * reversible; mapping an internal id does not, as the internal id passed in
+ * need not be the one the external id maps to (e.g. if it has lower case 
+ * escapes). Internal prefixes are not cached.
+ *
+ * @author Edwin Shin
+ *
+ */
+public class CachingIdMapper implements BatchIdMapper {
+
+    /**
+     * The default maximum number of cached ids, per direction.
+     */
+    public static final int DEFAULT_MAX_ENTRIES = 10000;
+
+    /**
+     * The default maximum estimated memory of the cached ids, per direction.
+     */
+    public static final long DEFAULT_MAX_BYTES = 16L * 1024 * 1024;
+
+    private final IdMapper idMapper;
+
+    private final BoundedCache<String, URI> internalIds;
+
+    private final BoundedCache<String, URI> externalIds;
+
+    /**
+     * Convenience constructor that uses the default cache sizes.
+     *
+     * @param idMapper the IdMapper to cache the mappings of
+     */
+    public CachingIdMapper(IdMapper idMapper) {
+        this(idMapper, DEFAULT_MAX_ENTRIES, DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     *
+     * @param idMapper the IdMapper to cache the mappings of
+     * @param maxEntries the maximum number of cached ids, per direction
+     * @param maxBytes the maximum estimated memory of the cached ids, per
+     * direction
+     * @throws NullPointerException if idMapper is null
+     * @throws IllegalArgumentException if maxEntries or maxBytes are not positive
+     */
+    public CachingIdMapper(IdMapper idMapper, int maxEntries, long maxBytes) {
+        if (idMapper == null) {
+            throw new NullPointerException();
+        }
+        this.idMapper = idMapper;
+        internalIds = new BoundedCache<String, URI>(maxEntries, maxBytes, CachingIdMapper::weigh);
+        externalIds = new BoundedCache<String, URI>(maxEntries, maxBytes, CachingIdMapper::weigh);
+    }
+
+    /* (non-Javadoc)
+     * @see org.akubraproject.map.IdMapper#getExternalId(java.net.URI)
+     */
+    public URI getExternalId(URI internalId) throws NullPointerException {
+        if (internalId == null) {
+            throw new NullPointerException();
+        }
+        String key = internalId.toString();
+        URI externalId = externalIds.get(key);
+        if (externalId == null) {
+            externalId = idMapper.getExternalId(internalId);
+            externalIds.put(key, externalId);
+        }
+        return externalId;
+    }
+
+    /* (non-Javadoc)
+     * @see org.akubraproject.map.IdMapper#getInternalId(java.net.URI)
+     */
+    public URI getInternalId(URI externalId) throws NullPointerException {
+        if (externalId == null) {
+            throw new NullPointerException();
+        }
+        String key = externalId.toString();
+        URI internalId = internalIds.get(key);
+        if (internalId == null) {
+            internalId = idMapper.getInternalId(externalId);
+            internalIds.put(key, internalId);
+            externalIds.put(internalId.toString(), externalId);
+        }
+        return internalId;
+    }
+
+    /* (non-Javadoc)
+     * @see org.akubraproject.map.IdMapper#getInternalPrefix(java.lang.String)
+     */
+    public String getInternalPrefix(String externalPrefix) throws NullPointerException {
+        return idMapper.getInternalPrefix(externalPrefix);
+    }
+
+    /**
+     * @return the statistics of the external to internal id cache
+     */
+    public CacheStats getInternalIdStats() {
+        return new CacheStats(internalIds);
+    }
+
+    /**
+     * @return the statistics of the internal to external id cache
+     */
+    public CacheStats getExternalIdStats() {
+        return new CacheStats(externalIds);
+    }
+
+    /**
+     * Removes all cached ids. The statistics are not reset.
+     */
+    public void clear() {
+        internalIds.clear();
+        externalIds.clear();
+    }
+
+    /**
+     * Estimates the memory used by a cache entry: the entry itself, the key
+     * and the URI. A URI keeps its string form (usually the key) along with
+     * most of its components, i.e. about twice the chars of the string.
+     */
+    private static long weigh(String key, URI value) {
+        return 64 + 40 + 2L * key.length() + weigh(value);
+    }
+
+    private static long weigh(URI uri) {
+        return 80 + 4L * uri.toString().length();
+    }
+
+    /**
+     * A snapshot of the statistics of a cache.
+     */
+    public static final class CacheStats {
+        private final long hitCount;
+        private final long missCount;
+        private final long evictionCount;
+        private final int size;
+        private final long bytes;
+
+        CacheStats(BoundedCache<?, ?> cache) {
+            hitCount = cache.hitCount();
+            missCount = cache.missCount();
+            evictionCount = cache.evictionCount();
+            size = cache.size();
+            bytes = cache.bytes();
+        }
+
+        /**
+         * @return the number of lookups that were answered from the cache
+         */
+        public long getHitCount() {
+            return hitCount;
+        }
+
+        /**
+         * @return the number of lookups that were delegated
+         */
+        public long getMissCount() {
+            return missCount;
+        }
+
+        /**
+         * @return the ratio of hits to lookups, or 0 if there were no lookups
+         */
+        public double getHitRate() {
+            long lookups = hitCount + missCount;
+            return lookups == 0 ? 0 : (double) hitCount / lookups;
+        }
+
+        /**
+         * @return the number of entries evicted to make room for others
+         */
+        public long getEvictionCount() {
+            return evictionCount;
+        }
+
+        /**
+         * @return the number of cached entries
+         */
+        public int getSize() {
+            return size;
+        }
+
+        /**
+         * @return the estimated memory of the cached entries
+         */
+        public long getBytes() {
+            return bytes;
+        }
+
+        @Override
+        public String toString() {
+            return "hits=" + hitCount + ", misses=" + missCount + ", evictions="
+                    + evictionCount + ", size=" + size + ", bytes=" + bytes;
+        }
+    }
+}
@@ -0,0 +1,383 @@
+/**
+ * Copyright (C) 2012 MediaShelf <http://www.yourmediashelf.com/>
+ *
+ * This file is part of uuid-datepath-idmapper.
+ *
+ * uuid-datepath-idmapper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * uuid-datepath-idmapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with uuid-datepath-idmapper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.yourmediashelf.fedora.akubra;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+
+/**
+ * Renders UTC timestamps as paths (including the trailing '/') according to
+ * a {@link DateTimeFormat} pattern.
+ *
+ * <p>Patterns consisting only of numeric year, month, day, hour, minute and
+ * second fields (y, M, MM, d, H, m, s) and literals are compiled into a list
+ * of fields that are written directly into a char buffer. The fields are 
+ * computed arithmetically from the timestamp (in the proleptic Gregorian 
+ * calendar, as Joda-Time's ISO chronology), without allocating any objects.
+ * Any other pattern is rendered with Joda-Time.
+ *
+ * <p>Rendered paths are kept in a small direct-mapped cache, keyed by the
+ * timestamp truncated to the finest unit of the pattern, so that timestamps
+ * falling into the same period (e.g. the same day for "yyyy/MM/dd") share a
+ * single, interned path String.
+ *
+ * @author Edwin Shin
+ *
+ */
+final class DatePathRenderer {
+
+    private static final long MILLIS_PER_SECOND = 1000L;
+    private static final long MILLIS_PER_MINUTE = 60 * MILLIS_PER_SECOND;
+    private static final long MILLIS_PER_HOUR = 60 * MILLIS_PER_MINUTE;
+    private static final long MILLIS_PER_DAY = 24 * MILLIS_PER_HOUR;
+
+    /**
+     * The number of cached paths, must be a power of 2.
+     */
+    private static final int CACHE_SIZE = 256;
+
+    /**
+     * The maximum number of chars of a rendered year.
+     */
+    private static final int MAX_YEAR_DIGITS = 9;
+
+    /**
+     * The compiled fields, or null if the pattern must be rendered by Joda-Time.
+     */
+    private final Field[] fields;
+
+    private final DateTimeFormatter fmt;
+
+    private final long unitMillis;
+
+    private final int maxLength;
+
+    private final Entry[] cache = new Entry[CACHE_SIZE];
+
+    private final ThreadLocal<char[]> buffer = new ThreadLocal<char[]>() {
+        @Override
+        protected char[] initialValue() {
+            return new char[maxLength];
+        }
+    };
+
+    /**
+     * @param dateFormat a {@link DateTimeFormat} pattern
+     * @throws IllegalArgumentException if the pattern is invalid
+     */
+    DatePathRenderer(String dateFormat) throws IllegalArgumentException {
+        // always validate the pattern, even if it can be compiled
+        this.fmt = DateTimeFormat.forPattern(dateFormat).withZone(DateTimeZone.UTC);
+        this.fields = compile(dateFormat);
+        this.unitMillis = unitMillis(dateFormat);
+
+        int length = 1; // trailing '/'
+        if (fields != null) {
+            for (Field field : fields) {
+                length += field.maxLength();
+            }
+        }
+        this.maxLength = length;
+    }
+
+    /**
+     * Get the path for the supplied timestamp.
+     *
+     * @param millis milliseconds since the Unix epoch
+     * @return the rendered path, e.g. "2011/10/13/"
+     */
+    String getPath(long millis) {
+        long key = floorDiv(millis, unitMillis);
+        int slot = (int) key & (CACHE_SIZE - 1);
+        Entry entry = cache[slot];
+        if (entry != null && entry.key == key) {
+            return entry.path;
+        }
+        String path = render(millis).intern();
+        cache[slot] = new Entry(key, path);
+        return path;
+    }
+
+    /**
+     * @return the length of the finest unit of the pattern in milliseconds,
+     * at most a day, i.e. every path is determined by the timestamp truncated
+     * to this unit
+     */
+    long getUnitMillis() {
+        return unitMillis;
+    }
+
+    private String render(long millis) {
+        if (fields == null) {
+            return new DateTime(millis, DateTimeZone.UTC).toString(fmt) + '/';
+        }
+
+        long days = floorDiv(millis, MILLIS_PER_DAY);
+        int millisOfDay = (int) (millis - days * MILLIS_PER_DAY);
+        long yearMonthDay = civilFromDays(days);
+        int year = (int) (yearMonthDay >> 16);
+        int month = (int) (yearMonthDay >> 8) & 0xff;
+        int day = (int) yearMonthDay & 0xff;
+        int hour = millisOfDay / (int) MILLIS_PER_HOUR;
+        int minute = millisOfDay / (int) MILLIS_PER_MINUTE % 60;
+        int second = millisOfDay / (int) MILLIS_PER_SECOND % 60;
+
+        char[] buf = buffer.get();
+        int pos = 0;
+        for (Field field : fields) {
+            pos = field.render(buf, pos, year, month, day, hour, minute, second);
+        }
+        buf[pos++] = '/';
+        return new String(buf, 0, pos);
+    }
+
+    /**
+     * Converts days since 1970-01-01 to a date in the proleptic Gregorian
+     * calendar, using Howard Hinnant's civil_from_days algorithm.
+     *
+     * @param days days since the Unix epoch
+     * @return the year, month (1-12) and day of month (1-31) of the date, 
+     * packed as <code>year &lt;&lt; 16 | month &lt;&lt; 8 | day</code>
+     */
+    static long civilFromDays(long days) {
+        // shift the epoch to 0000-03-01, so that leap days end a year
+        long z = days + 719468;
+        long era = floorDiv(z, 146097);
+        long dayOfEra = z - era * 146097;                           // [0, 146096]
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 
+                - dayOfEra / 146096) / 365;                         // [0, 399]
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 
+                - yearOfEra / 100);                                 // [0, 365]
+        long monthFromMarch = (5 * dayOfYear + 2) / 153;            // [0, 11]
+        long day = dayOfYear - (153 * monthFromMarch + 2) / 5 + 1;  // [1, 31]
+        long month = monthFromMarch < 10 ? monthFromMarch + 3 : monthFromMarch - 9;
+        long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+        return year << 16 | month << 8 | day;
+    }
+
+    /**
+     * Compiles the pattern into a list of fields.
+     *
+     * @param pattern a {@link DateTimeFormat} pattern
+     * @return the compiled fields, or null if the pattern uses anything but
+     * numeric year, month, day, hour, minute and second fields.
+     */
+    private static Field[] compile(String pattern) {
+        List<Field> fields = new ArrayList<Field>();
+        int i = 0;
+        while (i < pattern.length()) {
+            char c = pattern.charAt(i);
+            if (c == '\'') {
+                // quoted literal; '' is an escaped quote
+                StringBuilder literal = new StringBuilder();
+                int j = i + 1;
+                if (j < pattern.length() && pattern.charAt(j) == '\'') {
+                    literal.append('\'');
+                    j++;
+                } else {
+                    while (j < pattern.length()) {
+                        char q = pattern.charAt(j);
+                        if (q == '\'') {
+                            if (j + 1 < pattern.length() && pattern.charAt(j + 1) == '\'') {
+                                literal.append('\'');
+                                j += 2;
+                                continue;
+                            }
+                            j++;
+                            break;
+                        }
+                        literal.append(q);
+                        j++;
+                    }
+                }
+                fields.add(new Field('\'', 0, literal.toString()));
+                i = j;
+            } else if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')) {
+                int j = i + 1;
+                while (j < pattern.length() && pattern.charAt(j) == c) {
+                    j++;
+                }
+                int count = j - i;
+                switch (c) {
+                case 'y':
+                case 'd':
+                case 'H':
+                case 'm':
+                case 's':
+                    break;
+                case 'M':
+                    if (count > 2) {
+                        // textual month
+                        return null;
+                    }
+                    break;
+                default:
+                    return null;
+                }
+                fields.add(new Field(c, count, null));
+                i = j;
+            } else {
+                fields.add(new Field('\'', 0, String.valueOf(c)));
+                i++;
+            }
+        }
+        return fields.toArray(new Field[fields.size()]);
+    }
+
+    /**
+     * Determine the period, in milliseconds, within which all timestamps
+     * render to the same path.
+     *
+     * @param pattern a {@link DateTimeFormat} pattern
+     * @return the length of the period in milliseconds
+     */
+    private static long unitMillis(String pattern) {
+        long unit = MILLIS_PER_DAY;
+        boolean quoted = false;
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            if (c == '\'') {
+                quoted = !quoted;
+            } else if (!quoted && ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z'))) {
+                switch (c) {
+                case 'H':
+                case 'k':
+                case 'h':
+                case 'K':
+                case 'a':
+                    unit = Math.min(unit, MILLIS_PER_HOUR);
+                    break;
+                case 'm':
+                    unit = Math.min(unit, MILLIS_PER_MINUTE);
+                    break;
+                case 's':
+                    unit = Math.min(unit, MILLIS_PER_SECOND);
+                    break;
+                case 'y':
+                case 'Y':
+                case 'x':
+                case 'M':
+                case 'd':
+                case 'D':
+                case 'e':
+                case 'E':
+                case 'w':
+                case 'C':
+                case 'G':
+                case 'z':
+                case 'Z':
+                    break;
+                default:
+                    // e.g. fraction of second
+                    unit = 1;
+                }
+            }
+        }
+        return unit;
+    }
+
+    private static long floorDiv(long x, long y) {
+        long q = x / y;
+        if ((x % y != 0) && ((x ^ y) < 0)) {
+            q--;
+        }
+        return q;
+    }
+
+    /**
+     * A compiled pattern field: either a numeric date field or a literal.
+     */
+    private static final class Field {
+        private final char type;
+        private final int count;
+        private final String literal;
+
+        Field(char type, int count, String literal) {
+            this.type = type;
+            this.count = count;
+            this.literal = literal;
+        }
+
+        int maxLength() {
+            if (literal != null) {
+                return literal.length();
+            }
+            if (type == 'y') {
+                return Math.max(count, MAX_YEAR_DIGITS);
+            }
+            return Math.max(count, 2);
+        }
+
+        int render(char[] buf, int pos, int year, int month, int day, 
+                int hour, int minute, int second) {
+            switch (type) {
+            case 'y':
+                if (count == 2) {
+                    return digits(buf, pos, year % 100, 2);
+                }
+                return digits(buf, pos, year, count);
+            case 'M':
+                return digits(buf, pos, month, count);
+            case 'd':
+                return digits(buf, pos, day, count);
+            case 'H':
+                return digits(buf, pos, hour, count);
+            case 'm':
+                return digits(buf, pos, minute, count);
+            case 's':
+                return digits(buf, pos, second, count);
+            default:
+                literal.getChars(0, literal.length(), buf, pos);
+                return pos + literal.length();
+            }
+        }
+
+        /**
+         * Writes a non-negative value as decimal digits, zero-padded to
+         * minDigits.
+         */
+        private static int digits(char[] buf, int pos, int value, int minDigits) {
+            int n = 1;
+            for (int v = value / 10; v > 0; v /= 10) {
+                n++;
+            }
+            n = Math.max(n, minDigits);
+            for (int i = pos + n - 1; i >= pos; i--) {
+                buf[i] = (char) ('0' + value % 10);
+                value /= 10;
+            }
+            return pos + n;
+        }
+    }
+
+    private static final class Entry {
+        private final long key;
+        private final String path;
+
+        Entry(long key, String path) {
+            this.key = key;
+            this.path = path;
+        }
+    }
+}
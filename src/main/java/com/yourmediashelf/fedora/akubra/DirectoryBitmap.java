@@ -0,0 +1,300 @@
+/**
+ * Copyright (C) 2012 MediaShelf <http://www.yourmediashelf.com/>
+ *
+ * This file is part of uuid-datepath-idmapper.
+ *
+ * uuid-datepath-idmapper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * uuid-datepath-idmapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with uuid-datepath-idmapper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.yourmediashelf.fedora.akubra;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * <p>A memory-mapped bitmap of the day directories of a store that are known
+ * to exist, indexed by the day (since 1970-01-01) and the slot of the
+ * namespace prefix of the directory, so that a store can skip the mkdirs or
+ * exists call when writing an id whose directory was created before. See
+ * {@link UUIDDatePathIdMapper#setDirectoryBitmap(DirectoryBitmap)}.
+ *
+ * <p>The file holds a table of the namespace prefixes, and a bitmap of 
+ * 2<sup>16</sup> days (i.e. until 2149) &times; the number of namespace 
+ * slots, e.g. 2 MB for 256 slots. It can be shared by several JVMs on the 
+ * same host: slots are assigned under a file lock, and bits are only ever 
+ * set, so that a set lost in a race between processes merely causes another
+ * mkdirs call.
+ *
+ * <p>A bit is only correct as long as the directory exists. Therefore, use 
+ * a separate bitmap for each store, don't use one for stores that delete 
+ * empty directories, and {@link #clear()} it after a crash of the host, 
+ * which may lose directories created shortly before.
+ *
+ * @author Edwin Shin
+ *
+ */
+public final class DirectoryBitmap implements Closeable {
+
+    /**
+     * The number of days covered, from 1970-01-01.
+     */
+    static final int DAYS = 1 << 16;
+
+    private static final int MAGIC = 0x55444442; // "UDDB"
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+
+    /**
+     * The size of a namespace table entry: the length of the UTF-8 encoded
+     * namespace plus one (0 for a free slot), and the namespace.
+     */
+    private static final int NAMESPACE_SIZE = 64;
+
+    /**
+     * The locks of the open bitmap files, by canonical path, as file locks
+     * are held by the JVM, rather than by a FileChannel.
+     */
+    private static final ConcurrentMap<String, Object> locks = new ConcurrentHashMap<String, Object>();
+
+    private final Object lock;
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int slots;
+    private final int bitmapOffset;
+
+    private final ConcurrentMap<String, Integer> slotsByNamespace = new ConcurrentHashMap<String, Integer>();
+
+    /**
+     * Opens a bitmap, creating it if the file does not exist.
+     *
+     * @param file the bitmap file
+     * @param namespaceSlots the number of namespace prefixes the bitmap can 
+     * hold, if it is created, rounded up to a multiple of 64
+     * @throws IOException if the file cannot be opened, or is not a bitmap
+     * @throws IllegalArgumentException if namespaceSlots is not positive
+     */
+    public DirectoryBitmap(File file, int namespaceSlots) throws IOException, IllegalArgumentException {
+        if (namespaceSlots <= 0 || namespaceSlots > 1 << 16) {
+            throw new IllegalArgumentException("namespaceSlots must be between 1 and 65536: " 
+                    + namespaceSlots);
+        }
+        String path = file.getCanonicalPath();
+        Object newLock = new Object();
+        Object existingLock = locks.putIfAbsent(path, newLock);
+        this.lock = existingLock == null ? newLock : existingLock;
+
+        this.file = new RandomAccessFile(file, "rw");
+        this.channel = this.file.getChannel();
+        try {
+            int slots = (namespaceSlots + 63) & ~63;
+            synchronized (lock) {
+                FileLock fileLock = channel.lock();
+                try {
+                    if (channel.size() == 0) {
+                        this.file.setLength(size(slots));
+                        this.file.writeInt(MAGIC);
+                        this.file.writeInt(FORMAT_VERSION);
+                        this.file.writeInt(slots);
+                    } else {
+                        this.file.seek(0);
+                        if (channel.size() < HEADER_SIZE || this.file.readInt() != MAGIC 
+                                || this.file.readInt() != FORMAT_VERSION) {
+                            throw new IOException(file + " is not a directory bitmap");
+                        }
+                        slots = this.file.readInt();
+                        if (slots <= 0 || slots % 64 != 0 || channel.size() != size(slots)) {
+                            throw new IOException(file + " is corrupt");
+                        }
+                    }
+                } finally {
+                    fileLock.release();
+                }
+            }
+            this.slots = slots;
+            this.bitmapOffset = HEADER_SIZE + slots * NAMESPACE_SIZE;
+            this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size(slots));
+        } catch (IOException e) {
+            this.file.close();
+            throw e;
+        }
+    }
+
+    private static long size(int slots) {
+        return HEADER_SIZE + (long) slots * NAMESPACE_SIZE + (long) DAYS * slots / 8;
+    }
+
+    /**
+     * @param namespace the namespace prefix of the directory, or "" for none
+     * @param day the day of the directory, since 1970-01-01
+     * @return true if the directory was recorded as created
+     */
+    public boolean contains(String namespace, long day) {
+        if (day < 0 || day >= DAYS) {
+            return false;
+        }
+        int slot = slot(namespace, false);
+        if (slot == -1) {
+            return false;
+        }
+        long bit = day * slots + slot;
+        return (buffer.getLong(bitmapOffset + (int) (bit >>> 6) * 8) & (1L << bit)) != 0;
+    }
+
+    /**
+     * Records that a directory was created. Directories of days outside of 
+     * the range of the bitmap, or of namespace prefixes for which there is no
+     * free slot, are not recorded.
+     *
+     * @param namespace the namespace prefix of the directory, or "" for none
+     * @param day the day of the directory, since 1970-01-01
+     * @return true if the directory was recorded
+     * @throws IllegalStateException if the namespace table cannot be locked
+     */
+    public boolean add(String namespace, long day) throws IllegalStateException {
+        if (day < 0 || day >= DAYS) {
+            return false;
+        }
+        int slot = slot(namespace, true);
+        if (slot == -1) {
+            return false;
+        }
+        long bit = day * slots + slot;
+        int offset = bitmapOffset + (int) (bit >>> 6) * 8;
+        synchronized (lock) {
+            long word = buffer.getLong(offset);
+            if ((word & (1L << bit)) == 0) {
+                buffer.putLong(offset, word | (1L << bit));
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Forgets all directories, e.g. after a crash of the host. Namespace 
+     * slots are kept.
+     *
+     * @throws IOException if the bitmap cannot be locked
+     */
+    public void clear() throws IOException {
+        synchronized (lock) {
+            FileLock fileLock = channel.lock();
+            try {
+                for (int offset = bitmapOffset; offset < buffer.capacity(); offset += 8) {
+                    buffer.putLong(offset, 0);
+                }
+                buffer.force();
+            } finally {
+                fileLock.release();
+            }
+        }
+    }
+
+    /**
+     * Returns the slot of a namespace prefix, assigning a free one if 
+     * <code>create</code> is true. Slots are assigned under a lock of the 
+     * namespace table, and published by writing the length last.
+     *
+     * @return the slot, or -1
+     */
+    private int slot(String namespace, boolean create) throws IllegalStateException {
+        Integer slot = slotsByNamespace.get(namespace);
+        if (slot != null) {
+            return slot;
+        }
+        byte[] name = namespace.getBytes(StandardCharsets.UTF_8);
+        if (name.length >= NAMESPACE_SIZE) {
+            return -1;
+        }
+        if (!create) {
+            return Math.max(find(namespace, name), -1);
+        }
+        synchronized (lock) {
+            FileLock fileLock;
+            try {
+                fileLock = channel.lock(HEADER_SIZE, (long) slots * NAMESPACE_SIZE, false);
+            } catch (IOException e) {
+                throw new IllegalStateException("Unable to lock the namespace table", e);
+            }
+            try {
+                int i = find(namespace, name);
+                if (i >= 0) {
+                    return i;
+                }
+                int free = -1 - i;
+                if (free == slots) {
+                    return -1;
+                }
+                int offset = HEADER_SIZE + free * NAMESPACE_SIZE;
+                for (int j = 0; j < name.length; j++) {
+                    buffer.put(offset + 1 + j, name[j]);
+                }
+                buffer.put(offset, (byte) (name.length + 1));
+                slotsByNamespace.put(namespace, free);
+                return free;
+            } finally {
+                try {
+                    fileLock.release();
+                } catch (IOException e) {
+                    throw new IllegalStateException("Unable to unlock the namespace table", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Scans the namespace table for a namespace, caching the slots of the 
+     * namespaces found on the way.
+     *
+     * @return the slot, or -1 - the first free slot (i.e. -1 - the number of
+     * slots, if there is none) if the namespace is not in the table
+     */
+    private int find(String namespace, byte[] name) {
+        for (int i = 0; i < slots; i++) {
+            int offset = HEADER_SIZE + i * NAMESPACE_SIZE;
+            int length = buffer.get(offset) - 1;
+            if (length < 0) {
+                return -1 - i;
+            }
+            if (length != name.length) {
+                continue;
+            }
+            boolean equal = true;
+            for (int j = 0; j < length && equal; j++) {
+                equal = buffer.get(offset + 1 + j) == name[j];
+            }
+            if (equal) {
+                slotsByNamespace.putIfAbsent(namespace, i);
+                return i;
+            }
+        }
+        return -1 - slots;
+    }
+
+    /**
+     * Closes the file. Bits set before are written to it by the operating 
+     * system.
+     */
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+}
@@ -0,0 +1,986 @@
+/**
+ * Copyright (C) 2012 MediaShelf <http://www.yourmediashelf.com/>
+ *
+ * This file is part of uuid-datepath-idmapper.
+ *
+ * uuid-datepath-idmapper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * uuid-datepath-idmapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with uuid-datepath-idmapper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.yourmediashelf.fedora.akubra;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.locks.StampedLock;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>A persistent, memory-mapped journal of the ids that are mapped by the
+ * fallbackMapper of a {@link UUIDDatePathIdMapper} and stored, with their
+ * internal paths, so that a store can tell whether a legacy id exists, and
+ * where, with a single in-memory probe instead of a filesystem lookup. See
+ * {@link UUIDDatePathIdMapper#setFallbackJournal(FallbackJournal)}.
+ *
+ * <p>The file is an append-only sequence of blocks: records, which hold an
+ * external id and its internal path (or a tombstone, if the id was removed),
+ * and open-addressing hash indexes, whose slots hold a 64-bit hash of an
+ * external id and the offset of its latest record. When an index is three
+ * quarters full, a twice as large one is appended and replaces it.
+ * Writers modify the file under the write lock of a {@link StampedLock}, and
+ * readers copy what they look up under an optimistic read of it, which they
+ * validate afterwards (falling back to a read lock), so that they never 
+ * return a record that was not completely written.
+ *
+ * <p>Replaced records, tombstones and replaced indexes are garbage. When the
+ * file must grow and less than half of it is live, the current records are
+ * copied to a new file, which then replaces the journal. If the journal 
+ * cannot be written, e.g. because it is full (2 GB), it logs a warning and 
+ * stops journaling: later adds and deletes are not recorded.
+ *
+ * <p>A journal only holds the ids recorded since it was created (or 
+ * rebuilt), so it only tells that a legacy id does not exist if it 
+ * {@link #isComplete() is complete}, i.e. if it was built from the store 
+ * with {@link #rebuild(UUIDDatePathIdMapper, Path)} and has recorded every 
+ * add and delete since. A new journal, e.g. one attached to an existing 
+ * repository, is not complete until it is rebuilt.
+ *
+ * <p>Records carry a checksum. If the journal was not closed, e.g. after a
+ * crash, the records are scanned on open up to the first incomplete one, and
+ * a new index is built from them. Writes are not forced to disk (except by
+ * {@link #force()} and {@link #close()}), so a crash of the host may lose the
+ * latest ids; a crash of the process loses nothing.
+ *
+ * <p>The journal file is locked, as only a single process may use it.
+ *
+ * @author Edwin Shin
+ *
+ */
+public final class FallbackJournal implements Closeable {
+
+    private static final int MAGIC = 0x5544464a; // "UDFJ"
+    private static final int FORMAT_VERSION = 1;
+    static final int HEADER_SIZE = 64;
+
+    // header layout
+    private static final int CLEAN = 8;
+    private static final int COMPLETE = 12;
+    private static final int INDEX_OFFSET = 16;
+    private static final int CAPACITY = 24;
+    private static final int USED = 28;
+    private static final int SIZE = 32;
+    private static final int END = 40;
+
+    static final int RECORD_TAG = 0x52454331; // "REC1"
+    private static final int INDEX_TAG = 0x49445831; // "IDX1"
+    static final int BLOCK_HEADER_SIZE = 16;
+
+    // record header layout, followed by the chars of the external id and path
+    private static final int EXTERNAL_LENGTH = 4;
+    private static final int PATH_LENGTH = 8;
+    private static final int CHECKSUM = 12;
+    private static final int TOMBSTONE = -1;
+
+    private static final int RETRY = -1;
+
+    private static final int SLOT_SIZE = 16;
+    private static final int MIN_CAPACITY = 64;
+
+    /**
+     * Mapped buffers are indexed by int.
+     */
+    private static final long MAX_FILE_SIZE = Integer.MAX_VALUE & ~7L;
+
+    /**
+     * The size below which a journal is not compacted.
+     */
+    static final int COMPACTION_THRESHOLD = 1 << 20;
+
+    private static final Logger logger = LoggerFactory.getLogger(FallbackJournal.class);
+
+    private final File path;
+    private final CRC32 crc = new CRC32();
+
+    // guarded by this; replaced by compactions and rebuilds
+    private RandomAccessFile file;
+    private FileChannel channel;
+    private FileLock lock;
+
+    /**
+     * Orders the writes of records, slots and mappings before the reads of 
+     * lookups.
+     */
+    private final StampedLock publication = new StampedLock();
+
+    private volatile Mapping mapping;
+
+    // guarded by this
+    private int used;
+    private int size;
+    private int end;
+    private boolean recovered;
+    private boolean complete;
+    private boolean failed;
+
+    /**
+     * Opens a journal, creating it if the file does not exist.
+     *
+     * @param file the journal file
+     * @throws IOException if the file cannot be opened, or is not a journal
+     * @throws IllegalStateException if the file is used by another journal
+     */
+    public FallbackJournal(File file) throws IOException, IllegalStateException {
+        this(file, MIN_CAPACITY);
+    }
+
+    private FallbackJournal(File file, int capacity) throws IOException, IllegalStateException {
+        this.path = file;
+        open(capacity);
+    }
+
+    /**
+     * Opens and locks the file, creating it with an index of the given 
+     * capacity if it does not exist.
+     */
+    // guarded by this (or the constructor)
+    private void open(int capacity) throws IOException, IllegalStateException {
+        RandomAccessFile file = new RandomAccessFile(path, "rw");
+        FileLock lock;
+        try {
+            lock = file.getChannel().tryLock();
+        } catch (OverlappingFileLockException e) {
+            lock = null;
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+        if (lock == null) {
+            file.close();
+            throw new IllegalStateException(path + " is in use by another FallbackJournal");
+        }
+        this.file = file;
+        this.channel = file.getChannel();
+        this.lock = lock;
+
+        try {
+            if (channel.size() == 0) {
+                MappedByteBuffer buffer = map(HEADER_SIZE + BLOCK_HEADER_SIZE + (long) capacity * SLOT_SIZE);
+                buffer.putInt(0, MAGIC);
+                buffer.putInt(4, FORMAT_VERSION);
+                end = HEADER_SIZE;
+                complete = false;
+                mapping = appendIndex(buffer, capacity);
+            } else {
+                MappedByteBuffer buffer = map(channel.size());
+                if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC 
+                        || buffer.getInt(4) != FORMAT_VERSION) {
+                    throw new IOException(path + " is not a fallback journal");
+                }
+                complete = buffer.getInt(COMPLETE) == 1;
+                if (buffer.getInt(CLEAN) == 1) {
+                    used = buffer.getInt(USED);
+                    size = buffer.getInt(SIZE);
+                    end = (int) buffer.getLong(END);
+                    mapping = new Mapping(buffer, (int) buffer.getLong(INDEX_OFFSET), buffer.getInt(CAPACITY));
+                } else {
+                    recover(buffer);
+                }
+            }
+            // until closed
+            mapping.buffer.putInt(CLEAN, 0);
+            mapping.buffer.force();
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * @param externalId an external id
+     * @return true if the external id is in the journal
+     * @throws NullPointerException if externalId is null
+     */
+    public boolean contains(CharSequence externalId) throws NullPointerException {
+        return lookup(externalId, null);
+    }
+
+    /**
+     * Appends the internal path of an external id, if it is in the journal.
+     *
+     * @param externalId an external id
+     * @param path the StringBuilder to append the internal path to
+     * @return true if the external id is in the journal
+     * @throws NullPointerException if either argument is null
+     */
+    public boolean appendInternalPath(CharSequence externalId, StringBuilder path) throws NullPointerException {
+        if (path == null) {
+            throw new NullPointerException();
+        }
+        return lookup(externalId, path);
+    }
+
+    /**
+     * @param externalId an external id
+     * @return the internal path of the external id, or null if it is not in
+     * the journal
+     * @throws NullPointerException if externalId is null
+     */
+    public String getInternalPath(CharSequence externalId) throws NullPointerException {
+        StringBuilder path = new StringBuilder();
+        return lookup(externalId, path) ? path.toString() : null;
+    }
+
+    /**
+     * Adds an external id and its internal path to the journal, or replaces
+     * its internal path. Has no effect if the journal stopped journaling.
+     *
+     * @param externalId the external id, not empty
+     * @param internalPath the internal path
+     * @throws NullPointerException if either argument is null
+     * @throws IllegalArgumentException if externalId is empty
+     */
+    public synchronized void put(CharSequence externalId, CharSequence internalPath)
+            throws NullPointerException, IllegalArgumentException {
+        if (externalId.length() == 0) {
+            throw new IllegalArgumentException("External id must not be empty");
+        }
+        if (internalPath == null) {
+            throw new NullPointerException();
+        }
+        if (failed) {
+            return;
+        }
+        try {
+            reserve(BLOCK_HEADER_SIZE + 2 * (externalId.length() + internalPath.length()));
+            long hash = hash(externalId);
+            int slot = probe(mapping, externalId, hash);
+            int record = mapping.buffer.getInt(slot + 8);
+            if (record != 0) {
+                int pathLength = mapping.buffer.getInt(record + PATH_LENGTH);
+                if (pathLength == internalPath.length() && regionEquals(mapping.buffer, 
+                        record + BLOCK_HEADER_SIZE + 2 * externalId.length(), internalPath)) {
+                    return;
+                }
+            }
+            long stamp = publication.writeLock();
+            try {
+                if (record == 0 && 4 * (used + 1) > 3 * mapping.capacity) {
+                    grow();
+                    slot = probe(mapping, externalId, hash);
+                }
+                write(slot, hash, record == 0, externalId, internalPath);
+                if (record == 0 || mapping.buffer.getInt(record + PATH_LENGTH) == TOMBSTONE) {
+                    size++;
+                }
+                writeCounts();
+            } finally {
+                publication.unlockWrite(stamp);
+            }
+        } catch (IllegalStateException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Removes an external id from the journal. Has no effect if the journal
+     * stopped journaling.
+     *
+     * @param externalId the external id
+     * @return true if the external id was removed
+     * @throws NullPointerException if externalId is null
+     */
+    public synchronized boolean remove(CharSequence externalId) throws NullPointerException {
+        if (failed) {
+            return false;
+        }
+        try {
+            reserve(BLOCK_HEADER_SIZE + 2 * externalId.length());
+            long hash = hash(externalId);
+            int slot = probe(mapping, externalId, hash);
+            int record = mapping.buffer.getInt(slot + 8);
+            if (record == 0 || mapping.buffer.getInt(record + PATH_LENGTH) == TOMBSTONE) {
+                return false;
+            }
+            long stamp = publication.writeLock();
+            try {
+                write(slot, hash, false, externalId, null);
+                size--;
+                writeCounts();
+            } finally {
+                publication.unlockWrite(stamp);
+            }
+            return true;
+        } catch (IllegalStateException e) {
+            fail(e);
+            return false;
+        }
+    }
+
+    /**
+     * Replaces the contents of the journal with the ids of the files of a 
+     * store that the mapper maps by its fallbackMapper, and marks the journal
+     * as complete. The journal is built in a temporary file next to the 
+     * journal file, which then replaces it.
+     *
+     * <p>Adds and deletes wait until the rebuild is done, so the store may be
+     * written meanwhile, provided that it records adds and deletes after the
+     * files were written or deleted. The root must only hold the files of 
+     * the store (and not the journal).
+     *
+     * @param mapper the mapper of the store
+     * @param root the root directory of the store
+     * @throws IOException if the store cannot be listed, or the journal 
+     * cannot be written
+     */
+    public synchronized void rebuild(UUIDDatePathIdMapper mapper, Path root) throws IOException {
+        if (mapper == null || root == null) {
+            throw new NullPointerException();
+        }
+        File temp = new File(path.getPath() + ".tmp");
+        Files.deleteIfExists(temp.toPath());
+        FallbackJournal journal = new FallbackJournal(temp, MIN_CAPACITY);
+        try {
+            scan(root, "", mapper, journal, new StringBuilder());
+            if (journal.failed) {
+                throw new IOException("Unable to rebuild " + path);
+            }
+            journal.setComplete(true);
+        } catch (IOException | RuntimeException e) {
+            journal.close();
+            Files.deleteIfExists(temp.toPath());
+            throw e;
+        }
+        journal.close();
+        replace(temp);
+        failed = false;
+    }
+
+    /**
+     * Puts the ids of the files below dir that the mapper maps by its 
+     * fallbackMapper.
+     */
+    private static void scan(Path dir, String relativePath, UUIDDatePathIdMapper mapper, 
+            FallbackJournal journal, StringBuilder externalId) throws IOException {
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+            for (Path entry : entries) {
+                String internalPath = relativePath + entry.getFileName();
+                BasicFileAttributes attributes = Files.readAttributes(entry, BasicFileAttributes.class,
+                        LinkOption.NOFOLLOW_LINKS);
+                if (attributes.isDirectory()) {
+                    scan(entry, internalPath + '/', mapper, journal, externalId);
+                    continue;
+                } else if (!attributes.isRegularFile()) {
+                    continue;
+                }
+                externalId.setLength(0);
+                try {
+                    mapper.appendExternalId(internalPath, 0, internalPath.length(), externalId);
+                } catch (IllegalArgumentException e) {
+                    // not a file of the mapper, e.g. a temporary file
+                    continue;
+                }
+                if (externalId.length() > 0 
+                        && mapper.getTimestamp(externalId.toString()) == TimestampExtractor.NO_TIMESTAMP) {
+                    journal.put(externalId, internalPath);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the number of external ids in the journal
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @return true if the journal was rebuilt from its store, and has 
+     * recorded every add and delete since, so that 
+     * {@link #contains(CharSequence)} returning false means that the store
+     * does not hold the id
+     */
+    public synchronized boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * @return true if the journal was not closed, and was recovered on open
+     */
+    public synchronized boolean isRecovered() {
+        return recovered;
+    }
+
+    /**
+     * Forces the journal to disk.
+     */
+    public synchronized void force() {
+        mapping.buffer.force();
+    }
+
+    /**
+     * Forces the journal to disk, marks it as closed and closes it.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            Mapping m = mapping;
+            if (m != null) {
+                m.buffer.force();
+                m.buffer.putInt(CLEAN, 1);
+                m.buffer.force();
+            }
+            if (lock != null && lock.isValid()) {
+                lock.release();
+            }
+        } finally {
+            file.close();
+        }
+    }
+
+    private boolean lookup(CharSequence externalId, StringBuilder path) {
+        long hash = hash(externalId);
+        int length = path == null ? 0 : path.length();
+        long stamp = publication.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                boolean found = find(mapping, externalId, hash, path);
+                if (publication.validate(stamp)) {
+                    return found;
+                }
+            } catch (IndexOutOfBoundsException e) {
+                // read a block while it was written
+            }
+            if (path != null) {
+                path.setLength(length);
+            }
+        }
+        stamp = publication.readLock();
+        try {
+            return find(mapping, externalId, hash, path);
+        } finally {
+            publication.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Appends the internal path of an external id, if it is in the journal.
+     * Unless called under a lock of {@link #publication}, the result must be
+     * validated.
+     */
+    private static boolean find(Mapping m, CharSequence externalId, long hash, StringBuilder path) {
+        int slot = probe(m, externalId, hash);
+        if (slot == RETRY) {
+            return false;
+        }
+        int record = m.buffer.getInt(slot + 8);
+        if (record == 0) {
+            return false;
+        }
+        int pathLength = m.buffer.getInt(record + PATH_LENGTH);
+        int offset = record + BLOCK_HEADER_SIZE + 2 * externalId.length();
+        if (pathLength == TOMBSTONE || pathLength < 0 || offset + 2L * pathLength > m.buffer.capacity()) {
+            return false;
+        }
+        if (path != null) {
+            path.ensureCapacity(path.length() + pathLength);
+            for (int i = 0; i < pathLength; i++) {
+                path.append(m.buffer.getChar(offset + 2 * i));
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the offset of the slot of the external id, or of the empty
+     * slot where it would be added, or {@link #RETRY} if a slot refers to a 
+     * record beyond the buffer of the mapping, which is only possible while
+     * the journal is written
+     */
+    private static int probe(Mapping m, CharSequence externalId, long hash) {
+        int mask = m.capacity - 1;
+        int slots = m.indexOffset + BLOCK_HEADER_SIZE;
+        for (int i = (int) hash & mask; ; i = (i + 1) & mask) {
+            int slot = slots + i * SLOT_SIZE;
+            int record = m.buffer.getInt(slot + 8);
+            if (record == 0) {
+                return slot;
+            }
+            if (record + BLOCK_HEADER_SIZE > m.buffer.capacity()
+                    || record + recordLength(m.buffer, record) > m.buffer.capacity()) {
+                return RETRY;
+            }
+            if (m.buffer.getLong(slot) == hash 
+                    && m.buffer.getInt(record + EXTERNAL_LENGTH) == externalId.length()
+                    && regionEquals(m.buffer, record + BLOCK_HEADER_SIZE, externalId)) {
+                return slot;
+            }
+        }
+    }
+
+    private static long recordLength(MappedByteBuffer buffer, int record) {
+        return BLOCK_HEADER_SIZE + 2L * (buffer.getInt(record + EXTERNAL_LENGTH) 
+                + Math.max(buffer.getInt(record + PATH_LENGTH), 0));
+    }
+
+    private static boolean regionEquals(MappedByteBuffer buffer, int offset, CharSequence s) {
+        if (offset + 2 * s.length() > buffer.capacity()) {
+            return false;
+        }
+        for (int i = 0; i < s.length(); i++) {
+            if (buffer.getChar(offset + 2 * i) != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // guarded by this, under the write lock of publication
+    private void write(int slot, long hash, boolean newSlot, CharSequence externalId, CharSequence path) {
+        int pathLength = path == null ? TOMBSTONE : path.length();
+        int length = BLOCK_HEADER_SIZE + 2 * (externalId.length() + Math.max(pathLength, 0));
+        int record = allocate(length);
+        MappedByteBuffer buffer = mapping.buffer;
+        crc.reset();
+        updateChecksum(externalId.length());
+        updateChecksum(pathLength);
+        int offset = record + BLOCK_HEADER_SIZE;
+        for (int i = 0; i < externalId.length(); i++, offset += 2) {
+            buffer.putChar(offset, externalId.charAt(i));
+            updateChecksum(externalId.charAt(i));
+        }
+        for (int i = 0; i < pathLength; i++, offset += 2) {
+            buffer.putChar(offset, path.charAt(i));
+            updateChecksum(path.charAt(i));
+        }
+        buffer.putInt(record + EXTERNAL_LENGTH, externalId.length());
+        buffer.putInt(record + PATH_LENGTH, pathLength);
+        buffer.putInt(record + CHECKSUM, (int) crc.getValue());
+        buffer.putInt(record, RECORD_TAG);
+
+        if (newSlot) {
+            buffer.putLong(slot, hash);
+            used++;
+        }
+        buffer.putInt(slot + 8, record);
+    }
+
+    private void updateChecksum(int value) {
+        crc.update(value >>> 24);
+        crc.update(value >>> 16);
+        crc.update(value >>> 8);
+        crc.update(value);
+    }
+
+    /**
+     * Reserves a block at the end of the journal.
+     *
+     * @return the offset of the block
+     */
+    // guarded by this (or the constructor)
+    private int allocate(int length) {
+        int block = end;
+        long newEnd = (block + (long) length + 7) & ~7L;
+        if (newEnd > MAX_FILE_SIZE) {
+            throw new IllegalStateException(path + " is full");
+        }
+        Mapping m = mapping;
+        if (m != null && newEnd > m.buffer.capacity()) {
+            try {
+                MappedByteBuffer buffer = map(Math.min(MAX_FILE_SIZE, Math.max(newEnd, 2L * m.buffer.capacity())));
+                // readers must see the larger buffer before any slot refers 
+                // to the block
+                mapping = new Mapping(buffer, m.indexOffset, m.capacity);
+            } catch (IOException e) {
+                throw new IllegalStateException("Unable to grow " + path, e);
+            }
+        }
+        end = (int) newEnd;
+        return block;
+    }
+
+    /**
+     * Makes room for a record of the given length, and an index twice as 
+     * large as the current one: if the file must grow for them, and most of 
+     * it is garbage, or it would exceed the maximum size, the journal is 
+     * compacted first.
+     *
+     * @throws IllegalStateException if the journal is full, or cannot be 
+     * compacted
+     */
+    // guarded by this
+    private void reserve(int length) throws IllegalStateException {
+        long needed = end + length + 8 + BLOCK_HEADER_SIZE + 2L * mapping.capacity * SLOT_SIZE;
+        if (needed <= mapping.buffer.capacity()) {
+            return;
+        }
+        if (needed > MAX_FILE_SIZE || isCompactable()) {
+            try {
+                compact();
+            } catch (IOException e) {
+                throw new IllegalStateException("Unable to compact " + path, e);
+            }
+            needed = end + length + 8 + BLOCK_HEADER_SIZE + 2L * mapping.capacity * SLOT_SIZE;
+        }
+        if (needed > MAX_FILE_SIZE) {
+            throw new IllegalStateException(path + " is full");
+        }
+    }
+
+    /**
+     * @return true if less than half of the journal is live, i.e. the current
+     * index and the records it refers to (other than tombstones)
+     */
+    // guarded by this
+    private boolean isCompactable() {
+        if (end < COMPACTION_THRESHOLD) {
+            return false;
+        }
+        Mapping m = mapping;
+        long live = BLOCK_HEADER_SIZE + (long) m.capacity * SLOT_SIZE;
+        int slots = m.indexOffset + BLOCK_HEADER_SIZE;
+        for (int i = 0; i < m.capacity; i++) {
+            int record = m.buffer.getInt(slots + i * SLOT_SIZE + 8);
+            if (record != 0 && m.buffer.getInt(record + PATH_LENGTH) != TOMBSTONE) {
+                live += (recordLength(m.buffer, record) + 7) & ~7L;
+            }
+        }
+        return 2 * live < end - HEADER_SIZE;
+    }
+
+    /**
+     * Copies the current records (other than tombstones) to a new file, with
+     * an index large enough for them, which then replaces the journal.
+     */
+    // guarded by this
+    private void compact() throws IOException {
+        File temp = new File(path.getPath() + ".tmp");
+        Files.deleteIfExists(temp.toPath());
+        int capacity = MIN_CAPACITY;
+        while (4L * size > 3L * capacity) {
+            capacity <<= 1;
+        }
+        Mapping m = mapping;
+        FallbackJournal journal = new FallbackJournal(temp, capacity);
+        try {
+            int slots = m.indexOffset + BLOCK_HEADER_SIZE;
+            for (int i = 0; i < m.capacity; i++) {
+                int record = m.buffer.getInt(slots + i * SLOT_SIZE + 8);
+                if (record == 0) {
+                    continue;
+                }
+                int externalLength = m.buffer.getInt(record + EXTERNAL_LENGTH);
+                int pathLength = m.buffer.getInt(record + PATH_LENGTH);
+                if (pathLength != TOMBSTONE) {
+                    int offset = record + BLOCK_HEADER_SIZE;
+                    journal.put(new BufferChars(m.buffer, offset, externalLength), 
+                            new BufferChars(m.buffer, offset + 2 * externalLength, pathLength));
+                }
+            }
+            if (journal.failed) {
+                throw new IOException("Unable to compact " + path);
+            }
+            journal.setComplete(complete);
+        } catch (IOException | RuntimeException e) {
+            journal.close();
+            Files.deleteIfExists(temp.toPath());
+            throw e;
+        }
+        journal.close();
+        replace(temp);
+    }
+
+    /**
+     * Replaces the journal file with a closed journal, and opens it.
+     */
+    // guarded by this
+    private void replace(File journal) throws IOException {
+        try {
+            Files.move(journal.toPath(), path.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            Files.deleteIfExists(journal.toPath());
+            throw e;
+        }
+        RandomAccessFile old = file;
+        boolean recovered = this.recovered;
+        long stamp = publication.writeLock();
+        try {
+            open(MIN_CAPACITY);
+        } catch (IOException | RuntimeException e) {
+            failed = true;
+            throw e;
+        } finally {
+            publication.unlockWrite(stamp);
+            // releases the lock of the replaced file
+            old.close();
+        }
+        this.recovered = recovered;
+    }
+
+    // guarded by this
+    private void fail(IllegalStateException e) {
+        logger.warn("Stopped journaling to " + path, e);
+        failed = true;
+        setComplete(false);
+    }
+
+    // guarded by this (or the constructor)
+    private void setComplete(boolean complete) {
+        this.complete = complete;
+        mapping.buffer.putInt(COMPLETE, complete ? 1 : 0);
+    }
+
+    /**
+     * Appends an index twice as large as the current one, with the slots of
+     * the current one, and replaces the current one with it.
+     */
+    // guarded by this, under the write lock of publication
+    private void grow() {
+        Mapping old = mapping;
+        Mapping m = appendIndex(old.buffer, 2 * old.capacity);
+        int slots = old.indexOffset + BLOCK_HEADER_SIZE;
+        used = 0;
+        for (int i = 0; i < old.capacity; i++) {
+            int slot = slots + i * SLOT_SIZE;
+            int record = m.buffer.getInt(slot + 8);
+            if (record != 0) {
+                long hash = m.buffer.getLong(slot);
+                insert(m, hash, record);
+            }
+        }
+        publishIndex(m);
+    }
+
+    /**
+     * Appends an empty index block (without publishing it).
+     */
+    // guarded by this (or the constructor)
+    private Mapping appendIndex(MappedByteBuffer buffer, int capacity) {
+        if (mapping == null) {
+            // creating or recovering
+            mapping = new Mapping(buffer, 0, 0);
+        }
+        int index = allocate(BLOCK_HEADER_SIZE + capacity * SLOT_SIZE);
+        buffer = mapping.buffer;
+        for (int i = index; i < end; i += 8) {
+            buffer.putLong(i, 0);
+        }
+        buffer.putInt(index + 4, capacity);
+        buffer.putInt(index, INDEX_TAG);
+        Mapping m = new Mapping(buffer, index, capacity);
+        if (mapping.capacity == 0) {
+            publishIndex(m);
+        }
+        return m;
+    }
+
+    // guarded by this (or the constructor)
+    private void insert(Mapping m, long hash, int record) {
+        int mask = m.capacity - 1;
+        int slots = m.indexOffset + BLOCK_HEADER_SIZE;
+        int i = (int) hash & mask;
+        while (m.buffer.getInt(slots + i * SLOT_SIZE + 8) != 0) {
+            i = (i + 1) & mask;
+        }
+        m.buffer.putLong(slots + i * SLOT_SIZE, hash);
+        m.buffer.putInt(slots + i * SLOT_SIZE + 8, record);
+        used++;
+    }
+
+    // guarded by this (or the constructor)
+    private void publishIndex(Mapping m) {
+        mapping = m;
+        m.buffer.putLong(INDEX_OFFSET, m.indexOffset);
+        m.buffer.putInt(CAPACITY, m.capacity);
+        writeCounts();
+    }
+
+    // guarded by this (or the constructor)
+    private void writeCounts() {
+        MappedByteBuffer buffer = mapping.buffer;
+        buffer.putInt(USED, used);
+        buffer.putInt(SIZE, size);
+        buffer.putLong(END, end);
+    }
+
+    /**
+     * Scans the blocks for valid records, up to the first one that is not,
+     * and indexes them in a new index.
+     */
+    private void recover(MappedByteBuffer buffer) {
+        recovered = true;
+        int scanned = HEADER_SIZE;
+        int records = 0;
+        for (;;) {
+            int block = scanned;
+            if (block + BLOCK_HEADER_SIZE > buffer.capacity()) {
+                break;
+            }
+            int tag = buffer.getInt(block);
+            long length;
+            if (tag == INDEX_TAG) {
+                int capacity = buffer.getInt(block + 4);
+                length = BLOCK_HEADER_SIZE + (long) capacity * SLOT_SIZE;
+                if (capacity < MIN_CAPACITY || Integer.bitCount(capacity) != 1 
+                        || block + length > buffer.capacity()) {
+                    break;
+                }
+            } else if (tag == RECORD_TAG && isValidRecord(buffer, block)) {
+                length = recordLength(buffer, block);
+                records++;
+            } else {
+                break;
+            }
+            scanned = (int) ((block + length + 7) & ~7L);
+        }
+        // discard the rest, so that it is never taken for valid records
+        for (int i = scanned; i + 8 <= buffer.capacity(); i += 8) {
+            buffer.putLong(i, 0);
+        }
+        end = scanned;
+        used = 0;
+        size = 0;
+
+        int capacity = MIN_CAPACITY;
+        while (4 * records > 3 * capacity) {
+            capacity <<= 1;
+        }
+        Mapping m = appendIndex(buffer, capacity);
+        for (int block = HEADER_SIZE; block < scanned; ) {
+            int tag = m.buffer.getInt(block);
+            int length;
+            if (tag == INDEX_TAG) {
+                length = BLOCK_HEADER_SIZE + m.buffer.getInt(block + 4) * SLOT_SIZE;
+            } else {
+                int externalLength = m.buffer.getInt(block + EXTERNAL_LENGTH);
+                int pathLength = m.buffer.getInt(block + PATH_LENGTH);
+                length = BLOCK_HEADER_SIZE + 2 * (externalLength + Math.max(pathLength, 0));
+                long hash = hash(m.buffer, block + BLOCK_HEADER_SIZE, externalLength);
+                int slot = probe(m, new BufferChars(m.buffer, block + BLOCK_HEADER_SIZE, externalLength), hash);
+                int previous = m.buffer.getInt(slot + 8);
+                if (previous == 0) {
+                    m.buffer.putLong(slot, hash);
+                    used++;
+                } else if (m.buffer.getInt(previous + PATH_LENGTH) != TOMBSTONE) {
+                    size--;
+                }
+                m.buffer.putInt(slot + 8, block);
+                if (pathLength != TOMBSTONE) {
+                    size++;
+                }
+            }
+            block = (block + length + 7) & ~7;
+        }
+        publishIndex(m);
+    }
+
+    private boolean isValidRecord(MappedByteBuffer buffer, int block) {
+        int externalLength = buffer.getInt(block + EXTERNAL_LENGTH);
+        int pathLength = buffer.getInt(block + PATH_LENGTH);
+        if (externalLength <= 0 || pathLength < TOMBSTONE || block + BLOCK_HEADER_SIZE 
+                + 2L * (externalLength + Math.max(pathLength, 0)) > buffer.capacity()) {
+            return false;
+        }
+        crc.reset();
+        updateChecksum(externalLength);
+        updateChecksum(pathLength);
+        int offset = block + BLOCK_HEADER_SIZE;
+        for (int i = 0; i < externalLength + Math.max(pathLength, 0); i++, offset += 2) {
+            updateChecksum(buffer.getChar(offset));
+        }
+        return (int) crc.getValue() == buffer.getInt(block + CHECKSUM);
+    }
+
+    private MappedByteBuffer map(long size) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+
+    /**
+     * A 64-bit FNV-1a hash of the chars, spread by the MurmurHash3 finalizer.
+     */
+    static long hash(CharSequence s) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < s.length(); i++) {
+            h = (h ^ s.charAt(i)) * 0x100000001b3L;
+        }
+        return HashBuckets.mix(h);
+    }
+
+    private static long hash(MappedByteBuffer buffer, int offset, int length) {
+        return hash(new BufferChars(buffer, offset, length));
+    }
+
+    /**
+     * A buffer and the offset and capacity of its current index.
+     */
+    private static final class Mapping {
+        final MappedByteBuffer buffer;
+        final int indexOffset;
+        final int capacity;
+
+        Mapping(MappedByteBuffer buffer, int indexOffset, int capacity) {
+            this.buffer = buffer;
+            this.indexOffset = indexOffset;
+            this.capacity = capacity;
+        }
+    }
+
+    /**
+     * The chars of a record, used during recovery.
+     */
+    private static final class BufferChars implements CharSequence {
+        private final MappedByteBuffer buffer;
+        private final int offset;
+        private final int length;
+
+        BufferChars(MappedByteBuffer buffer, int offset, int length) {
+            this.buffer = buffer;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return buffer.getChar(offset + 2 * index);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return new BufferChars(buffer, offset + 2 * start, end - start);
+        }
+
+        @Override
+        public String toString() {
+            return new StringBuilder(this).toString();
+        }
+    }
+}
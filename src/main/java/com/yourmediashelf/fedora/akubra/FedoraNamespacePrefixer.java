@@ -18,20 +18,262 @@
  */
 package com.yourmediashelf.fedora.akubra;
 
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
 
+/**
+ * An IdMapperPrefixer that returns the namespace of Fedora PIDs, e.g. "demo"
+ * for <code>info:fedora/demo:1</code> and <code>info:fedora/demo:1/DC</code>,
+ * or, if a directory table is supplied, the directory of the namespace, so
+ * that several small namespaces can share a directory.
+ *
+ * <p>The namespace is located with a single scan of the identifier, and 
+ * looked up in a table of interned namespaces, so mapping an identifier of a 
+ * known namespace allocates nothing.
+ *
+ * @author Edwin Shin
+ *
+ */
 public class FedoraNamespacePrefixer implements IdMapperPrefixer {
     private static final String fedoraRDFNamespace = "info:fedora/";
-    
+
+    /**
+     * The number of namespaces remembered. The prefixes of further namespaces
+     * are still returned, but not interned.
+     */
+    static final int MAX_NAMESPACES = 4096;
+
+    private final NamespaceTable table;
+
+    /**
+     * The directories that more than one namespace maps to.
+     */
+    private final Set<String> sharedDirectories;
+
+    /**
+     * Creates a prefixer that returns the namespace itself.
+     */
+    public FedoraNamespacePrefixer() {
+        this(Collections.<String, String> emptyMap());
+    }
+
+    /**
+     * Creates a prefixer that returns the directory of the namespace, e.g.
+     * with the table {"small1" : "small", "small2" : "small"}, both 
+     * <code>info:fedora/small1:1</code> and <code>info:fedora/small2:1</code>
+     * get the prefix "small". Namespaces that are not in the table are their 
+     * own directory.
+     *
+     * @param directories the directories by namespace
+     * @throws IllegalArgumentException if a namespace or directory is empty, 
+     * or a directory contains a '/' character
+     * @throws NullPointerException if directories, or any namespace or 
+     * directory is null
+     */
+    public FedoraNamespacePrefixer(Map<String, String> directories) {
+        table = new NamespaceTable();
+        Map<String, Integer> owners = new HashMap<String, Integer>();
+        for (Map.Entry<String, String> entry : directories.entrySet()) {
+            String ns = entry.getKey();
+            String dir = entry.getValue();
+            if (ns.isEmpty() || ns.indexOf(':') != -1) {
+                throw new IllegalArgumentException("Invalid namespace: \"" + ns + "\"");
+            }
+            if (dir.isEmpty() || dir.indexOf('/') != -1) {
+                throw new IllegalArgumentException("Invalid directory for " + ns + ": \"" + dir + "\"");
+            }
+            table.put(ns.intern(), dir.intern());
+            Integer n = owners.get(dir);
+            owners.put(dir, n == null ? 1 : n + 1);
+        }
+        Set<String> shared = new HashSet<String>();
+        for (Map.Entry<String, Integer> entry : owners.entrySet()) {
+            String dir = entry.getKey();
+            // a namespace named like the directory, but not in the table, 
+            // maps to the directory too
+            int n = entry.getValue() + (directories.containsKey(dir) ? 0 : 1);
+            if (n > 1) {
+                shared.add(dir);
+            }
+        }
+        sharedDirectories = shared;
+    }
+
+    /**
+     * Returns the namespace (or its directory) of identifiers of the form 
+     * <code>info:fedora/&lt;namespace&gt;:&lt;id&gt;[/...]</code>, where the
+     * rest of the identifier contains no further ':' characters, except for
+     * trailing ones.
+     *
+     * @see com.yourmediashelf.fedora.akubra.IdMapperPrefixer#getPrefix(java.lang.String)
+     */
     @Override
     public String getPrefix(String identifier) {
-        if (identifier.startsWith(fedoraRDFNamespace)) {
-            identifier = identifier.substring(fedoraRDFNamespace.length());
-            String[] split = identifier.split(":");
-            if (split.length == 2) {
-                return split[0];
+        return getPrefix((CharSequence) identifier);
+    }
+
+    /**
+     * Returns the namespace (or its directory) as {@link #getPrefix(String)},
+     * without converting the identifier to a String.
+     *
+     * @see com.yourmediashelf.fedora.akubra.IdMapperPrefixer#getPrefix(java.lang.CharSequence)
+     */
+    @Override
+    public String getPrefix(CharSequence identifier) {
+        int begin = fedoraRDFNamespace.length();
+        if (startsWith(identifier, fedoraRDFNamespace)) {
+            int colon = indexOf(identifier, ':', begin);
+            // trailing colons are ignored, as by String.split
+            int end = identifier.length();
+            while (end > begin && identifier.charAt(end - 1) == ':') {
+                end--;
+            }
+            if (colon != -1 && colon > begin && colon < end) {
+                int next = indexOf(identifier, ':', colon + 1);
+                if (next == -1 || next >= end) {
+                    return table.get(identifier, begin, colon);
+                }
             }
         }
         // identifier was not recognized as a Fedora PID, so return empty string.
         return "";
     }
+    
+    /**
+     * Returns the namespace (or its directory) if the identifier prefix is of 
+     * the form <code>info:fedora/&lt;namespace&gt;:</code>, i.e. the prefix 
+     * of all objects (and their datastreams) in that namespace, unless other
+     * namespaces share the directory.
+     * 
+     * @see com.yourmediashelf.fedora.akubra.IdMapperPrefixer#getPrefixForIdentifierPrefix(java.lang.String)
+     */
+    @Override
+    public String getPrefixForIdentifierPrefix(String identifierPrefix) {
+        if (identifierPrefix.startsWith(fedoraRDFNamespace) && identifierPrefix.endsWith(":")) {
+            int i = identifierPrefix.indexOf(':', fedoraRDFNamespace.length());
+            if (i == identifierPrefix.length() - 1 && i > fedoraRDFNamespace.length()) {
+                String dir = table.get(identifierPrefix, fedoraRDFNamespace.length(), i);
+                return sharedDirectories.contains(dir) ? null : dir;
+            }
+        }
+        return null;
+    }
+
+    private static boolean startsWith(CharSequence s, String prefix) {
+        if (s.length() < prefix.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (s.charAt(i) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int indexOf(CharSequence s, char c, int fromIndex) {
+        for (int i = fromIndex; i < s.length(); i++) {
+            if (s.charAt(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * An open-addressing hash table of interned namespaces and their 
+     * directories, which is looked up by a region of a CharSequence, and grows by
+     * copy-on-write, so that lookups don't lock.
+     */
+    private static final class NamespaceTable {
+
+        private static final class Entries {
+            final String[] namespaces;
+            final String[] directories;
+            int size;
+
+            Entries(int capacity) {
+                namespaces = new String[capacity];
+                directories = new String[capacity];
+            }
+        }
+
+        private volatile Entries entries = new Entries(64);
+
+        String get(CharSequence s, int begin, int end) {
+            int hash = 0;
+            for (int i = begin; i < end; i++) {
+                hash = 31 * hash + s.charAt(i);
+            }
+            Entries e = entries;
+            int mask = e.namespaces.length - 1;
+            int length = end - begin;
+            for (int i = spread(hash) & mask; ; i = (i + 1) & mask) {
+                String ns = e.namespaces[i];
+                if (ns == null) {
+                    break;
+                }
+                if (ns.length() == length && regionMatches(s, begin, ns)) {
+                    return e.directories[i];
+                }
+            }
+            String ns = s.subSequence(begin, end).toString();
+            if (e.size >= MAX_NAMESPACES) {
+                return ns;
+            }
+            ns = ns.intern();
+            put(ns, ns);
+            return ns;
+        }
+
+        synchronized void put(String ns, String dir) {
+            Entries e = entries;
+            int mask = e.namespaces.length - 1;
+            for (int i = spread(ns.hashCode()) & mask; e.namespaces[i] != null; i = (i + 1) & mask) {
+                if (e.namespaces[i].equals(ns)) {
+                    // added concurrently (or configured)
+                    return;
+                }
+            }
+            Entries copy = new Entries(2 * (e.size + 1) > e.namespaces.length 
+                    ? 2 * e.namespaces.length : e.namespaces.length);
+            for (int i = 0; i < e.namespaces.length; i++) {
+                if (e.namespaces[i] != null) {
+                    insert(copy, e.namespaces[i], e.directories[i]);
+                }
+            }
+            insert(copy, ns, dir);
+            entries = copy;
+        }
+
+        private static void insert(Entries e, String ns, String dir) {
+            int mask = e.namespaces.length - 1;
+            int i = spread(ns.hashCode()) & mask;
+            while (e.namespaces[i] != null) {
+                i = (i + 1) & mask;
+            }
+            e.namespaces[i] = ns;
+            e.directories[i] = dir;
+            e.size++;
+        }
+
+        private static boolean regionMatches(CharSequence s, int begin, String ns) {
+            if (s instanceof String) {
+                return ((String) s).regionMatches(begin, ns, 0, ns.length());
+            }
+            for (int i = 0; i < ns.length(); i++) {
+                if (s.charAt(begin + i) != ns.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static int spread(int h) {
+            return h ^ (h >>> 16);
+        }
+    }
 }
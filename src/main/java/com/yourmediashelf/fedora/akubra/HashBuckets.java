@@ -0,0 +1,144 @@
+/**
+ * Copyright (C) 2012 MediaShelf <http://www.yourmediashelf.com/>
+ *
+ * This file is part of uuid-datepath-idmapper.
+ *
+ * uuid-datepath-idmapper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * uuid-datepath-idmapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with uuid-datepath-idmapper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.yourmediashelf.fedora.akubra;
+
+/**
+ * Renders the hash-derived bucket directories of {@link UUIDDateHashPathIdMapper}
+ * according to a pattern of # and / characters, in which each # is replaced
+ * by a hexadecimal digit of a hash of the most significant bits of the UUID.
+ *
+ * <p>Patterns:
+ * <ul>
+ *   <li> must consist only of # and / characters.</li>
+ *   <li> must contain between 1 and 16 # characters.</li>
+ *   <li> must not begin or end with the / character.</li>
+ *   <li> must not contain consecutive / characters.</li>
+ * </ul>
+ *
+ * @author Edwin Shin
+ *
+ */
+final class HashBuckets {
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /**
+     * Patterns with at most this many # characters have their bucket paths
+     * precomputed.
+     */
+    private static final int MAX_PRECOMPUTED_DIGITS = 3;
+
+    /**
+     * The pattern, followed by '/'.
+     */
+    private final char[] template;
+
+    /**
+     * The positions of the # characters of the pattern.
+     */
+    private final int[] slots;
+
+    /**
+     * The bucket paths, indexed by the leading hash digits, or null if they
+     * are rendered on demand.
+     */
+    private final String[] paths;
+
+    /**
+     * @param pattern the bucket pattern, e.g. "##" or "#/##"
+     * @throws IllegalArgumentException if the pattern is invalid
+     */
+    HashBuckets(String pattern) throws IllegalArgumentException {
+        if (pattern == null || pattern.isEmpty()) {
+            throw new IllegalArgumentException("Bucket pattern must not be empty");
+        }
+        int count = 0;
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            if (c == '#') {
+                count++;
+            } else if (c == '/') {
+                if (i == 0 || i == pattern.length() - 1) {
+                    throw new IllegalArgumentException("Bucket pattern must not begin"
+                            + " or end with '/'");
+                } else if (pattern.charAt(i - 1) == '/') {
+                    throw new IllegalArgumentException("Bucket pattern must not"
+                            + " contain consecutive '/' characters");
+                }
+            } else {
+                throw new IllegalArgumentException("Illegal character in"
+                        + " bucket pattern: " + c);
+            }
+        }
+        if (count > 16) {
+            throw new IllegalArgumentException("Bucket pattern must not contain more"
+                    + " than 16 '#' characters");
+        }
+
+        template = (pattern + '/').toCharArray();
+        slots = new int[count];
+        for (int i = 0, j = 0; i < template.length; i++) {
+            if (template[i] == '#') {
+                slots[j++] = i;
+            }
+        }
+
+        if (count <= MAX_PRECOMPUTED_DIGITS) {
+            paths = new String[1 << (4 * count)];
+            for (int i = 0; i < paths.length; i++) {
+                paths[i] = render((long) i << (64 - 4 * count));
+            }
+        } else {
+            paths = null;
+        }
+    }
+
+    /**
+     * @param msb the most significant bits of a UUID
+     * @return the bucket path, including the trailing '/'
+     */
+    String getPath(long msb) {
+        long hash = mix(msb);
+        if (paths != null) {
+            return paths[(int) (hash >>> (64 - 4 * slots.length))];
+        }
+        return render(hash);
+    }
+
+    private String render(long hash) {
+        char[] path = template.clone();
+        for (int i = 0; i < slots.length; i++) {
+            path[slots[i]] = HEX_DIGITS[(int) (hash >>> (60 - 4 * i)) & 0xf];
+        }
+        return new String(path);
+    }
+
+    /**
+     * The MurmurHash3 64-bit finalizer: spreads the bits of the UUID that
+     * vary between consecutive ids (mostly those of time_low) over all bits.
+     */
+    static long mix(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+}
@@ -0,0 +1,293 @@
+/**
+ * Copyright (C) 2012 MediaShelf <http://www.yourmediashelf.com/>
+ *
+ * This file is part of uuid-datepath-idmapper.
+ *
+ * uuid-datepath-idmapper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * uuid-datepath-idmapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with uuid-datepath-idmapper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.yourmediashelf.fedora.akubra;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Opt-in metrics of IdMappers: per-operation counts and latency histograms
+ * (recorded by {@link InstrumentedIdMapper}), and the ids that fall through
+ * to the fallbackMapper of a {@link UUIDDatePathIdMapper} (see
+ * {@link UUIDDatePathIdMapper#setMetrics(IdMapperMetrics)}).
+ *
+ * <p>The metrics can be exposed as an MBean with {@link #register(String)},
+ * and logged periodically with {@link #startReporting(long, TimeUnit)}.
+ * Mappers without metrics don't pay for them.
+ *
+ * @author Edwin Shin
+ *
+ */
+public class IdMapperMetrics implements IdMapperMetricsMXBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(IdMapperMetrics.class);
+
+    /**
+     * The maximum number of namespace prefixes fallbacks are counted by;
+     * fallbacks of any further prefixes are counted as {@link #OTHER_PREFIX}.
+     */
+    static final int MAX_PREFIXES = 1000;
+
+    static final String OTHER_PREFIX = "(other)";
+
+    static final String NO_PREFIX = "(none)";
+
+    /**
+     * The operations of an IdMapper.
+     */
+    public enum Operation {
+        GET_INTERNAL_ID, GET_EXTERNAL_ID, GET_INTERNAL_PREFIX
+    }
+
+    private final LatencyHistogram[] latencies = new LatencyHistogram[Operation.values().length];
+
+    private final ConcurrentHashMap<String, LongAdder> fallbacks = new ConcurrentHashMap<String, LongAdder>();
+
+    private final LongAdder noUUID = new LongAdder();
+
+    private final AtomicLongArray versionMismatches = new AtomicLongArray(16);
+
+    private ObjectName objectName;
+
+    private ScheduledExecutorService reporter;
+
+    public IdMapperMetrics() {
+        for (int i = 0; i < latencies.length; i++) {
+            latencies[i] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * Records the latency of an operation.
+     *
+     * @param operation the operation
+     * @param nanos the latency in nanoseconds
+     */
+    public void record(Operation operation, long nanos) {
+        latencies[operation.ordinal()].record(nanos);
+    }
+
+    /**
+     * Records an id that was mapped by a fallbackMapper.
+     *
+     * @param prefix the namespace prefix of the id, or "" if it has none
+     * @param version the version of the UUID in the id, or -1 if the id does
+     * not contain a UUID
+     */
+    public void recordFallback(String prefix, int version) {
+        if (prefix.isEmpty()) {
+            prefix = NO_PREFIX;
+        }
+        LongAdder count = fallbacks.get(prefix);
+        if (count == null) {
+            if (fallbacks.size() >= MAX_PREFIXES) {
+                prefix = OTHER_PREFIX;
+            }
+            count = fallbacks.computeIfAbsent(prefix, p -> new LongAdder());
+        }
+        count.increment();
+        if (version == -1) {
+            noUUID.increment();
+        } else {
+            versionMismatches.incrementAndGet(version & 0x0f);
+        }
+    }
+
+    public long getInternalIdCount() {
+        return latencies[Operation.GET_INTERNAL_ID.ordinal()].count();
+    }
+
+    public long getInternalIdMeanNanos() {
+        return latencies[Operation.GET_INTERNAL_ID.ordinal()].meanNanos();
+    }
+
+    public long getInternalIdP99Nanos() {
+        return latencies[Operation.GET_INTERNAL_ID.ordinal()].percentileNanos(99);
+    }
+
+    public long getExternalIdCount() {
+        return latencies[Operation.GET_EXTERNAL_ID.ordinal()].count();
+    }
+
+    public long getExternalIdMeanNanos() {
+        return latencies[Operation.GET_EXTERNAL_ID.ordinal()].meanNanos();
+    }
+
+    public long getExternalIdP99Nanos() {
+        return latencies[Operation.GET_EXTERNAL_ID.ordinal()].percentileNanos(99);
+    }
+
+    public long getInternalPrefixCount() {
+        return latencies[Operation.GET_INTERNAL_PREFIX.ordinal()].count();
+    }
+
+    public long getInternalPrefixMeanNanos() {
+        return latencies[Operation.GET_INTERNAL_PREFIX.ordinal()].meanNanos();
+    }
+
+    public long getInternalPrefixP99Nanos() {
+        return latencies[Operation.GET_INTERNAL_PREFIX.ordinal()].percentileNanos(99);
+    }
+
+    /**
+     * @param operation the operation
+     * @param percentile the percentile, between 0 and 100
+     * @return the upper bound of the latency percentile of the operation
+     */
+    public long getPercentileNanos(Operation operation, double percentile) {
+        return latencies[operation.ordinal()].percentileNanos(percentile);
+    }
+
+    public long getFallbackCount() {
+        long count = 0;
+        for (LongAdder adder : fallbacks.values()) {
+            count += adder.sum();
+        }
+        return count;
+    }
+
+    public Map<String, Long> getFallbackCountsByPrefix() {
+        Map<String, Long> counts = new TreeMap<String, Long>();
+        for (Map.Entry<String, LongAdder> entry : fallbacks.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().sum());
+        }
+        return counts;
+    }
+
+    public long getNoUUIDCount() {
+        return noUUID.sum();
+    }
+
+    public Map<String, Long> getVersionMismatchCounts() {
+        Map<String, Long> counts = new TreeMap<String, Long>();
+        for (int i = 0; i < versionMismatches.length(); i++) {
+            long count = versionMismatches.get(i);
+            if (count > 0) {
+                counts.put("v" + i, count);
+            }
+        }
+        return counts;
+    }
+
+    public void reset() {
+        for (LatencyHistogram histogram : latencies) {
+            histogram.reset();
+        }
+        fallbacks.clear();
+        noUUID.reset();
+        for (int i = 0; i < versionMismatches.length(); i++) {
+            versionMismatches.set(i, 0);
+        }
+    }
+
+    /**
+     * Registers the metrics with the platform MBeanServer, as
+     * <code>com.yourmediashelf.fedora.akubra:type=IdMapperMetrics,name=&lt;name&gt;</code>.
+     *
+     * @param name the name of the mapper
+     * @throws IllegalStateException if registration fails
+     */
+    public synchronized void register(String name) throws IllegalStateException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName objectName = new ObjectName("com.yourmediashelf.fedora.akubra:type=IdMapperMetrics,name="
+                    + ObjectName.quote(name));
+            server.registerMBean(this, objectName);
+            this.objectName = objectName;
+        } catch (JMException e) {
+            throw new IllegalStateException("Unable to register IdMapperMetrics " + name, e);
+        }
+    }
+
+    /**
+     * Unregisters the metrics from the platform MBeanServer, if registered.
+     */
+    public synchronized void unregister() {
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (JMException e) {
+                logger.warn("Unable to unregister " + objectName, e);
+            }
+            objectName = null;
+        }
+    }
+
+    /**
+     * Logs a summary of the metrics at INFO level every period, from a daemon
+     * thread.
+     *
+     * @param period the period between summaries
+     * @param unit the unit of period
+     */
+    public synchronized void startReporting(long period, TimeUnit unit) {
+        stopReporting();
+        reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "IdMapperMetrics reporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reporter.scheduleAtFixedRate(() -> {
+            if (logger.isInfoEnabled()) {
+                logger.info(summary());
+            }
+        }, period, period, unit);
+    }
+
+    /**
+     * Stops logging summaries.
+     */
+    public synchronized void stopReporting() {
+        if (reporter != null) {
+            reporter.shutdownNow();
+            reporter = null;
+        }
+    }
+
+    /**
+     * @return a one-line summary of the metrics
+     */
+    public String summary() {
+        StringBuilder sb = new StringBuilder("IdMapper metrics:");
+        for (Operation operation : Operation.values()) {
+            LatencyHistogram histogram = latencies[operation.ordinal()];
+            sb.append(' ').append(operation).append("[count=").append(histogram.count())
+                    .append(", mean=").append(histogram.meanNanos())
+                    .append("ns, p99<=").append(histogram.percentileNanos(99)).append("ns]");
+        }
+        sb.append(" fallbacks=").append(getFallbackCountsByPrefix())
+                .append(" noUUID=").append(getNoUUIDCount())
+                .append(" versionMismatches=").append(getVersionMismatchCounts());
+        return sb.toString();
+    }
+}
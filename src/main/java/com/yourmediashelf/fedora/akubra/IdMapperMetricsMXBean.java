@@ -0,0 +1,78 @@
+/**
+ * Copyright (C) 2012 MediaShelf <http://www.yourmediashelf.com/>
+ *
+ * This file is part of uuid-datepath-idmapper.
+ *
+ * uuid-datepath-idmapper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * uuid-datepath-idmapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with uuid-datepath-idmapper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.yourmediashelf.fedora.akubra;
+
+import java.util.Map;
+
+/**
+ * JMX management interface of {@link IdMapperMetrics}. Latencies are in
+ * nanoseconds; percentiles are upper bounds, accurate to within a factor of
+ * two.
+ *
+ * @author Edwin Shin
+ *
+ */
+public interface IdMapperMetricsMXBean {
+
+    long getInternalIdCount();
+
+    long getInternalIdMeanNanos();
+
+    long getInternalIdP99Nanos();
+
+    long getExternalIdCount();
+
+    long getExternalIdMeanNanos();
+
+    long getExternalIdP99Nanos();
+
+    long getInternalPrefixCount();
+
+    long getInternalPrefixMeanNanos();
+
+    long getInternalPrefixP99Nanos();
+
+    /**
+     * @return the number of ids mapped by a fallbackMapper
+     */
+    long getFallbackCount();
+
+    /**
+     * @return the number of ids mapped by a fallbackMapper, by namespace
+     * prefix
+     */
+    Map<String, Long> getFallbackCountsByPrefix();
+
+    /**
+     * @return the number of ids mapped by a fallbackMapper because they do not
+     * contain a UUID
+     */
+    long getNoUUIDCount();
+
+    /**
+     * @return the number of ids mapped by a fallbackMapper because their UUID
+     * is of the wrong version, by version
+     */
+    Map<String, Long> getVersionMismatchCounts();
+
+    /**
+     * Resets all counters and histograms.
+     */
+    void reset();
+}
@@ -34,4 +34,32 @@ public interface IdMapperPrefixer {
      * @return the prefix or the empty string.
      */
     public String getPrefix(String identifier);
+    
+    /**
+     * Get the prefix for the supplied identifier, as 
+     * {@link #getPrefix(String)}. Implementations may override this method to
+     * avoid converting the identifier to a String.
+     * 
+     * @param identifier the identifier
+     * @return the prefix or the empty string.
+     */
+    public default String getPrefix(CharSequence identifier) {
+        return getPrefix(identifier.toString());
+    }
+    
+    /**
+     * Get the prefix of exactly those identifiers that begin with the supplied
+     * identifier prefix, i.e. every identifier beginning with 
+     * <code>identifierPrefix</code> has the returned prefix, and no other 
+     * identifier does. This is used to map Akubra listings by identifier 
+     * prefix to listings of a single directory.
+     * 
+     * <p>The default implementation returns <code>null</code>.
+     * 
+     * @param identifierPrefix the beginning of an identifier
+     * @return the prefix, or <code>null</code> if there is no such prefix.
+     */
+    public default String getPrefixForIdentifierPrefix(String identifierPrefix) {
+        return null;
+    }
 }
@@ -18,9 +18,7 @@
  */
 package com.yourmediashelf.fedora.akubra;
 
-import java.io.UnsupportedEncodingException;
-import java.net.URLDecoder;
-import java.net.URLEncoder;
+import java.nio.charset.Charset;
 
 /**
  * Utility methods for IdMapper implementations.
@@ -30,66 +28,303 @@ import java.net.URLEncoder;
  */
 public class IdMapperUtil {
 	
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	
+	private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+	
 	/**
+	 * Escape sequences for ASCII characters, or null for characters that are 
+	 * not escaped ('.' is only escaped as the last character).
+	 */
+	private static final String[] ESCAPES = new String[128];
+	
+	static {
+	    for (char c = 0; c < ESCAPES.length; c++) {
+	        if ((c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') 
+	                || (c >= 'A' && c <= 'Z') || c == '-' || c == '=' 
+	                || c == '(' || c == ')' || c == '[' || c == ']' 
+	                || c == ';' || c == '.') {
+	            continue;
+	        }
+	        ESCAPES[c] = new String(new char[] {'%', HEX_DIGITS[c >> 4], HEX_DIGITS[c & 0xf]});
+	    }
+	}
+	
+	/**
+	 * Encodes a URI as a filesystem-safe filename. All characters will be 
+	 * UTF-8 percent-encoded, except for <code>a-z A-Z 0-9 = ( ) [ ] ; -</code>
+	 * and <code>.</code> (period), which is escaped as <code>%2E</code> only 
+	 * when it occurs as the last character.
 	 * 
 	 * @param uri
 	 * @return the encoded URI, as a String
 	 */
 	public static String encode(String uri) {
-        // encode char-by-char because we only want to borrow
-        // URLEncoder.encode's behavior for some characters
-        StringBuilder out = new StringBuilder();
-        for (int i = 0; i < uri.length(); i++) {
+        int length = uri.length();
+        int i = 0;
+        while (i < length) {
             char c = uri.charAt(i);
-            if (c >= 'a' && c <= 'z') {
-                out.append(c);
-            } else if (c >= '0' && c <= '9') {
-                out.append(c);
-            } else if (c >= 'A' && c <= 'Z') {
-                out.append(c);
-            } else if (c == '-' || c == '=' || c == '(' || c == ')'
-                    || c == '[' || c == ']' || c == ';') {
-                out.append(c);
-            } else if (c == ':') {
-                out.append("%3A");
-            } else if (c == ' ') {
-                out.append("%20");
-            } else if (c == '+') {
-                out.append("%2B");
-            } else if (c == '_') {
-                out.append("%5F");
-            } else if (c == '*') {
-                out.append("%2A");
-            } else if (c == '.') {
-                if (i == uri.length() - 1) {
-                    out.append("%2E");
+            if (c >= 0x80 || ESCAPES[c] != null) {
+                break;
+            }
+            i++;
+        }
+        if (i == length) {
+            if (length == 0 || uri.charAt(length - 1) != '.') {
+                // nothing to escape
+                return uri;
+            }
+            // only the trailing '.' must be escaped
+            i = length - 1;
+        }
+
+        // first pass: determine the length of the encoded URI
+        int encodedLength = i;
+        for (int j = i; j < length; j++) {
+            encodedLength += encodedLength(uri.charAt(j), j == length - 1);
+        }
+
+        char[] out = new char[encodedLength];
+        uri.getChars(0, i, out, 0);
+        int pos = i;
+        for (int j = i; j < length; j++) {
+            char c = uri.charAt(j);
+            if (c < 0x80) {
+                String escape = ESCAPES[c];
+                if (escape == null && c == '.' && j == length - 1) {
+                    escape = "%2E";
+                }
+                if (escape == null) {
+                    out[pos++] = c;
                 } else {
-                    out.append(".");
+                    escape.getChars(0, 3, out, pos);
+                    pos += 3;
                 }
+            } else if (c < 0x800) {
+                pos = escapeByte(out, pos, 0xc0 | (c >> 6));
+                pos = escapeByte(out, pos, 0x80 | (c & 0x3f));
+            } else if (isSurrogate(c)) {
+                // for compatibility with the URLEncoder-based encoding, which
+                // encoded surrogates one char at a time as '?'
+                pos = escapeByte(out, pos, '?');
             } else {
-                try {
-                    out.append(URLEncoder.encode("" + c, "UTF-8"));
-                } catch (UnsupportedEncodingException wontHappen) {
-                    throw new RuntimeException(wontHappen);
-                }
+                pos = escapeByte(out, pos, 0xe0 | (c >> 12));
+                pos = escapeByte(out, pos, 0x80 | ((c >> 6) & 0x3f));
+                pos = escapeByte(out, pos, 0x80 | (c & 0x3f));
             }
         }
-        return out.toString();
+        return new String(out);
     }
+	
+	/**
+	 * Appends the encoding of a URI, as by {@link #encode(String)}, to a 
+	 * StringBuilder, without allocating any intermediate objects.
+	 * 
+	 * @param uri the URI
+	 * @param out the StringBuilder to append the encoded URI to
+	 */
+	public static void encode(CharSequence uri, StringBuilder out) {
+	    int length = uri.length();
+	    out.ensureCapacity(out.length() + length);
+	    for (int j = 0; j < length; j++) {
+	        char c = uri.charAt(j);
+	        if (c < 0x80) {
+	            String escape = ESCAPES[c];
+	            if (escape == null && c == '.' && j == length - 1) {
+	                escape = "%2E";
+	            }
+	            if (escape == null) {
+	                out.append(c);
+	            } else {
+	                out.append(escape);
+	            }
+	        } else if (c < 0x800) {
+	            escapeByte(out, 0xc0 | (c >> 6));
+	            escapeByte(out, 0x80 | (c & 0x3f));
+	        } else if (isSurrogate(c)) {
+	            escapeByte(out, '?');
+	        } else {
+	            escapeByte(out, 0xe0 | (c >> 12));
+	            escapeByte(out, 0x80 | ((c >> 6) & 0x3f));
+	            escapeByte(out, 0x80 | (c & 0x3f));
+	        }
+	    }
+	}
+	
+	/**
+	 * Encodes the beginning of a URI, such that the encoding of every URI 
+	 * beginning with <code>uriPrefix</code> begins with the result, i.e. as 
+	 * {@link #encode(String)}, but without escaping a trailing period.
+	 * 
+	 * @param uriPrefix the beginning of a URI
+	 * @return the encoded prefix, or null if uriPrefix ends with a period, 
+	 * as the encoding of that period depends on whether it is the last 
+	 * character of the URI.
+	 */
+	public static String encodePrefix(String uriPrefix) {
+	    if (uriPrefix.endsWith(".")) {
+	        return null;
+	    }
+	    return encode(uriPrefix);
+	}
+	
+	private static int encodedLength(char c, boolean last) {
+	    if (c < 0x80) {
+	        if (ESCAPES[c] != null || (c == '.' && last)) {
+	            return 3;
+	        }
+	        return 1;
+	    } else if (c < 0x800) {
+	        return 6;
+	    } else if (isSurrogate(c)) {
+	        return 3;
+	    }
+	    return 9;
+	}
+	
+	private static boolean isSurrogate(char c) {
+	    return c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE;
+	}
+	
+	private static int escapeByte(char[] out, int pos, int b) {
+	    out[pos] = '%';
+	    out[pos + 1] = HEX_DIGITS[(b >> 4) & 0xf];
+	    out[pos + 2] = HEX_DIGITS[b & 0xf];
+	    return pos + 3;
+	}
+	
+	private static void escapeByte(StringBuilder out, int b) {
+	    out.append('%').append(HEX_DIGITS[(b >> 4) & 0xf]).append(HEX_DIGITS[b & 0xf]);
+	}
 
 	/**
+	 * Decodes a filename produced by {@link #encode(String)}. As with 
+	 * {@link java.net.URLDecoder}, '+' is decoded as a space.
 	 * 
 	 * @param encodedURI
 	 * @return the decoded URI, as a String
+	 * @throws IllegalArgumentException if encodedURI contains an illegal 
+	 * escape sequence
 	 */
     public static String decode(String encodedURI) {
-        if (encodedURI.endsWith("%2E")) {
-            encodedURI = encodedURI.substring(0, encodedURI.length() - 3) + ".";
+        return decode(encodedURI, 0, encodedURI.length());
+    }
+
+    /**
+     * Decodes the part of a string between <code>begin</code> and 
+     * <code>end</code>, e.g. the filename of an internal id, like 
+     * {@link #decode(String)} but without a substring.
+     * 
+     * @param s the string containing the encoded URI
+     * @param begin the index of the first char of the encoded URI
+     * @param end the index after the last char of the encoded URI
+     * @return the decoded URI, as a String
+     * @throws IllegalArgumentException if the encoded URI contains an illegal 
+     * escape sequence
+     * @throws IndexOutOfBoundsException if begin or end are out of range
+     */
+    public static String decode(String s, int begin, int end) {
+        if (begin < 0 || end > s.length() || begin > end) {
+            throw new IndexOutOfBoundsException("begin " + begin + ", end " + end 
+                    + ", length " + s.length());
+        }
+        int i = begin;
+        while (i < end) {
+            char c = s.charAt(i);
+            if (c == '%' || c == '+') {
+                break;
+            }
+            i++;
+        }
+        if (i == end) {
+            // nothing to decode
+            return s.substring(begin, end);
+        }
+
+        StringBuilder out = new StringBuilder(end - begin);
+        out.append(s, begin, i);
+        decodeEscaped(s, i, end, out);
+        return out.toString();
+    }
+
+    /**
+     * Appends the decoding of the part of a character sequence between 
+     * <code>begin</code> and <code>end</code>, as by 
+     * {@link #decode(String, int, int)}, to a StringBuilder. Only escaped 
+     * non-ASCII characters allocate intermediate objects.
+     * 
+     * @param s the character sequence containing the encoded URI
+     * @param begin the index of the first char of the encoded URI
+     * @param end the index after the last char of the encoded URI
+     * @param out the StringBuilder to append the decoded URI to, whose 
+     * content is undefined if an exception is thrown
+     * @throws IllegalArgumentException if the encoded URI contains an illegal 
+     * escape sequence
+     * @throws IndexOutOfBoundsException if begin or end are out of range
+     */
+    public static void decode(CharSequence s, int begin, int end, StringBuilder out) {
+        if (begin < 0 || end > s.length() || begin > end) {
+            throw new IndexOutOfBoundsException("begin " + begin + ", end " + end 
+                    + ", length " + s.length());
         }
-        try {
-            return URLDecoder.decode(encodedURI, "UTF-8");
-        } catch (UnsupportedEncodingException wontHappen) {
-            throw new RuntimeException(wontHappen);
+        out.ensureCapacity(out.length() + end - begin);
+        decodeEscaped(s, begin, end, out);
+    }
+
+    private static void decodeEscaped(CharSequence s, int i, int end, StringBuilder out) {
+        byte[] bytes = null;
+        while (i < end) {
+            char c = s.charAt(i);
+            if (c == '+') {
+                out.append(' ');
+                i++;
+            } else if (c == '%') {
+                // decode the whole run of escaped bytes at once, so that 
+                // multi-byte UTF-8 sequences are decoded as a unit
+                int runEnd = i;
+                boolean ascii = true;
+                while (runEnd + 2 < end && s.charAt(runEnd) == '%') {
+                    int hi = hexValue(s.charAt(runEnd + 1));
+                    int lo = hexValue(s.charAt(runEnd + 2));
+                    if (hi == -1 || lo == -1) {
+                        throw new IllegalArgumentException("Illegal hex characters in escape (%) pattern: " 
+                                + s.subSequence(runEnd, runEnd + 3));
+                    }
+                    ascii &= hi < 8;
+                    runEnd += 3;
+                }
+                if (runEnd < end && s.charAt(runEnd) == '%') {
+                    throw new IllegalArgumentException("Incomplete trailing escape (%) pattern");
+                }
+                if (ascii) {
+                    for (; i < runEnd; i += 3) {
+                        out.append((char) (hexValue(s.charAt(i + 1)) << 4 | hexValue(s.charAt(i + 2))));
+                    }
+                } else {
+                    if (bytes == null) {
+                        bytes = new byte[(end - i) / 3];
+                    }
+                    int n = 0;
+                    for (; i < runEnd; i += 3) {
+                        bytes[n++] = (byte) (hexValue(s.charAt(i + 1)) << 4 | hexValue(s.charAt(i + 2)));
+                    }
+                    out.append(new String(bytes, 0, n, UTF_8));
+                }
+            } else {
+                out.append(c);
+                i++;
+            }
+        }
+    }
+    
+    private static int hexValue(char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        } else if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        } else if (c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
         }
+        return -1;
     }
 }
@@ -0,0 +1,126 @@
+/**
+ * Copyright (C) 2012 MediaShelf <http://www.yourmediashelf.com/>
+ *
+ * This file is part of uuid-datepath-idmapper.
+ *
+ * uuid-datepath-idmapper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * uuid-datepath-idmapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with uuid-datepath-idmapper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.yourmediashelf.fedora.akubra;
+
+import java.net.URI;
+
+import org.akubraproject.map.IdMapper;
+
+/**
+ * An IdMapper that records the number and latency of the calls to another
+ * IdMapper in an {@link IdMapperMetrics}.
+ *
+ * @author Edwin Shin
+ *
+ */
+public class InstrumentedIdMapper implements BatchIdMapper, PathIdMapper {
+
+    private final IdMapper idMapper;
+
+    private final PathIdMapper paths;
+
+    private final IdMapperMetrics metrics;
+
+    /**
+     *
+     * @param idMapper the IdMapper to instrument
+     * @param metrics the metrics to record the calls in
+     * @throws NullPointerException if either argument is null
+     */
+    public InstrumentedIdMapper(IdMapper idMapper, IdMapperMetrics metrics) {
+        if (idMapper == null || metrics == null) {
+            throw new NullPointerException();
+        }
+        this.idMapper = idMapper;
+        this.paths = PathIdMapper.adapt(idMapper);
+        this.metrics = metrics;
+    }
+
+    /* (non-Javadoc)
+     * @see org.akubraproject.map.IdMapper#getExternalId(java.net.URI)
+     */
+    public URI getExternalId(URI internalId) throws NullPointerException {
+        long start = System.nanoTime();
+        try {
+            return idMapper.getExternalId(internalId);
+        } finally {
+            metrics.record(IdMapperMetrics.Operation.GET_EXTERNAL_ID, System.nanoTime() - start);
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see org.akubraproject.map.IdMapper#getInternalId(java.net.URI)
+     */
+    public URI getInternalId(URI externalId) throws NullPointerException {
+        long start = System.nanoTime();
+        try {
+            return idMapper.getInternalId(externalId);
+        } finally {
+            metrics.record(IdMapperMetrics.Operation.GET_INTERNAL_ID, System.nanoTime() - start);
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see org.akubraproject.map.IdMapper#getInternalPrefix(java.lang.String)
+     */
+    public String getInternalPrefix(String externalPrefix) throws NullPointerException {
+        long start = System.nanoTime();
+        try {
+            return idMapper.getInternalPrefix(externalPrefix);
+        } finally {
+            metrics.record(IdMapperMetrics.Operation.GET_INTERNAL_PREFIX, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Records the call as a {@link IdMapperMetrics.Operation#GET_INTERNAL_ID}.
+     *
+     * @see com.yourmediashelf.fedora.akubra.PathIdMapper#appendInternalPath(java.lang.CharSequence, java.lang.StringBuilder)
+     */
+    public void appendInternalPath(CharSequence externalId, StringBuilder path) throws NullPointerException {
+        long start = System.nanoTime();
+        try {
+            paths.appendInternalPath(externalId, path);
+        } finally {
+            metrics.record(IdMapperMetrics.Operation.GET_INTERNAL_ID, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Records the call as a {@link IdMapperMetrics.Operation#GET_EXTERNAL_ID}.
+     *
+     * @see com.yourmediashelf.fedora.akubra.PathIdMapper#appendExternalId(java.lang.CharSequence, int, int, java.lang.StringBuilder)
+     */
+    public void appendExternalId(CharSequence internalPath, int begin, int end, StringBuilder externalId)
+            throws NullPointerException, IllegalArgumentException {
+        long start = System.nanoTime();
+        try {
+            paths.appendExternalId(internalPath, begin, end, externalId);
+        } finally {
+            metrics.record(IdMapperMetrics.Operation.GET_EXTERNAL_ID, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * @return the metrics the calls are recorded in
+     */
+    public IdMapperMetrics getMetrics() {
+        return metrics;
+    }
+}
@@ -0,0 +1,427 @@
+/**
+ * Copyright (C) 2012 MediaShelf <http://www.yourmediashelf.com/>
+ *
+ * This file is part of uuid-datepath-idmapper.
+ *
+ * uuid-datepath-idmapper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * uuid-datepath-idmapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with uuid-datepath-idmapper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.yourmediashelf.fedora.akubra;
+
+import java.net.URI;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+import org.akubraproject.map.IdMapper;
+
+/**
+ * <p>An IdMapper that routes the ids of each Fedora namespace to its own
+ * IdMapper, e.g. UUID-minted namespaces to a {@link UUIDDatePathIdMapper},
+ * and legacy namespaces of sequential PIDs to a
+ * {@link PrefixingHashPathIdMapper}. Ids of other namespaces, and ids that are
+ * not Fedora PIDs, are routed to the default IdMapper.
+ *
+ * <p>The internal ids of each route are placed below a directory of their
+ * own: the (encoded) namespace, or, for the default route, the default
+ * directory. E.g. with the route "cellar", <code>info:fedora/cellar:1</code>
+ * becomes <code>file:cellar/</code> followed by the path the cellar IdMapper
+ * returns. Therefore internal ids are mapped back by the IdMapper of their
+ * leading directory alone.
+ *
+ * <p>The namespace of an id is the part between <code>info:fedora/</code>
+ * and the next ':' character. It is located with a single scan, and looked
+ * up in a table of the routes, so routing allocates nothing.
+ *
+ * @author Edwin Shin
+ *
+ */
+public class NamespaceRoutingIdMapper implements BatchIdMapper, PathIdMapper {
+
+    /**
+     * The directory of the default route, unless otherwise configured. As it
+     * contains an underscore, it is not a valid Fedora namespace.
+     */
+    public static final String DEFAULT_DIRECTORY = "_default";
+
+    private static final String fedoraRDFNamespace = "info:fedora/";
+
+    private final Route[] routes;
+
+    private final Route defaultRoute;
+
+    private final RouteTable byNamespace;
+
+    private final RouteTable byDirectory;
+
+    /**
+     * Creates a mapper with the default directory {@link #DEFAULT_DIRECTORY}.
+     *
+     * @param routes the IdMappers by namespace
+     * @param defaultMapper the IdMapper of all other ids
+     * @throws IllegalArgumentException if a namespace is empty or contains a
+     * ':' character
+     * @throws NullPointerException if any argument, namespace or IdMapper is
+     * null
+     */
+    public NamespaceRoutingIdMapper(Map<String, ? extends IdMapper> routes, IdMapper defaultMapper) {
+        this(routes, defaultMapper, DEFAULT_DIRECTORY);
+    }
+
+    /**
+     *
+     * @param routes the IdMappers by namespace
+     * @param defaultMapper the IdMapper of all other ids
+     * @param defaultDirectory the directory of the internal ids of the
+     * default route
+     * @throws IllegalArgumentException if a namespace is empty or contains a
+     * ':' character, or the default directory is empty, contains a '/'
+     * character, or is the directory of a namespace
+     * @throws NullPointerException if any argument, namespace or IdMapper is
+     * null
+     */
+    public NamespaceRoutingIdMapper(Map<String, ? extends IdMapper> routes, IdMapper defaultMapper,
+            String defaultDirectory) {
+        if (defaultMapper == null || defaultDirectory == null) {
+            throw new NullPointerException();
+        }
+        if (defaultDirectory.isEmpty() || defaultDirectory.indexOf('/') != -1) {
+            throw new IllegalArgumentException("Invalid default directory: \"" + defaultDirectory + "\"");
+        }
+        this.routes = new Route[routes.size() + 1];
+        byNamespace = new RouteTable(routes.size());
+        byDirectory = new RouteTable(routes.size() + 1);
+        int i = 0;
+        for (Map.Entry<String, ? extends IdMapper> entry : routes.entrySet()) {
+            String ns = entry.getKey();
+            if (ns.isEmpty() || ns.indexOf(':') != -1) {
+                throw new IllegalArgumentException("Invalid namespace: \"" + ns + "\"");
+            }
+            if (entry.getValue() == null) {
+                throw new NullPointerException("No IdMapper for " + ns);
+            }
+            Route route = new Route(i, IdMapperUtil.encode(ns), entry.getValue());
+            this.routes[i++] = route;
+            byNamespace.put(ns, route);
+            byDirectory.put(route.directory, route);
+        }
+        if (byDirectory.get(defaultDirectory, 0, defaultDirectory.length()) != null) {
+            throw new IllegalArgumentException("Default directory \"" + defaultDirectory
+                    + "\" is the directory of a namespace");
+        }
+        defaultRoute = new Route(i, defaultDirectory, defaultMapper);
+        this.routes[i] = defaultRoute;
+        byDirectory.put(defaultDirectory, defaultRoute);
+    }
+
+    /* (non-Javadoc)
+     * @see org.akubraproject.map.IdMapper#getExternalId(java.net.URI)
+     */
+    public URI getExternalId(URI internalId) throws NullPointerException {
+        String s = internalId.toString();
+        int colon = s.indexOf(':');
+        return route(s, colon).mapper.getExternalId(delegateId(s, colon));
+    }
+
+    /* (non-Javadoc)
+     * @see org.akubraproject.map.IdMapper#getInternalId(java.net.URI)
+     */
+    public URI getInternalId(URI externalId) throws NullPointerException {
+        if (externalId == null) {
+            throw new NullPointerException();
+        }
+        Route route = route(externalId.toString());
+        return route.internalId(route.mapper.getInternalId(externalId));
+    }
+
+    /**
+     * Returns the internal prefix of the route of the externalPrefix, or null
+     * if the prefix may match ids of more than one route, or if the IdMapper
+     * of its route returns null.
+     *
+     * @see org.akubraproject.map.IdMapper#getInternalPrefix(java.lang.String)
+     */
+    public String getInternalPrefix(String externalPrefix) throws NullPointerException {
+        if (externalPrefix == null) {
+            throw new NullPointerException();
+        }
+        Route route;
+        if (externalPrefix.startsWith(fedoraRDFNamespace)) {
+            if (externalPrefix.indexOf(':', fedoraRDFNamespace.length()) == -1) {
+                // the namespace may continue
+                return null;
+            }
+            route = route(externalPrefix);
+        } else if (fedoraRDFNamespace.startsWith(externalPrefix)) {
+            return null;
+        } else {
+            route = defaultRoute;
+        }
+        String prefix = route.mapper.getInternalPrefix(externalPrefix);
+        return prefix == null ? null : route.internalPrefix(prefix);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.yourmediashelf.fedora.akubra.PathIdMapper#appendInternalPath(java.lang.CharSequence, java.lang.StringBuilder)
+     */
+    public void appendInternalPath(CharSequence externalId, StringBuilder path) throws NullPointerException {
+        Route route = route(externalId);
+        path.append(route.directory).append('/');
+        route.paths.appendInternalPath(externalId, path);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.yourmediashelf.fedora.akubra.PathIdMapper#appendExternalId(java.lang.CharSequence, int, int, java.lang.StringBuilder)
+     */
+    public void appendExternalId(CharSequence internalPath, int begin, int end, StringBuilder externalId)
+            throws NullPointerException, IllegalArgumentException {
+        int slash = indexOf(internalPath, '/', begin, end);
+        Route route = slash == -1 ? null : byDirectory.get(internalPath, begin, slash);
+        if (route == null) {
+            throw new IllegalArgumentException(internalPath.subSequence(begin, end) 
+                    + " is not a routed internal path");
+        }
+        route.paths.appendExternalId(internalPath, slash + 1, end, externalId);
+    }
+
+    /**
+     * Returns a function that maps the ids of each route with the
+     * {@link BatchIdMapper#internalIdFunction()} of its IdMapper, if it is a
+     * BatchIdMapper.
+     *
+     * @see com.yourmediashelf.fedora.akubra.BatchIdMapper#internalIdFunction()
+     */
+    @Override
+    public Function<URI, URI> internalIdFunction() {
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        final Function<URI, URI>[] functions = new Function[routes.length];
+        return new Function<URI, URI>() {
+            @Override
+            public URI apply(URI externalId) {
+                if (externalId == null) {
+                    throw new NullPointerException();
+                }
+                Route route = route(externalId.toString());
+                Function<URI, URI> f = functions[route.index];
+                if (f == null) {
+                    f = functions[route.index] = internalIdFunction(route.mapper);
+                }
+                return route.internalId(f.apply(externalId));
+            }
+        };
+    }
+
+    /**
+     * Returns a function that maps the ids of each route with the
+     * {@link BatchIdMapper#externalIdFunction()} of its IdMapper, if it is a
+     * BatchIdMapper.
+     *
+     * @see com.yourmediashelf.fedora.akubra.BatchIdMapper#externalIdFunction()
+     */
+    @Override
+    public Function<URI, URI> externalIdFunction() {
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        final Function<URI, URI>[] functions = new Function[routes.length];
+        return new Function<URI, URI>() {
+            @Override
+            public URI apply(URI internalId) {
+                String s = internalId.toString();
+                int colon = s.indexOf(':');
+                Route route = route(s, colon);
+                Function<URI, URI> f = functions[route.index];
+                if (f == null) {
+                    f = functions[route.index] = externalIdFunction(route.mapper);
+                }
+                return f.apply(delegateId(s, colon));
+            }
+        };
+    }
+
+    /**
+     * @return the IdMappers by namespace, in the order of the routes
+     */
+    public Map<String, IdMapper> getRoutes() {
+        Map<String, IdMapper> map = new LinkedHashMap<String, IdMapper>();
+        for (Route route : routes) {
+            if (route != defaultRoute) {
+                map.put(IdMapperUtil.decode(route.directory), route.mapper);
+            }
+        }
+        return map;
+    }
+
+    /**
+     * @return the IdMapper of the ids of all other namespaces
+     */
+    public IdMapper getDefaultMapper() {
+        return defaultRoute.mapper;
+    }
+
+    /**
+     * @return the route of the namespace of an external id (or prefix)
+     */
+    private Route route(CharSequence id) {
+        if (startsWith(id, fedoraRDFNamespace)) {
+            int begin = fedoraRDFNamespace.length();
+            int colon = indexOf(id, ':', begin, id.length());
+            if (colon != -1) {
+                Route route = byNamespace.get(id, begin, colon);
+                if (route != null) {
+                    return route;
+                }
+            }
+        }
+        return defaultRoute;
+    }
+
+    /**
+     * @return the route of the leading directory of an internal id
+     * @throws IllegalArgumentException if the leading directory is not that
+     * of a route
+     */
+    private Route route(String internalId, int colon) {
+        int slash = internalId.indexOf('/', colon + 1);
+        Route route = slash == -1 ? null : byDirectory.get(internalId, colon + 1, slash);
+        if (route == null) {
+            throw new IllegalArgumentException(internalId + " is not a routed internal id");
+        }
+        return route;
+    }
+
+    /**
+     * @return the internal id without its leading directory
+     */
+    private static URI delegateId(String internalId, int colon) {
+        int slash = internalId.indexOf('/', colon + 1);
+        return URI.create(internalId.substring(0, colon + 1) + internalId.substring(slash + 1));
+    }
+
+    private static boolean startsWith(CharSequence s, String prefix) {
+        if (s.length() < prefix.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (s.charAt(i) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int indexOf(CharSequence s, char c, int begin, int end) {
+        for (int i = begin; i < end; i++) {
+            if (s.charAt(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static Function<URI, URI> internalIdFunction(IdMapper mapper) {
+        return mapper instanceof BatchIdMapper 
+                ? ((BatchIdMapper) mapper).internalIdFunction() : mapper::getInternalId;
+    }
+
+    private static Function<URI, URI> externalIdFunction(IdMapper mapper) {
+        return mapper instanceof BatchIdMapper 
+                ? ((BatchIdMapper) mapper).externalIdFunction() : mapper::getExternalId;
+    }
+
+    /**
+     * A namespace (or the default) and its IdMapper.
+     */
+    private static final class Route {
+        final int index;
+        final String directory;
+        final IdMapper mapper;
+        final PathIdMapper paths;
+
+        Route(int index, String directory, IdMapper mapper) {
+            this.index = index;
+            this.directory = directory;
+            this.mapper = mapper;
+            this.paths = PathIdMapper.adapt(mapper);
+        }
+
+        URI internalId(URI delegateId) {
+            return URI.create(internalPrefix(delegateId.toString()));
+        }
+
+        /**
+         * Inserts the directory after the scheme of an internal id (or prefix).
+         */
+        String internalPrefix(String delegateId) {
+            int colon = delegateId.indexOf(':');
+            return delegateId.substring(0, colon + 1) + directory + "/" + delegateId.substring(colon + 1);
+        }
+    }
+
+    /**
+     * An immutable open-addressing hash table of routes, which is looked up by
+     * a region of a CharSequence.
+     */
+    private static final class RouteTable {
+        private final String[] keys;
+        private final Route[] routes;
+
+        RouteTable(int size) {
+            int capacity = 4;
+            while (capacity < 2 * size) {
+                capacity <<= 1;
+            }
+            keys = new String[capacity];
+            routes = new Route[capacity];
+        }
+
+        Route get(CharSequence s, int begin, int end) {
+            int hash = 0;
+            for (int i = begin; i < end; i++) {
+                hash = 31 * hash + s.charAt(i);
+            }
+            int mask = keys.length - 1;
+            int length = end - begin;
+            for (int i = spread(hash) & mask; keys[i] != null; i = (i + 1) & mask) {
+                if (keys[i].length() == length && regionMatches(s, begin, keys[i])) {
+                    return routes[i];
+                }
+            }
+            return null;
+        }
+
+        private static boolean regionMatches(CharSequence s, int begin, String key) {
+            for (int i = 0; i < key.length(); i++) {
+                if (s.charAt(begin + i) != key.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // only called by the constructor of the mapper
+        void put(String key, Route route) {
+            int mask = keys.length - 1;
+            int i = spread(key.hashCode()) & mask;
+            while (keys[i] != null) {
+                i = (i + 1) & mask;
+            }
+            keys[i] = key;
+            routes[i] = route;
+        }
+
+        private static int spread(int h) {
+            return h ^ (h >>> 16);
+        }
+    }
+}
@@ -0,0 +1,193 @@
+/**
+ * Copyright (C) 2012 MediaShelf <http://www.yourmediashelf.com/>
+ *
+ * This file is part of uuid-datepath-idmapper.
+ *
+ * uuid-datepath-idmapper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * uuid-datepath-idmapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with uuid-datepath-idmapper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.yourmediashelf.fedora.akubra;
+
+import java.nio.charset.Charset;
+
+/**
+ * The hash functions {@link PrefixingHashPathIdMapper} can derive paths from.
+ *
+ * <p>Each algorithm writes a 128-bit digest of the external id, whose
+ * hexadecimal digits replace the # characters of the path pattern.
+ *
+ * @author Edwin Shin
+ *
+ */
+public enum PathHashAlgorithm {
+
+    /**
+     * MD5 of the external id, as used by
+     * <code>org.fcrepo.server.storage.lowlevel.akubra.HashPathIdMapper</code>.
+     * This is the default.
+     */
+    MD5 {
+        @Override
+        void digest(CharSequence uri, byte[] digest) {
+            com.twmacinta.util.MD5 md5 = MD5_DIGESTS.get();
+            md5.Init();
+            int length = uri.length();
+            byte[] bytes = BYTES.get();
+            if (ASCII_COMPATIBLE && length <= bytes.length && toAscii(uri, bytes)) {
+                md5.Update(bytes, length);
+            } else {
+                // same bytes as new MD5(uri), i.e. in the platform default charset
+                md5.Update(uri.toString());
+            }
+            System.arraycopy(md5.Final(), 0, digest, 0, 16);
+        }
+    },
+
+    /**
+     * MurmurHash3 (x64, 128-bit, seed 0) of the UTF-16LE encoding of the
+     * external id, i.e. the same digest as Guava's
+     * <code>Hashing.murmur3_128().hashUnencodedChars(uri)</code>.
+     *
+     * <p>This is considerably faster than MD5, but the paths are not
+     * compatible with Fedora's HashPathIdMapper, so it should only be used
+     * for new stores.
+     */
+    MURMUR3_128 {
+        @Override
+        void digest(CharSequence uri, byte[] digest) {
+            int length = uri.length();
+            long h1 = 0;
+            long h2 = 0;
+            int i = 0;
+            for (; i + 8 <= length; i += 8) {
+                h1 ^= mixK1(chars(uri, i, 4));
+                h1 = Long.rotateLeft(h1, 27);
+                h1 += h2;
+                h1 = h1 * 5 + 0x52dce729;
+
+                h2 ^= mixK2(chars(uri, i + 4, 4));
+                h2 = Long.rotateLeft(h2, 31);
+                h2 += h1;
+                h2 = h2 * 5 + 0x38495ab5;
+            }
+
+            int remaining = length - i;
+            if (remaining > 4) {
+                h2 ^= mixK2(chars(uri, i + 4, remaining - 4));
+            }
+            if (remaining > 0) {
+                h1 ^= mixK1(chars(uri, i, Math.min(remaining, 4)));
+            }
+
+            h1 ^= 2L * length;
+            h2 ^= 2L * length;
+            h1 += h2;
+            h2 += h1;
+            h1 = fmix64(h1);
+            h2 = fmix64(h2);
+            h1 += h2;
+            h2 += h1;
+
+            for (int j = 0; j < 8; j++) {
+                digest[j] = (byte) (h1 >>> (8 * j));
+                digest[8 + j] = (byte) (h2 >>> (8 * j));
+            }
+        }
+    };
+
+    /**
+     * Writes the 16-byte digest of uri to the supplied array.
+     *
+     * @param uri the external id
+     * @param digest the array to write the digest to
+     */
+    abstract void digest(CharSequence uri, byte[] digest);
+
+    private static final long C1 = 0x87c37b91114253d5L;
+
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    /**
+     * Per-thread MD5 instances, fast-md5's MD5 is not thread-safe.
+     */
+    private static final ThreadLocal<com.twmacinta.util.MD5> MD5_DIGESTS =
+            ThreadLocal.withInitial(com.twmacinta.util.MD5::new);
+
+    /**
+     * Per-thread buffers for the bytes of ASCII ids.
+     */
+    private static final ThreadLocal<byte[]> BYTES = ThreadLocal.withInitial(() -> new byte[256]);
+
+    /**
+     * Whether the platform default charset encodes ASCII as ASCII (which is
+     * true of all common charsets), so that String.getBytes() can be skipped
+     * for ASCII ids.
+     */
+    private static final boolean ASCII_COMPATIBLE;
+
+    static {
+        com.twmacinta.util.MD5.initNativeLibrary(true); // don't attempt to use the native libs, ever.
+
+        char[] ascii = new char[128];
+        for (char c = 0; c < ascii.length; c++) {
+            ascii[c] = c;
+        }
+        byte[] encoded = new String(ascii).getBytes(Charset.defaultCharset());
+        boolean compatible = encoded.length == ascii.length;
+        for (int i = 0; compatible && i < encoded.length; i++) {
+            compatible = encoded[i] == i;
+        }
+        ASCII_COMPATIBLE = compatible;
+    }
+
+    private static boolean toAscii(CharSequence s, byte[] bytes) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c >= 0x80) {
+                return false;
+            }
+            bytes[i] = (byte) c;
+        }
+        return true;
+    }
+
+    // the little-endian UTF-16 encoding of count (at most 4) chars, as a long
+    private static long chars(CharSequence s, int offset, int count) {
+        long k = 0;
+        for (int i = 0; i < count; i++) {
+            k |= (long) s.charAt(offset + i) << (16 * i);
+        }
+        return k;
+    }
+
+    private static long mixK1(long k1) {
+        k1 *= C1;
+        k1 = Long.rotateLeft(k1, 31);
+        return k1 * C2;
+    }
+
+    private static long mixK2(long k2) {
+        k2 *= C2;
+        k2 = Long.rotateLeft(k2, 33);
+        return k2 * C1;
+    }
+
+    private static long fmix64(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+}
@@ -0,0 +1,95 @@
+/**
+ * Copyright (C) 2012 MediaShelf <http://www.yourmediashelf.com/>
+ *
+ * This file is part of uuid-datepath-idmapper.
+ *
+ * uuid-datepath-idmapper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * uuid-datepath-idmapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with uuid-datepath-idmapper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.yourmediashelf.fedora.akubra;
+
+import java.net.URI;
+
+import org.akubraproject.map.IdMapper;
+
+/**
+ * An {@link IdMapper} that also maps between external ids and internal paths
+ * without creating any {@link URI}s, e.g. for a blob store that builds file
+ * paths on its read and write paths.
+ *
+ * <p>The internal path of an external id is its internal id without the
+ * <code>file:</code> scheme, e.g. <code>2011/10/13/info%3Afedora%2Ftest%3A25f814ce-f5ac-11e0-b139-2837370107a5</code>
+ * for <code>info:fedora/test:25f814ce-f5ac-11e0-b139-2837370107a5</code>.
+ * Paths and ids are appended to a caller-supplied StringBuilder, which may be
+ * reused across calls, so that the implementations of this library allocate
+ * nothing for most ids.
+ *
+ * @author Edwin Shin
+ *
+ */
+public interface PathIdMapper extends IdMapper {
+
+    /**
+     * Appends the internal path of an external id, i.e. the internal id that
+     * {@link #getInternalId(URI)} returns without its <code>file:</code>
+     * scheme.
+     *
+     * @param externalId the external id
+     * @param path the StringBuilder to append the path to
+     * @throws NullPointerException if either argument is null
+     */
+    void appendInternalPath(CharSequence externalId, StringBuilder path) throws NullPointerException;
+
+    /**
+     * Appends the external id of the internal path between <code>begin</code>
+     * and <code>end</code>, e.g. of the part of an absolute file path below
+     * the root of the store.
+     *
+     * @param internalPath the character sequence containing the internal path
+     * @param begin the index of the first char of the internal path
+     * @param end the index after the last char of the internal path
+     * @param externalId the StringBuilder to append the external id to
+     * @throws NullPointerException if either argument is null
+     * @throws IllegalArgumentException if the path cannot be mapped
+     */
+    void appendExternalId(CharSequence internalPath, int begin, int end, StringBuilder externalId)
+            throws NullPointerException, IllegalArgumentException;
+
+    /**
+     * Appends the external id of an internal path.
+     *
+     * @param internalPath the internal path
+     * @param externalId the StringBuilder to append the external id to
+     * @throws NullPointerException if either argument is null
+     * @throws IllegalArgumentException if the path cannot be mapped
+     */
+    default void appendExternalId(CharSequence internalPath, StringBuilder externalId)
+            throws NullPointerException, IllegalArgumentException {
+        appendExternalId(internalPath, 0, internalPath.length(), externalId);
+    }
+
+    /**
+     * Returns the IdMapper itself if it is a PathIdMapper, or else a
+     * PathIdMapper that maps paths through its <code>file:</code> URIs.
+     *
+     * @param idMapper the IdMapper
+     * @return a PathIdMapper that maps ids like idMapper
+     * @throws NullPointerException if idMapper is null
+     */
+    static PathIdMapper adapt(IdMapper idMapper) throws NullPointerException {
+        if (idMapper instanceof PathIdMapper) {
+            return (PathIdMapper) idMapper;
+        }
+        return new URIPathIdMapper(idMapper);
+    }
+}
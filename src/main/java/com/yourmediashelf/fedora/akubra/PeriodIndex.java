@@ -0,0 +1,357 @@
+/**
+ * Copyright (C) 2012 MediaShelf <http://www.yourmediashelf.com/>
+ *
+ * This file is part of uuid-datepath-idmapper.
+ *
+ * uuid-datepath-idmapper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * uuid-datepath-idmapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with uuid-datepath-idmapper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.yourmediashelf.fedora.akubra;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+
+/**
+ * A persistent index of the number of ids per time period, used by
+ * {@link AdaptiveUUIDDatePathIdMapper} to decide which periods (days, hours)
+ * are split into finer periods (hours, minutes).
+ *
+ * <p>Each period that has been counted has a fixed-size record in a
+ * memory-mapped file: its key, the number of ids counted, the greatest
+ * timestamp counted, and the timestamp from which on its ids belong to the
+ * finer periods (if it was split). Records are appended, and never removed;
+ * on open, they are read into an in-memory hash table, which lookups use
+ * without locking.
+ *
+ * <p>Ids are counted when they are recorded as stored, not when they are
+ * mapped, so that lookups (e.g. of ids that were never stored) cannot delay
+ * splits. The placement of an id depends only on its timestamp and on the
+ * split timestamps, which are set once to a value greater than any timestamp
+ * counted before and than the current time plus {@link #MAX_CLOCK_SKEW}, and
+ * forced to disk before they are used. Therefore stored ids never move, also
+ * across restarts, unless they are stamped more than MAX_CLOCK_SKEW ahead of
+ * the current time and their period is split between storing and recording
+ * them. Counts may lag after a crash, which only delays a split.
+ *
+ * <p>The index file is locked, as only a single process may update it.
+ *
+ * @author Edwin Shin
+ *
+ */
+final class PeriodIndex implements Closeable {
+
+    static final int DAY = 0;
+    static final int HOUR = 1;
+    static final int MINUTE = 2;
+
+    private static final long[] UNIT_MILLIS = {86400000L, 3600000L, 60000L};
+
+    /**
+     * The time by which ids may be stamped ahead of the current time and still
+     * be stored in a period that is split before they are recorded, in 100-ns
+     * intervals (one minute).
+     */
+    static final long MAX_CLOCK_SKEW = 60L * 10000000L;
+
+    private static final int MAGIC = 0x55445049; // "UDPI"
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int RECORD_SIZE = 32;
+    private static final int INITIAL_RECORDS = 1024;
+
+    // record layout
+    private static final int KEY = 0;
+    private static final int COUNT = 8;
+    private static final int MAX = 16;
+    private static final int SPLIT_AT = 24;
+
+    private final int maxEntries;
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final FileLock lock;
+
+    // guarded by this
+    private MappedByteBuffer buffer;
+    private int recordCount;
+
+    private volatile Table table = new Table(64);
+
+    /**
+     * @param file the index file, created if it does not exist
+     * @param maxEntries the number of ids after which a period is split
+     * @throws IOException if the file cannot be opened, or is not an index
+     * @throws IllegalStateException if the file is used by another index
+     */
+    PeriodIndex(File file, int maxEntries) throws IOException, IllegalStateException {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries must be positive: " + maxEntries);
+        }
+        this.maxEntries = maxEntries;
+        this.file = new RandomAccessFile(file, "rw");
+        this.channel = this.file.getChannel();
+        FileLock lock;
+        try {
+            lock = channel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            lock = null;
+        }
+        if (lock == null) {
+            this.file.close();
+            throw new IllegalStateException(file + " is in use by another PeriodIndex");
+        }
+        this.lock = lock;
+
+        try {
+            boolean created = channel.size() == 0;
+            map(Math.max(channel.size(), HEADER_SIZE + (long) INITIAL_RECORDS * RECORD_SIZE));
+            if (created) {
+                buffer.putInt(0, MAGIC);
+                buffer.putInt(4, FORMAT_VERSION);
+                buffer.putInt(8, 0);
+                buffer.force();
+            } else if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != FORMAT_VERSION) {
+                throw new IOException(file + " is not a period index");
+            }
+            recordCount = buffer.getInt(8);
+            for (int i = 0; i < recordCount; i++) {
+                int offset = HEADER_SIZE + i * RECORD_SIZE;
+                add(new Period(buffer.getLong(offset + KEY), offset, buffer.getInt(offset + COUNT),
+                        buffer.getLong(offset + MAX), buffer.getLong(offset + SPLIT_AT)));
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the level of the period an id belongs to.
+     *
+     * @param timestamp the timestamp of the id's UUID, in 100-ns intervals
+     * since the UUID epoch
+     * @param millis the timestamp in milliseconds since the Unix epoch
+     * @return {@link #DAY}, {@link #HOUR} or {@link #MINUTE}
+     */
+    int level(long timestamp, long millis) {
+        for (int level = DAY; level < MINUTE; level++) {
+            Period period = table.get(key(millis, level));
+            if (period == null || timestamp < period.splitAt) {
+                return level;
+            }
+        }
+        return MINUTE;
+    }
+
+    /**
+     * Counts a stored id if its timestamp is greater than any counted before
+     * in its period, i.e. if it is most likely a new id, and splits the period
+     * if it becomes too large.
+     *
+     * @param timestamp the timestamp of the id's UUID, in 100-ns intervals
+     * since the UUID epoch
+     * @param millis the timestamp in milliseconds since the Unix epoch
+     * @throws IllegalStateException if the index cannot be written
+     */
+    void record(long timestamp, long millis) throws IllegalStateException {
+        for (int level = DAY; level < MINUTE; level++) {
+            long key = key(millis, level);
+            Period period = table.get(key);
+            if (period == null || timestamp < period.splitAt) {
+                if ((period == null || timestamp > period.max)
+                        && !count(key, level, timestamp)) {
+                    // split concurrently
+                    continue;
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return the number of ids counted in the period of the given level that
+     * contains millis
+     */
+    int count(long millis, int level) {
+        Period period = table.get(key(millis, level));
+        return period == null ? 0 : period.count;
+    }
+
+    private static long key(long millis, int level) {
+        return floorDiv(millis, UNIT_MILLIS[level]) * 4 + level;
+    }
+
+    /**
+     * Counts an id, and splits its period if it becomes too large.
+     *
+     * @return false if the period was split before the id was counted, i.e.
+     * the id belongs to a finer period
+     */
+    private synchronized boolean count(long key, int level, long timestamp) {
+        Period period = table.get(key);
+        if (period == null) {
+            period = append(key);
+        }
+        if (timestamp >= period.splitAt) {
+            return false;
+        }
+        if (timestamp > period.max) {
+            period.max = timestamp;
+            period.count++;
+            buffer.putLong(period.offset + MAX, period.max);
+            buffer.putInt(period.offset + COUNT, period.count);
+            if (period.count >= maxEntries && level < MINUTE && period.splitAt == Long.MAX_VALUE) {
+                long now = System.currentTimeMillis() * 10000
+                        + UUIDDatePathIdMapper.NUM_100NS_INTERVALS_SINCE_UUID_EPOCH;
+                long splitAt = Math.max(period.max, now + MAX_CLOCK_SKEW) + 1;
+                buffer.putLong(period.offset + SPLIT_AT, splitAt);
+                // the split must be durable before any id is mapped below it
+                buffer.force();
+                period.splitAt = splitAt;
+            }
+        }
+        return true;
+    }
+
+    // guarded by this
+    private Period append(long key) {
+        int offset = HEADER_SIZE + recordCount * RECORD_SIZE;
+        if (offset + RECORD_SIZE > buffer.capacity()) {
+            try {
+                map(2L * buffer.capacity());
+            } catch (IOException e) {
+                throw new IllegalStateException("Unable to grow " + file, e);
+            }
+        }
+        buffer.putLong(offset + KEY, key);
+        buffer.putInt(offset + COUNT, 0);
+        buffer.putLong(offset + MAX, Long.MIN_VALUE);
+        buffer.putLong(offset + SPLIT_AT, Long.MAX_VALUE);
+        buffer.putInt(8, ++recordCount);
+        Period period = new Period(key, offset, 0, Long.MIN_VALUE, Long.MAX_VALUE);
+        add(period);
+        return period;
+    }
+
+    // guarded by this (or the constructor)
+    private void add(Period period) {
+        Table t = table;
+        if (2 * (t.size + 1) > t.periods.length) {
+            t = t.resize(2 * t.periods.length);
+        }
+        t.put(period);
+        table = t;
+    }
+
+    private void map(long size) throws IOException {
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            if (buffer != null) {
+                buffer.force();
+            }
+            if (lock != null && lock.isValid()) {
+                lock.release();
+            }
+        } finally {
+            file.close();
+        }
+    }
+
+    private static long floorDiv(long x, long y) {
+        long q = x / y;
+        if ((x % y != 0) && ((x ^ y) < 0)) {
+            q--;
+        }
+        return q;
+    }
+
+    /**
+     * The in-memory state of a period.
+     */
+    private static final class Period {
+        final long key;
+        final int offset;
+        // guarded by the PeriodIndex
+        int count;
+        volatile long max;
+        volatile long splitAt;
+
+        Period(long key, int offset, int count, long max, long splitAt) {
+            this.key = key;
+            this.offset = offset;
+            this.count = count;
+            this.max = max;
+            this.splitAt = splitAt;
+        }
+    }
+
+    /**
+     * An open-addressing hash table of periods by key. Readers don't lock;
+     * the writer republishes the volatile table reference after every put.
+     */
+    private static final class Table {
+        final Period[] periods;
+        int size;
+
+        Table(int capacity) {
+            periods = new Period[capacity];
+        }
+
+        Period get(long key) {
+            int mask = periods.length - 1;
+            for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+                Period period = periods[i];
+                if (period == null) {
+                    return null;
+                }
+                if (period.key == key) {
+                    return period;
+                }
+            }
+        }
+
+        void put(Period period) {
+            int mask = periods.length - 1;
+            int i = hash(period.key) & mask;
+            while (periods[i] != null) {
+                i = (i + 1) & mask;
+            }
+            periods[i] = period;
+            size++;
+        }
+
+        Table resize(int capacity) {
+            Table t = new Table(capacity);
+            for (Period period : periods) {
+                if (period != null) {
+                    t.put(period);
+                }
+            }
+            return t;
+        }
+
+        private static int hash(long key) {
+            long h = HashBuckets.mix(key);
+            return (int) (h ^ (h >>> 32));
+        }
+    }
+}
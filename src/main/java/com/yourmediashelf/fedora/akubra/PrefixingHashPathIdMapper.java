@@ -20,11 +20,6 @@ package com.yourmediashelf.fedora.akubra;
 
 import java.net.URI;
 
-import org.akubraproject.map.IdMapper;
-
-import com.twmacinta.util.MD5;
-
-
 /**
  * Implementation of org.fcrepo.server.storage.lowlevel.akubra.HashPathIdMapper 
  * that takes an {@link IdMapperPrefixer} as a constructor argument.
@@ -77,21 +72,55 @@ import com.twmacinta.util.MD5;
  *   <li> <code>urn:example1</code> becomes <code>file:08/86/urn%3Aexample1</code></li>
  *   <li> <code>http://tinyurl.com/cxzzf</code> becomes <code>file:62/ca/http%3A%2F%2Ftinyurl.com%2Fcxzzf</code></li>
  * </ul>
+ * <p>
+ * <h2>Hash Algorithms</h2>
+ * By default, the path is derived from the MD5 hash, as by Fedora's 
+ * HashPathIdMapper. New stores may use {@link PathHashAlgorithm#MURMUR3_128} 
+ * instead, which is faster, but yields different paths.
  *
  * @author Chris Wilper
  * @author Edwin Shin
  */
 public class PrefixingHashPathIdMapper
-        implements IdMapper {
+        implements BatchIdMapper, PathIdMapper {
 
     private static final String internalScheme = "file";
 
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
     private final String pattern;
     
     private final IdMapperPrefixer prefixer;
     
-    static {
-        MD5.initNativeLibrary(true); // don't attempt to use the native libs, ever.
+    private final PathHashAlgorithm algorithm;
+    
+    /**
+     * The pattern, followed by '/'. Each # is replaced by the next hash digit.
+     */
+    private final char[] template;
+    
+    /**
+     * Per-thread digest buffers.
+     */
+    private static final ThreadLocal<byte[]> DIGESTS = ThreadLocal.withInitial(() -> new byte[16]);
+
+    /**
+     * Creates an instance that will use the given pattern and hash algorithm.
+     *
+     * @param pattern the path pattern to use, possibly <code>null</code> or "".
+     * @param prefixer The {@link IdMapperPrefixer} to use, or <code>null</code>.
+     * @param algorithm The hash algorithm to use. If null, defaults to 
+     * {@link PathHashAlgorithm#MD5}.
+     * 
+     * @throws IllegalArgumentException if the pattern is invalid.
+     */
+    public PrefixingHashPathIdMapper(String pattern, IdMapperPrefixer prefixer, 
+            PathHashAlgorithm algorithm) {
+        this.pattern = validatePattern(pattern);
+        this.prefixer = prefixer;
+        this.algorithm = algorithm == null ? PathHashAlgorithm.MD5 : algorithm;
+        
+        template = (this.pattern + '/').toCharArray();
     }
 
     /**
@@ -103,8 +132,7 @@ public class PrefixingHashPathIdMapper
      * @throws IllegalArgumentException if the pattern is invalid.
      */
     public PrefixingHashPathIdMapper(String pattern, IdMapperPrefixer prefixer) {
-        this.pattern = validatePattern(pattern);
-        this.prefixer = prefixer;
+        this(pattern, prefixer, null);
     }
     
     /**
@@ -119,15 +147,10 @@ public class PrefixingHashPathIdMapper
     }
 
     public URI getExternalId(URI internalId) throws NullPointerException {
-        String fullPath = internalId.toString().substring(
-                internalScheme.length() + 1);
-        int i = fullPath.lastIndexOf('/');
-        String encodedURI;
-        if (i == -1)
-            encodedURI = fullPath;
-        else
-            encodedURI = fullPath.substring(i + 1);
-        return URI.create(IdMapperUtil.decode(encodedURI));
+        String fullPath = internalId.toString();
+        StringBuilder externalId = new StringBuilder(fullPath.length());
+        appendExternalId(fullPath, internalScheme.length() + 1, fullPath.length(), externalId);
+        return URI.create(externalId.toString());
     }
 
     public URI getInternalId(URI externalId) throws NullPointerException {
@@ -135,7 +158,26 @@ public class PrefixingHashPathIdMapper
             throw new NullPointerException();
         }
         String uri = externalId.toString();
-        return URI.create(internalScheme + ":" + getPath(uri) + IdMapperUtil.encode(uri));
+        StringBuilder internalId = new StringBuilder(internalScheme.length() + 1 
+                + template.length + uri.length() + 16);
+        internalId.append(internalScheme).append(':');
+        appendInternalPath(uri, internalId);
+        return URI.create(internalId.toString());
+    }
+
+    public void appendInternalPath(CharSequence externalId, StringBuilder path) 
+            throws NullPointerException {
+        appendPath(externalId, path);
+        IdMapperUtil.encode(externalId, path);
+    }
+
+    public void appendExternalId(CharSequence internalPath, int begin, int end, 
+            StringBuilder externalId) throws NullPointerException, IllegalArgumentException {
+        int i = end;
+        while (i > begin && internalPath.charAt(i - 1) != '/') {
+            i--;
+        }
+        IdMapperUtil.decode(internalPath, i, end, externalId);
     }
 
     public String getInternalPrefix(String externalPrefix)
@@ -143,46 +185,57 @@ public class PrefixingHashPathIdMapper
         if (externalPrefix == null) {
             throw new NullPointerException();
         }
-        // we can only do this if pattern is ""
         if (pattern.length() == 0) {
-            return internalScheme + ":" + IdMapperUtil.encode(externalPrefix);
-        } else {
-            return null;
+            // we can map the whole prefix if pattern is ""
+            String nsPrefix = "";
+            if (prefixer != null) {
+                nsPrefix = prefixer.getPrefix(externalPrefix);
+                if (nsPrefix.isEmpty()) {
+                    return null;
+                }
+                nsPrefix = nsPrefix + '/';
+            }
+            String encodedPrefix = IdMapperUtil.encodePrefix(externalPrefix);
+            if (encodedPrefix == null) {
+                return null;
+            }
+            return internalScheme + ":" + nsPrefix + encodedPrefix;
+        } else if (prefixer != null) {
+            // otherwise, only if the prefix corresponds to a prefixer directory
+            String nsPrefix = prefixer.getPrefixForIdentifierPrefix(externalPrefix);
+            if (nsPrefix != null && !nsPrefix.isEmpty()) {
+                return internalScheme + ":" + nsPrefix + '/';
+            }
         }
+        return null;
     }
 
-    // gets the path based on the hash of the uri, or "" if the pattern is empty
-    private String getPath(String uri) {
-        String nsPrefix = "";
+    // appends the path based on the hash of the uri, nothing if the pattern is empty
+    private void appendPath(CharSequence uri, StringBuilder path) {
         if (prefixer != null) {
-            nsPrefix = prefixer.getPrefix(uri);
+            String nsPrefix = prefixer.getPrefix(uri);
             if (!nsPrefix.isEmpty()) {
-                nsPrefix = nsPrefix + '/';
+                path.append(nsPrefix).append('/');
             }
         }
         
         if (pattern.length() == 0) {
-            return nsPrefix;
+            return;
         }
         
-        StringBuilder builder = new StringBuilder(nsPrefix);
-        String hash = getHash(uri);
-        int hashPos = 0;
-        for (int i = 0; i < pattern.length(); i++) {
-            char c = pattern.charAt(i);
+        // only the nibbles the pattern needs are converted to hex
+        byte[] digest = DIGESTS.get();
+        algorithm.digest(uri, digest);
+        for (int i = 0, j = 0; i < template.length; i++) {
+            char c = template[i];
             if (c == '#') {
-                builder.append(hash.charAt(hashPos++));
-            } else {
-                builder.append(c);
+                int b = digest[j >> 1];
+                int nibble = (j & 1) == 0 ? (b >> 4) & 0xf : b & 0xf;
+                c = HEX_DIGITS[nibble];
+                j++;
             }
+            path.append(c);
         }
-        builder.append('/');
-        return builder.toString();
-    }
-
-    // computes the md5 and returns a 32-char lowercase hex string
-    private static String getHash(String uri) {
-        return MD5.asHex(new MD5(uri).Final());
     }
 
     private static String validatePattern(String pattern) {
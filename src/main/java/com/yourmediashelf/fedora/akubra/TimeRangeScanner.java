@@ -0,0 +1,351 @@
+/**
+ * Copyright (C) 2012 MediaShelf <http://www.yourmediashelf.com/>
+ *
+ * This file is part of uuid-datepath-idmapper.
+ *
+ * uuid-datepath-idmapper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * uuid-datepath-idmapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with uuid-datepath-idmapper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.yourmediashelf.fedora.akubra;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * <p>Lists the external ids of a {@link UUIDDatePathIdMapper} store whose 
+ * UUID timestamps fall within a time window, by walking only the date 
+ * directories that cover the window, rather than the whole store.
+ *
+ * <p>{@link #stream(long, long)} lists the directories in parallel, in no
+ * particular order. {@link #scan(long, long, String, int)} returns the ids in
+ * chronological order (by the 100-ns timestamps of their UUIDs), a page at a
+ * time, with a continuation token from which the next page, or a later scan 
+ * (e.g. of an incremental replication), resumes.
+ *
+ * <p>Note that ids are only listed in chronological order of their UUIDs, so
+ * an incremental replication must scan up to a time before which no more ids
+ * are created (e.g. a few minutes ago).
+ *
+ * <p>The date directories are enumerated per unit of the dateFormat (e.g. a 
+ * day for "yyyy/MM/dd"), for each namespace prefix, and are walked 
+ * recursively, so that bucket directories (see 
+ * {@link UUIDDateHashPathIdMapper}) and the finer directories of an
+ * {@link AdaptiveUUIDDatePathIdMapper} are included. Ids mapped by the 
+ * fallbackMapper are never listed.
+ *
+ * @author Edwin Shin
+ *
+ */
+public class TimeRangeScanner {
+
+    private static final Comparator<Entry> CHRONOLOGICAL = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry a, Entry b) {
+            int c = Long.compare(a.timestamp, b.timestamp);
+            return c != 0 ? c : a.externalId.compareTo(b.externalId);
+        }
+    };
+
+    private final UUIDDatePathIdMapper mapper;
+
+    private final Path root;
+
+    private final Collection<String> prefixes;
+
+    /**
+     * Creates a scanner that, if the mapper has an IdMapperPrefixer, scans 
+     * the date directories below the root and below every directory of the
+     * root.
+     *
+     * @param mapper the IdMapper of the store
+     * @param root the root directory of the store
+     */
+    public TimeRangeScanner(UUIDDatePathIdMapper mapper, Path root) {
+        this(mapper, root, null);
+    }
+
+    /**
+     *
+     * @param mapper the IdMapper of the store
+     * @param root the root directory of the store
+     * @param prefixes the prefixes (as returned by the mapper's 
+     * IdMapperPrefixer) whose date directories to scan, including "" for the
+     * ids without a prefix, or <code>null</code> for the root and all of its
+     * directories. Ignored if the mapper has no 
+     * IdMapperPrefixer.
+     */
+    public TimeRangeScanner(UUIDDatePathIdMapper mapper, Path root, Collection<String> prefixes) {
+        if (mapper == null || root == null) {
+            throw new NullPointerException();
+        }
+        this.mapper = mapper;
+        this.root = root;
+        this.prefixes = prefixes == null ? null : new ArrayList<String>(prefixes);
+    }
+
+    /**
+     * Returns the ids whose UUID timestamps fall within the window, listing 
+     * the directories in parallel.
+     *
+     * @param fromMillis the beginning of the window (inclusive), in 
+     * milliseconds since the Unix epoch
+     * @param toMillis the end of the window (exclusive)
+     * @return the external ids, in no particular order
+     * @throws UncheckedIOException if a directory cannot be listed
+     */
+    public Stream<URI> stream(final long fromMillis, final long toMillis) throws UncheckedIOException {
+        Collection<String> prefixes = getPrefixes();
+        List<Path> directories = new ArrayList<Path>();
+        for (String datePath : getDatePaths(fromMillis, toMillis)) {
+            directories.addAll(getDirectories(datePath, prefixes));
+        }
+        return directories.parallelStream()
+                .flatMap(dir -> list(dir, fromMillis, toMillis, Long.MIN_VALUE, null).stream())
+                .map(entry -> URI.create(entry.externalId));
+    }
+
+    /**
+     * Returns the next page of the ids whose UUID timestamps fall within the
+     * window, in chronological order.
+     *
+     * <p>A page lists the directories of the period (e.g. the day) of its 
+     * token, and of the following periods until it is full, so paging 
+     * through a period lists it once per page: a page costs a directory read
+     * per id of its period, but only the ids after the token are mapped and
+     * sorted. Choose a limit that is a good fraction of the ids per period.
+     *
+     * @param fromMillis the beginning of the window (inclusive), in 
+     * milliseconds since the Unix epoch
+     * @param toMillis the end of the window (exclusive)
+     * @param continuationToken the token of the previous page, or 
+     * <code>null</code> to start at the beginning of the window
+     * @param limit the maximum number of ids to return
+     * @return the page
+     * @throws IllegalArgumentException if the token is invalid, or limit is 
+     * not positive
+     * @throws UncheckedIOException if a directory cannot be listed
+     */
+    public Page scan(long fromMillis, long toMillis, String continuationToken, int limit)
+            throws IllegalArgumentException, UncheckedIOException {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("limit must be positive: " + limit);
+        }
+        long afterTimestamp = Long.MIN_VALUE;
+        String afterId = null;
+        if (continuationToken != null) {
+            int i = continuationToken.indexOf('/');
+            try {
+                afterTimestamp = Long.parseLong(continuationToken.substring(0, i), 16);
+                afterId = IdMapperUtil.decode(continuationToken.substring(i + 1));
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("Invalid continuation token: " + continuationToken);
+            }
+            fromMillis = Math.max(fromMillis, UUIDDatePathIdMapper.getMillis(afterTimestamp));
+        }
+
+        List<URI> ids = new ArrayList<URI>();
+        Entry last = null;
+        Collection<String> prefixes = getPrefixes();
+        for (String datePath : getDatePaths(fromMillis, toMillis)) {
+            final long from = fromMillis, after = afterTimestamp;
+            final String afterExternalId = afterId;
+            List<Entry> entries = getDirectories(datePath, prefixes).parallelStream()
+                    .flatMap(dir -> list(dir, from, toMillis, after, afterExternalId).stream())
+                    .sorted(CHRONOLOGICAL)
+                    .collect(Collectors.toList());
+            for (Entry entry : entries) {
+                if (ids.size() == limit) {
+                    return new Page(ids, token(last), false);
+                }
+                ids.add(URI.create(entry.externalId));
+                last = entry;
+            }
+        }
+        return new Page(ids, last == null ? continuationToken : token(last), true);
+    }
+
+    private static String token(Entry entry) {
+        return Long.toHexString(entry.timestamp) + '/' + IdMapperUtil.encode(entry.externalId);
+    }
+
+    /**
+     * @return the paths of the date directories that cover the window, one 
+     * per period of the dateFormat, in chronological order
+     */
+    private List<String> getDatePaths(long fromMillis, long toMillis) {
+        List<String> datePaths = new ArrayList<String>();
+        if (fromMillis >= toMillis) {
+            return datePaths;
+        }
+        long unit = mapper.getDateFormatUnitMillis();
+        String previous = null;
+        for (long millis = Math.floorDiv(fromMillis, unit) * unit; millis < toMillis; millis += unit) {
+            // coarser patterns (e.g. "yyyy/MM") render the same path for many units
+            String datePath = mapper.getDateFormatPath(millis);
+            if (!datePath.equals(previous)) {
+                datePaths.add(datePath);
+                previous = datePath;
+            }
+        }
+        return datePaths;
+    }
+
+    /**
+     * @return the existing directories of the date path, one per prefix
+     */
+    private List<Path> getDirectories(String datePath, Collection<String> prefixes) {
+        List<Path> directories = new ArrayList<Path>(prefixes.size());
+        for (String prefix : prefixes) {
+            Path dir = root.resolve(prefix.isEmpty() ? datePath : prefix + '/' + datePath);
+            if (Files.isDirectory(dir)) {
+                directories.add(dir);
+            }
+        }
+        return directories;
+    }
+
+    private Collection<String> getPrefixes() throws UncheckedIOException {
+        if (mapper.getPrefixer() == null) {
+            return Collections.singletonList("");
+        }
+        if (prefixes != null) {
+            return prefixes;
+        }
+        // ids without a namespace prefix (e.g. urn:uuid: ids) are below the root
+        List<String> dirs = new ArrayList<String>();
+        dirs.add("");
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(root)) {
+            for (Path entry : entries) {
+                if (Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS)) {
+                    dirs.add(entry.getFileName().toString());
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return dirs;
+    }
+
+    /**
+     * Lists the ids below a directory whose timestamps fall within the 
+     * window, and that follow the entry (afterTimestamp, afterId).
+     */
+    private List<Entry> list(Path dir, long fromMillis, long toMillis, long afterTimestamp, String afterId)
+            throws UncheckedIOException {
+        List<Entry> entries = new ArrayList<Entry>();
+        try {
+            list(dir, fromMillis, toMillis, afterTimestamp, afterId, entries);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return entries;
+    }
+
+    private void list(Path dir, long fromMillis, long toMillis, long afterTimestamp, String afterId,
+            List<Entry> entries) throws IOException {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path path : stream) {
+                // the external id of a file mapped by its UUID is its decoded
+                // name, so entries outside the window or before the token are
+                // skipped without a stat
+                String externalId;
+                try {
+                    externalId = IdMapperUtil.decode(path.getFileName().toString());
+                } catch (IllegalArgumentException e) {
+                    // not a file of the mapper, e.g. a temporary file
+                    continue;
+                }
+                long timestamp = mapper.getTimestamp(externalId);
+                if (timestamp == TimestampExtractor.NO_TIMESTAMP) {
+                    // a bucket or finer date directory, or a file of the fallbackMapper
+                    if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                        list(path, fromMillis, toMillis, afterTimestamp, afterId, entries);
+                    }
+                    continue;
+                }
+                long millis = UUIDDatePathIdMapper.getMillis(timestamp);
+                if (millis < fromMillis || millis >= toMillis) {
+                    continue;
+                }
+                if (timestamp < afterTimestamp 
+                        || (timestamp == afterTimestamp && externalId.compareTo(afterId) <= 0)) {
+                    continue;
+                }
+                if (Files.isRegularFile(path, LinkOption.NOFOLLOW_LINKS)) {
+                    entries.add(new Entry(timestamp, externalId));
+                }
+            }
+        }
+    }
+
+    /**
+     * A page of the ids of a scan.
+     */
+    public static final class Page {
+        private final List<URI> ids;
+        private final String continuationToken;
+        private final boolean complete;
+
+        Page(List<URI> ids, String continuationToken, boolean complete) {
+            this.ids = Collections.unmodifiableList(ids);
+            this.continuationToken = continuationToken;
+            this.complete = complete;
+        }
+
+        /**
+         * @return the external ids, in chronological order
+         */
+        public List<URI> getIds() {
+            return ids;
+        }
+
+        /**
+         * @return the token of the last id of this page (or of the previous
+         * page, if this one is empty), to pass to the next scan. A scan of a 
+         * later window may start from the token of the last page of the 
+         * previous window, e.g. to replicate ids created since.
+         */
+        public String getContinuationToken() {
+            return continuationToken;
+        }
+
+        /**
+         * @return true if this is the last page of the window
+         */
+        public boolean isComplete() {
+            return complete;
+        }
+    }
+
+    private static final class Entry {
+        final long timestamp;
+        final String externalId;
+
+        Entry(long timestamp, String externalId) {
+            this.timestamp = timestamp;
+            this.externalId = externalId;
+        }
+    }
+}
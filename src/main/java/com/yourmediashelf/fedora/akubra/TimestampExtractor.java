@@ -0,0 +1,87 @@
+/**
+ * Copyright (C) 2012 MediaShelf <http://www.yourmediashelf.com/>
+ *
+ * This file is part of uuid-datepath-idmapper.
+ *
+ * uuid-datepath-idmapper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * uuid-datepath-idmapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with uuid-datepath-idmapper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.yourmediashelf.fedora.akubra;
+
+/**
+ * Extracts the time embedded in a UUID, which {@link UUIDDatePathIdMapper} 
+ * maps ids to date paths by. See {@link UUIDTimestampExtractor} for the
+ * extractors of the time-based UUID versions.
+ *
+ * <p>Implementations must be thread-safe, and should not allocate, as they 
+ * are called for every id mapped.
+ *
+ * @author Edwin Shin
+ *
+ */
+public interface TimestampExtractor {
+
+    /**
+     * The value returned by {@link #getTimestamp(long)} for UUIDs that do 
+     * not embed a time.
+     */
+    long NO_TIMESTAMP = Long.MIN_VALUE;
+
+    /**
+     * Returns the time of the UUID with the supplied most significant bits as
+     * a version 1 UUID timestamp, i.e. the number of 100-ns intervals since
+     * the UUID epoch 1582-10-15 00:00:00 UTC.
+     *
+     * @param msb the most significant bits of a UUID
+     * @return the timestamp, or {@link #NO_TIMESTAMP} if the UUID does not 
+     * embed a time (e.g. it is of another version)
+     */
+    long getTimestamp(long msb);
+
+    /**
+     * Returns an extractor that tries the supplied extractors in order, e.g.
+     * <code>TimestampExtractor.anyOf(UUIDTimestampExtractor.values())</code>
+     * to date all time-based UUIDs.
+     *
+     * @param extractors the extractors
+     * @return the composite extractor
+     * @throws IllegalArgumentException if no extractor is supplied
+     * @throws NullPointerException if any extractor is null
+     */
+    static TimestampExtractor anyOf(TimestampExtractor... extractors) {
+        if (extractors.length == 0) {
+            throw new IllegalArgumentException("No TimestampExtractor supplied");
+        }
+        final TimestampExtractor[] copy = extractors.clone();
+        for (TimestampExtractor extractor : copy) {
+            if (extractor == null) {
+                throw new NullPointerException();
+            }
+        }
+        if (copy.length == 1) {
+            return copy[0];
+        }
+        return new TimestampExtractor() {
+            @Override
+            public long getTimestamp(long msb) {
+                for (TimestampExtractor extractor : copy) {
+                    long timestamp = extractor.getTimestamp(msb);
+                    if (timestamp != NO_TIMESTAMP) {
+                        return timestamp;
+                    }
+                }
+                return NO_TIMESTAMP;
+            }
+        };
+    }
+}
@@ -20,8 +20,6 @@ package com.yourmediashelf.fedora.akubra;
 
 import java.net.URI;
 
-import org.akubraproject.map.IdMapper;
-
 /**
  * A trivial implementation of the Akubra IdMapper interface.
  * 
@@ -30,7 +28,7 @@ import org.akubraproject.map.IdMapper;
  * @author Edwin Shin
  *
  */
-public class TrivialIdMapper implements IdMapper {
+public class TrivialIdMapper implements BatchIdMapper, PathIdMapper {
 	
 	private static final String internalScheme = "file";
 
@@ -38,15 +36,10 @@ public class TrivialIdMapper implements IdMapper {
 	 * @see org.akubraproject.map.IdMapper#getExternalId(java.net.URI)
 	 */
 	public URI getExternalId(URI internalId) throws NullPointerException {
-		String fullPath = internalId.toString().substring(
-                internalScheme.length() + 1);
-        int i = fullPath.lastIndexOf('/');
-        String encodedURI;
-        if (i == -1)
-            encodedURI = fullPath;
-        else
-            encodedURI = fullPath.substring(i + 1);
-        return URI.create(IdMapperUtil.decode(encodedURI));
+		String fullPath = internalId.toString();
+		StringBuilder externalId = new StringBuilder(fullPath.length());
+		appendExternalId(fullPath, internalScheme.length() + 1, fullPath.length(), externalId);
+		return URI.create(externalId.toString());
 	}
 
 	/* (non-Javadoc)
@@ -57,18 +50,49 @@ public class TrivialIdMapper implements IdMapper {
             throw new NullPointerException();
         }
         String uri = externalId.toString();
-        
-        return URI.create(internalScheme + ":" + IdMapperUtil.encode(uri));
+        StringBuilder internalId = new StringBuilder(internalScheme.length() + 1 + uri.length());
+        internalId.append(internalScheme).append(':');
+        appendInternalPath(uri, internalId);
+        return URI.create(internalId.toString());
+	}
+	
+	/**
+	 * Appends the encoded externalId.
+	 * 
+	 * @see com.yourmediashelf.fedora.akubra.PathIdMapper#appendInternalPath(java.lang.CharSequence, java.lang.StringBuilder)
+	 */
+	public void appendInternalPath(CharSequence externalId, StringBuilder path) throws NullPointerException {
+		IdMapperUtil.encode(externalId, path);
+	}
+	
+	/**
+	 * Appends the decoded last segment of the path.
+	 * 
+	 * @see com.yourmediashelf.fedora.akubra.PathIdMapper#appendExternalId(java.lang.CharSequence, int, int, java.lang.StringBuilder)
+	 */
+	public void appendExternalId(CharSequence internalPath, int begin, int end, StringBuilder externalId) 
+			throws NullPointerException, IllegalArgumentException {
+		int i = end;
+		while (i > begin && internalPath.charAt(i - 1) != '/') {
+			i--;
+		}
+		IdMapperUtil.decode(internalPath, i, end, externalId);
 	}
 
-	/* (non-Javadoc)
+	/**
+	 * Returns the encoded externalPrefix, or null if it ends with a period.
+	 * 
 	 * @see org.akubraproject.map.IdMapper#getInternalPrefix(java.lang.String)
+	 * @see IdMapperUtil#encodePrefix(String)
 	 */
 	public String getInternalPrefix(String externalPrefix) throws NullPointerException {
 		if (externalPrefix == null) {
             throw new NullPointerException();
         }
-		// TODO
-		return null;
+		String encodedPrefix = IdMapperUtil.encodePrefix(externalPrefix);
+		if (encodedPrefix == null) {
+			return null;
+		}
+		return internalScheme + ":" + encodedPrefix;
 	}
 }
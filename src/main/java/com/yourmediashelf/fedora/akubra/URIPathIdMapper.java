@@ -0,0 +1,66 @@
+/**
+ * Copyright (C) 2012 MediaShelf <http://www.yourmediashelf.com/>
+ *
+ * This file is part of uuid-datepath-idmapper.
+ *
+ * uuid-datepath-idmapper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * uuid-datepath-idmapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with uuid-datepath-idmapper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.yourmediashelf.fedora.akubra;
+
+import java.net.URI;
+
+import org.akubraproject.map.IdMapper;
+
+/**
+ * Adapts an IdMapper that only maps URIs to {@link PathIdMapper}.
+ *
+ * @author Edwin Shin
+ *
+ */
+final class URIPathIdMapper implements PathIdMapper {
+
+    private static final String internalScheme = "file";
+
+    private final IdMapper idMapper;
+
+    URIPathIdMapper(IdMapper idMapper) {
+        if (idMapper == null) {
+            throw new NullPointerException();
+        }
+        this.idMapper = idMapper;
+    }
+
+    public URI getExternalId(URI internalId) throws NullPointerException {
+        return idMapper.getExternalId(internalId);
+    }
+
+    public URI getInternalId(URI externalId) throws NullPointerException {
+        return idMapper.getInternalId(externalId);
+    }
+
+    public String getInternalPrefix(String externalPrefix) throws NullPointerException {
+        return idMapper.getInternalPrefix(externalPrefix);
+    }
+
+    public void appendInternalPath(CharSequence externalId, StringBuilder path) {
+        String internalId = idMapper.getInternalId(URI.create(externalId.toString())).toString();
+        path.append(internalId, internalId.indexOf(':') + 1, internalId.length());
+    }
+
+    public void appendExternalId(CharSequence internalPath, int begin, int end, StringBuilder externalId) {
+        StringBuilder internalId = new StringBuilder(internalScheme.length() + 1 + end - begin);
+        internalId.append(internalScheme).append(':').append(internalPath, begin, end);
+        externalId.append(idMapper.getExternalId(URI.create(internalId.toString())).toString());
+    }
+}
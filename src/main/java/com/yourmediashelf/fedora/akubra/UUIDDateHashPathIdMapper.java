@@ -0,0 +1,119 @@
+/**
+ * Copyright (C) 2012 MediaShelf <http://www.yourmediashelf.com/>
+ *
+ * This file is part of uuid-datepath-idmapper.
+ *
+ * uuid-datepath-idmapper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * uuid-datepath-idmapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with uuid-datepath-idmapper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.yourmediashelf.fedora.akubra;
+
+import org.akubraproject.map.IdMapper;
+import org.joda.time.format.DateTimeFormat;
+
+/**
+ * <p>A {@link UUIDDatePathIdMapper} that adds hash-derived bucket directories
+ * below each date directory, so that the objects ingested on a busy day are
+ * spread over many directories, e.g. with date format "yyyy/MM/dd" and bucket
+ * pattern "##", <code>info:fedora/test:25f814ce-f5ac-11e0-b139-2837370107a5</code>
+ * becomes <code>file:2011/10/13/81/info%3Afedora%2Ftest%3A25f814ce-f5ac-11e0-b139-2837370107a5</code>.
+ *
+ * <p>Within the bucket pattern, each # character is replaced by a hexadecimal
+ * digit of a hash of the time_low, time_mid and time_hi_and_version fields of
+ * the UUID. Therefore all ids that contain the same UUID (e.g. the datastreams
+ * of an object) share a bucket.
+ *
+ * <p>Bucket patterns:
+ * <ul>
+ *   <li> must consist only of # and / characters.</li>
+ *   <li> must contain between 1 and 16 # characters.</li>
+ *   <li> must not begin or end with the / character.</li>
+ *   <li> must not contain consecutive / characters.</li>
+ * </ul>
+ *
+ * @author Edwin Shin
+ *
+ */
+public class UUIDDateHashPathIdMapper extends UUIDDatePathIdMapper {
+
+    /**
+     * <p>Convenience constructor that uses the default dateFormat,
+     * fallbackMapper and no IdMapperPrefixer.
+     *
+     * <p>Note: the default fallbackMapper ({@link TrivialIdMapper}) is probably not
+     * what you should be using.
+     *
+     * @param bucketPattern A pattern of # and / characters for the bucket
+     * directories, e.g. "##".
+     * @throws IllegalArgumentException if the bucket pattern is invalid
+     */
+    public UUIDDateHashPathIdMapper(String bucketPattern) {
+        this(null, bucketPattern, null, null);
+    }
+
+    /**
+     * <p>Convenience constructor that uses the default dateFormat.
+     *
+     * @param bucketPattern A pattern of # and / characters for the bucket
+     * directories, e.g. "##".
+     * @param fallbackMapper The {@link IdMapper} to use if/when we encounter an
+     * id that is not a version 1 UUID. If null, defaults to TrivialIdMapper.
+     * @param prefixer The IdMapperPrefixer to use, or <code>null</code>.
+     * @throws IllegalArgumentException if the bucket pattern is invalid
+     */
+    public UUIDDateHashPathIdMapper(String bucketPattern, IdMapper fallbackMapper,
+            IdMapperPrefixer prefixer) {
+        this(null, bucketPattern, fallbackMapper, prefixer);
+    }
+
+    /**
+     *
+     * @param dateFormat A {@link DateTimeFormat} pattern to generate the path.
+     * If null or empty, defaults to "yyyy/MM/dd".
+     * @param bucketPattern A pattern of # and / characters for the bucket
+     * directories, e.g. "##".
+     * @param fallbackMapper The {@link IdMapper} to use if/when we encounter an
+     * id that is not a version 1 UUID. If null, defaults to TrivialIdMapper.
+     * @param prefixer The IdMapperPrefixer to use, or <code>null</code>.
+     * @throws IllegalArgumentException if the bucket pattern is invalid
+     */
+    public UUIDDateHashPathIdMapper(String dateFormat, String bucketPattern,
+            IdMapper fallbackMapper, IdMapperPrefixer prefixer) {
+        this(dateFormat, bucketPattern, fallbackMapper, prefixer, null);
+    }
+
+    /**
+     *
+     * @param dateFormat A {@link DateTimeFormat} pattern to generate the path.
+     * If null or empty, defaults to "yyyy/MM/dd".
+     * @param bucketPattern A pattern of # and / characters for the bucket
+     * directories, e.g. "##".
+     * @param fallbackMapper The {@link IdMapper} to use if/when we encounter an
+     * id whose time cannot be extracted. If null, defaults to TrivialIdMapper.
+     * @param prefixer The IdMapperPrefixer to use, or <code>null</code>.
+     * @param timestampExtractor The TimestampExtractor of the UUIDs. If null,
+     * defaults to {@link UUIDTimestampExtractor#V1}.
+     * @throws IllegalArgumentException if the bucket pattern is invalid
+     */
+    public UUIDDateHashPathIdMapper(String dateFormat, String bucketPattern,
+            IdMapper fallbackMapper, IdMapperPrefixer prefixer, TimestampExtractor timestampExtractor) {
+        super(dateFormat, validate(bucketPattern), fallbackMapper, prefixer, timestampExtractor);
+    }
+
+    private static String validate(String bucketPattern) {
+        if (bucketPattern == null) {
+            throw new IllegalArgumentException("Bucket pattern must not be null");
+        }
+        return bucketPattern;
+    }
+}
@@ -20,41 +20,51 @@ package com.yourmediashelf.fedora.akubra;
 
 import java.net.URI;
 import java.util.UUID;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import org.akubraproject.map.IdMapper;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
 import org.joda.time.format.DateTimeFormat;
-import org.joda.time.format.DateTimeFormatter;
-
-import com.fasterxml.uuid.UUIDType;
-import com.fasterxml.uuid.impl.UUIDUtil;
 
 /**
  * <p>An Akubra IdMapper that maps version 1 UUIDs (i.e., time-based UUIDs) to 
  * datetime-based paths.
  * 
+ * <p>Other time-based UUIDs, e.g. version 6 and 7, can be mapped by their time
+ * as well by supplying a {@link TimestampExtractor}.
+ * 
  * <p>This IdMapper should be configured to use a fallbackMapper, to handle ids 
- * which are not version 1 UUIDs.
+ * which are not version 1 UUIDs (or whose time the TimestampExtractor cannot
+ * extract).
  * 
  * @author Edwin Shin
  *
  */
-public class UUIDDatePathIdMapper implements IdMapper {
+public class UUIDDatePathIdMapper implements BatchIdMapper, PathIdMapper {
 
 	private static final String internalScheme = "file";
-	private IdMapper fallbackMapper;
-	private Pattern pattern;
-	private DateTimeFormatter fmt;
+	private final IdMapper fallbackMapper;
+	private final PathIdMapper fallbackPaths;
+	private final DatePathRenderer renderer;
 	private final IdMapperPrefixer prefixer;
+	private final HashBuckets buckets;
+	private final TimestampExtractor timestampExtractor;
+	private volatile IdMapperMetrics metrics;
+	private volatile DirectoryBitmap directoryBitmap;
+	private volatile FallbackJournal fallbackJournal;
+	
+	private static final long MILLIS_PER_DAY = 86400000L;
+	
+	/**
+	 * Breaks down fallbacks by Fedora namespace if there is no prefixer.
+	 */
+	private static final IdMapperPrefixer namespacePrefixer = new FedoraNamespacePrefixer();
 	
 	/**
 	 * The number of 100-ns intervals between the UUID epoch 1582-10-15 00:00:00 
 	 * and the Unix epoch 1970-01-01 00:00:00.
 	 */
-	private final static long NUM_100NS_INTERVALS_SINCE_UUID_EPOCH = 0x01b21dd213814000L;
+	final static long NUM_100NS_INTERVALS_SINCE_UUID_EPOCH = 0x01b21dd213814000L;
 	
 	/**
 	 * <p>Convenience constructor that uses the default dateFormat, 
@@ -131,24 +141,61 @@ public class UUIDDatePathIdMapper implements IdMapper {
 	 * @see <a href="http://joda-time.sourceforge.net/apidocs/org/joda/time/format/DateTimeFormat.html#forPattern%28java.lang.String%29>Joda-Time DateTimeFormat</a>
 	 */
 	public UUIDDatePathIdMapper(String dateFormat, IdMapper fallbackMapper, IdMapperPrefixer prefixer) {
-        // minor performance optimization since we only support UTC
-        System.setProperty("org.joda.time.DateTimeZone.Provider", "org.joda.time.tz.UTCProvider");
-
-        // regex Pattern for canonical UUIDs (32 hexadecimal digits, separated in 5 groups by hyphens)
-        pattern = Pattern.compile(".*([0-9a-fA-F]{8}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{12}).*");
-
+		this(dateFormat, null, fallbackMapper, prefixer, null);
+	}
+	
+	/**
+	 * <p>Note: the TimestampExtractor determines the paths of existing 
+	 * objects, so changing it requires a migration of the store, unless it 
+	 * only adds UUID versions that the store does not contain yet.
+	 *
+	 * @param dateFormat A {@link DateTimeFormat} pattern to generate the path.
+	 * If null or empty, defaults to "yyyy/MM/dd".
+	 * @param fallbackMapper The {@link IdMapper} to use if/when we encounter an
+	 * id whose time cannot be extracted. If null, defaults to TrivialIdMapper.
+	 * @param prefixer The IdMapperPrefixer to use, or <code>null</code>.
+	 * @param timestampExtractor The TimestampExtractor of the UUIDs, e.g. 
+	 * <code>TimestampExtractor.anyOf(UUIDTimestampExtractor.values())</code>.
+	 * If null, defaults to {@link UUIDTimestampExtractor#V1}.
+	 */
+	public UUIDDatePathIdMapper(String dateFormat, IdMapper fallbackMapper, IdMapperPrefixer prefixer, 
+			TimestampExtractor timestampExtractor) {
+		this(dateFormat, null, fallbackMapper, prefixer, timestampExtractor);
+	}
+	
+	/**
+	 * Constructor for subclasses that add hash-derived bucket directories 
+	 * below the date path.
+	 * 
+	 * @param dateFormat A {@link DateTimeFormat} pattern to generate the path.
+     * If null or empty, defaults to "yyyy/MM/dd".
+	 * @param bucketPattern A pattern of # and / characters for the bucket 
+	 * directories, or <code>null</code> for none.
+	 * @param fallbackMapper The {@link IdMapper} to use if/when we encounter an
+     * id that is not a version 1 UUID. If null, defaults to TrivialIdMapper.
+	 * @param prefixer The IdMapperPrefixer to use, or <code>null</code>.
+	 * @param timestampExtractor The TimestampExtractor of the UUIDs. If null, 
+	 * defaults to {@link UUIDTimestampExtractor#V1}.
+	 * 
+	 * @see UUIDDateHashPathIdMapper
+	 */
+	protected UUIDDatePathIdMapper(String dateFormat, String bucketPattern, IdMapper fallbackMapper, 
+			IdMapperPrefixer prefixer, TimestampExtractor timestampExtractor) {
         if (dateFormat == null || dateFormat.isEmpty()) {
             dateFormat = "yyyy/MM/dd";
         }
-        fmt = DateTimeFormat.forPattern(dateFormat);
+        renderer = new DatePathRenderer(dateFormat);
 
         if (fallbackMapper == null) {
             this.fallbackMapper = new TrivialIdMapper();
         } else {
             this.fallbackMapper = fallbackMapper;
         }
+        fallbackPaths = PathIdMapper.adapt(this.fallbackMapper);
 
         this.prefixer = prefixer;
+        this.buckets = bucketPattern == null ? null : new HashBuckets(bucketPattern);
+        this.timestampExtractor = timestampExtractor == null ? UUIDTimestampExtractor.V1 : timestampExtractor;
     }
 
 	/* (non-Javadoc)
@@ -156,23 +203,16 @@ public class UUIDDatePathIdMapper implements IdMapper {
 	 */
 	public URI getExternalId(URI internalId) throws NullPointerException {
 		String uri = internalId.toString();
-
-		try {
-			extractUUID(uri);
-		} catch (IllegalArgumentException e) {
+		int schemeLength = internalScheme.length();
+		if (uri.length() <= schemeLength || uri.charAt(schemeLength) != ':'
+				|| !uri.startsWith(internalScheme)) {
 			return fallbackMapper.getExternalId(internalId);
 		}
-		
-		
-		String fullPath = internalId.toString().substring(
-                internalScheme.length() + 1);
-        int i = fullPath.lastIndexOf('/'); // e.g. everything after "info:fedora/"
-        String encodedURI;
-        if (i == -1)
-            encodedURI = fullPath;
-        else
-            encodedURI = fullPath.substring(i + 1);
-        return URI.create(IdMapperUtil.decode(encodedURI));
+		StringBuilder externalId = new StringBuilder(uri.length());
+		if (!appendUUIDExternalId(uri, schemeLength + 1, uri.length(), externalId)) {
+			return fallbackMapper.getExternalId(internalId);
+		}
+		return URI.create(externalId.toString());
 	}
 
 	/*
@@ -184,53 +224,337 @@ public class UUIDDatePathIdMapper implements IdMapper {
             throw new NullPointerException();
         }
         String uri = externalId.toString();
-        
-        // if not version 1 UUID, use fallback id mapper
-        try {
-        	return URI.create(internalScheme + ":" + getPath(uri) + IdMapperUtil.encode(uri));
-        } catch(IllegalArgumentException e) {
-        	return fallbackMapper.getInternalId(externalId);
+        StringBuilder internalId = new StringBuilder(internalScheme.length() + 32 + uri.length() * 5 / 4);
+        internalId.append(internalScheme).append(':');
+        if (!appendUUIDPath(uri, internalId)) {
+        	FallbackJournal journal = fallbackJournal;
+        	if (journal == null || !journal.appendInternalPath(uri, internalId)) {
+        		return fallbackMapper.getInternalId(externalId);
+        	}
+        }
+        return URI.create(internalId.toString());
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see com.yourmediashelf.fedora.akubra.PathIdMapper#appendInternalPath(java.lang.CharSequence, java.lang.StringBuilder)
+	 */
+	public void appendInternalPath(CharSequence externalId, StringBuilder path) throws NullPointerException {
+		if (!appendUUIDPath(externalId, path)) {
+			FallbackJournal journal = fallbackJournal;
+			if (journal == null || !journal.appendInternalPath(externalId, path)) {
+				fallbackPaths.appendInternalPath(externalId, path);
+			}
+		}
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see com.yourmediashelf.fedora.akubra.PathIdMapper#appendExternalId(java.lang.CharSequence, int, int, java.lang.StringBuilder)
+	 */
+	public void appendExternalId(CharSequence internalPath, int begin, int end, StringBuilder externalId)
+			throws NullPointerException, IllegalArgumentException {
+		int length = externalId.length();
+		if (!appendUUIDExternalId(internalPath, begin, end, externalId)) {
+			externalId.setLength(length);
+			fallbackPaths.appendExternalId(internalPath, begin, end, externalId);
+		}
+	}
+	
+	/**
+	 * Appends the path of an identifier that is mapped by its UUID, i.e. the
+	 * internal id without the scheme, or records the fallback if it is not.
+	 * 
+	 * @return false if the identifier must be mapped by the fallbackMapper
+	 */
+	private boolean appendUUIDPath(CharSequence uri, StringBuilder path) {
+        // classify the id without exceptions, as most ids of legacy 
+        // repositories use the fallback id mapper
+        int offset = UUIDLocator.lastIndexOf(uri);
+        long msb = offset == -1 ? 0 : UUIDLocator.mostSignificantBits(uri, offset);
+        long timestamp = offset == -1 ? TimestampExtractor.NO_TIMESTAMP : timestampExtractor.getTimestamp(msb);
+        if (timestamp == TimestampExtractor.NO_TIMESTAMP) {
+        	IdMapperMetrics metrics = this.metrics;
+        	if (metrics != null) {
+        		recordFallback(metrics, uri, offset == -1 ? -1 : UUIDLocator.version(msb));
+        	}
+        	return false;
         }
+        appendPath(uri, msb, timestamp, path);
+        IdMapperUtil.encode(uri, path);
+        return true;
+	}
+	
+	/**
+	 * Appends the external id of the internal path between begin and end, if
+	 * it is mapped by its UUID.
+	 * 
+	 * @return false if the path must be mapped by the fallbackMapper, in 
+	 * which case chars may have been appended to externalId
+	 */
+	private boolean appendUUIDExternalId(CharSequence path, int begin, int end, StringBuilder externalId) {
+		// paths are "[<ns>/]<date path>/[<bucket path>/]<encoded id>", so the 
+		// external id is the decoded last path segment
+		int filename = end;
+		while (filename > begin && path.charAt(filename - 1) != '/') {
+			filename--;
+		}
+		int length = externalId.length();
+		IdMapperUtil.decode(path, filename, end, externalId);
+		
+		// UUID chars are never escaped, but test the decoded id, as 
+		// getInternalId does
+		return UUIDLocator.lastIndexOf(externalId, length, externalId.length()) != -1;
+	}
+	
+	private void recordFallback(IdMapperMetrics metrics, CharSequence uri, int version) {
+		String prefix = (prefixer != null ? prefixer : namespacePrefixer).getPrefix(uri);
+		metrics.recordFallback(prefix, version);
+	}
+	
+	/**
+	 * Records the ids that getInternalId passes to the fallbackMapper, by 
+	 * namespace prefix (as given by the IdMapperPrefixer, or else the Fedora 
+	 * namespace) and by the reason, in the supplied metrics.
+	 * 
+	 * @param metrics the metrics, or <code>null</code> to stop recording
+	 */
+	public void setMetrics(IdMapperMetrics metrics) {
+		this.metrics = metrics;
 	}
 
-	/* (non-Javadoc)
+	/**
+	 * Sets the bitmap in which {@link #setDirectoryCreated(URI)} records the
+	 * directories created by the store, so that {@link #isDirectoryKnown(URI)}
+	 * can tell the store when it does not need to create them.
+	 * 
+	 * @param directoryBitmap the bitmap of this mapper's store, or 
+	 * <code>null</code> for none
+	 */
+	public void setDirectoryBitmap(DirectoryBitmap directoryBitmap) {
+		this.directoryBitmap = directoryBitmap;
+	}
+	
+	/**
+	 * Sets the journal in which {@link #setFallbackStored(URI, boolean)} 
+	 * records the ids mapped by the fallbackMapper that the store holds. The 
+	 * internal ids of journaled ids are taken from the journal. If the 
+	 * journal {@link FallbackJournal#isComplete() is complete}, the store 
+	 * can check whether a legacy id exists with 
+	 * {@link FallbackJournal#contains(CharSequence)}, rather than with the 
+	 * filesystem; a journal attached to an existing store only knows the ids 
+	 * added since, until it is 
+	 * {@link FallbackJournal#rebuild(UUIDDatePathIdMapper, java.nio.file.Path) rebuilt}.
+	 * 
+	 * @param fallbackJournal the journal of this mapper's store, or 
+	 * <code>null</code> for none
+	 */
+	public void setFallbackJournal(FallbackJournal fallbackJournal) {
+		this.fallbackJournal = fallbackJournal;
+	}
+	
+	/**
+	 * Records that the store added or deleted externalId, if it is mapped by 
+	 * the fallbackMapper and there is a {@link FallbackJournal}. The store 
+	 * records an id after writing or deleting its file. If the journal cannot
+	 * be written, it stops journaling rather than failing the store's write.
+	 * 
+	 * @param externalId the external id
+	 * @param stored true if the store added the id, false if it deleted it
+	 * @throws NullPointerException if externalId is null
+	 */
+	public void setFallbackStored(URI externalId, boolean stored) throws NullPointerException {
+		FallbackJournal journal = fallbackJournal;
+		if (journal == null) {
+			return;
+		}
+		String uri = externalId.toString();
+		if (getTimestamp(uri) != TimestampExtractor.NO_TIMESTAMP) {
+			return;
+		}
+		if (stored) {
+			StringBuilder path = new StringBuilder(uri.length() + 16);
+			fallbackPaths.appendInternalPath(uri, path);
+			journal.put(uri, path);
+		} else {
+			journal.remove(uri);
+		}
+	}
+	
+	/**
+	 * Returns true if the directory of the internal id of externalId was 
+	 * recorded as created with {@link #setDirectoryCreated(URI)}, i.e. the 
+	 * store can write the id without creating (or checking) its directory.
+	 * 
+	 * <p>Only the directories of ids mapped by their UUID with day (or coarser)
+	 * date formats and without bucket directories are recorded, i.e. this 
+	 * always returns false for other ids, or if there is no DirectoryBitmap.
+	 * 
+	 * @param externalId the external id
+	 * @return true if the directory is known to exist
+	 * @throws NullPointerException if externalId is null
+	 */
+	public boolean isDirectoryKnown(URI externalId) throws NullPointerException {
+		DirectoryBitmap bitmap = directoryBitmap;
+		if (bitmap == null) {
+			return false;
+		}
+		String uri = externalId.toString();
+		long day = getDay(uri);
+		return day != -1 && bitmap.contains(prefixer == null ? "" : prefixer.getPrefix(uri), day);
+	}
+	
+	/**
+	 * Records that the store created the directory of the internal id of 
+	 * externalId, if it can be recorded (see {@link #isDirectoryKnown(URI)}).
+	 * 
+	 * @param externalId the external id
+	 * @throws NullPointerException if externalId is null
+	 */
+	public void setDirectoryCreated(URI externalId) throws NullPointerException {
+		DirectoryBitmap bitmap = directoryBitmap;
+		if (bitmap == null) {
+			return;
+		}
+		String uri = externalId.toString();
+		long day = getDay(uri);
+		if (day != -1) {
+			bitmap.add(prefixer == null ? "" : prefixer.getPrefix(uri), day);
+		}
+	}
+	
+	/**
+	 * @return the day (since 1970-01-01) that determines the directory of the
+	 * identifier, or -1 if the directory is not determined by a day
+	 */
+	private long getDay(String uri) {
+		if (!hasDayDirectories()) {
+			return -1;
+		}
+		long timestamp = getTimestamp(uri);
+		if (timestamp == TimestampExtractor.NO_TIMESTAMP) {
+			return -1;
+		}
+		long millis = getMillis(timestamp);
+		return millis < 0 ? -1 : millis / MILLIS_PER_DAY;
+	}
+	
+	/**
+	 * @param uri an identifier
+	 * @return the timestamp of the identifier's UUID, or 
+	 * {@link TimestampExtractor#NO_TIMESTAMP} if it is not mapped by its UUID
+	 */
+	long getTimestamp(String uri) {
+		int offset = UUIDLocator.lastIndexOf(uri);
+		if (offset == -1) {
+			return TimestampExtractor.NO_TIMESTAMP;
+		}
+		return timestampExtractor.getTimestamp(UUIDLocator.mostSignificantBits(uri, offset));
+	}
+	
+	/**
+	 * @param millis milliseconds since the Unix epoch
+	 * @return the path of the date directory of the dateFormat (i.e. without
+	 * prefix or bucket directories) that contains millis
+	 */
+	String getDateFormatPath(long millis) {
+		return renderer.getPath(millis);
+	}
+	
+	/**
+	 * @return the length of the finest unit of the dateFormat in milliseconds,
+	 * at most a day
+	 */
+	long getDateFormatUnitMillis() {
+		return renderer.getUnitMillis();
+	}
+	
+	/**
+	 * @return the IdMapperPrefixer, or <code>null</code>
+	 */
+	IdMapperPrefixer getPrefixer() {
+		return prefixer;
+	}
+	
+	/**
+	 * Returns true if the directory of every identifier mapped by its UUID is
+	 * determined by its prefix (if any) and the day of its timestamp, which 
+	 * is required to record directories in a {@link DirectoryBitmap}. 
+	 * Subclasses that override {@link #getDatePath(long)} must 
+	 * override this method if this no longer holds.
+	 * 
+	 * @return true for date formats whose finest unit is a day (or coarser),
+	 * without bucket directories
+	 */
+	protected boolean hasDayDirectories() {
+		return buckets == null && renderer.getUnitMillis() == MILLIS_PER_DAY;
+	}
+	
+	/**
+	 * Returns the internal prefix of the identifiers beginning with 
+	 * externalPrefix, if they share one: if the IdMapperPrefixer maps 
+	 * externalPrefix to a directory (e.g. "info:fedora/test:") and the 
+	 * fallbackMapper maps it to the same directory, all identifiers beginning
+	 * with externalPrefix are below that directory, whether they are mapped
+	 * by a UUID or not.
+	 * 
+	 * <p>Prefixes that contain a UUID are not narrowed to its date directory:
+	 * identifiers are mapped by their last UUID, so an identifier beginning 
+	 * with such a prefix may be mapped by a later UUID (e.g. 
+	 * ".../DS-&lt;another UUID&gt;"), or by the fallbackMapper (e.g. if the 
+	 * prefix ends with a partial UUID that is completed invalidly).
+	 * 
 	 * @see org.akubraproject.map.IdMapper#getInternalPrefix(java.lang.String)
 	 */
 	public String getInternalPrefix(String externalPrefix) throws NullPointerException {
 		if (externalPrefix == null) {
             throw new NullPointerException();
         }
-		//TODO
+
+		if (prefixer != null) {
+			String dir = prefixer.getPrefixForIdentifierPrefix(externalPrefix);
+			if (dir != null && !dir.isEmpty()) {
+				String internalPrefix = internalScheme + ":" + dir + '/';
+				if (internalPrefix.equals(fallbackMapper.getInternalPrefix(externalPrefix))) {
+					return internalPrefix;
+				}
+			}
+		}
         return null;
 	}
 	
 	/**
-	 * Given an identifier which contains a type 1 UUID in canonical form,
-	 * return the date-formatted path given by the identifier.
-	 *
-	 * @param uri the identifier, e.g. "info:fedora/test:25f814ce-f5ac-11e0-b139-2837370107a5"
-	 * @return the path for the identifier, e.g. "2011/10/13/"
-	 * @throws NullPointerException if the uri is null
-	 * @throws IllegalArgumentException if the uri does not contain a type 1 UUID
+	 * Append the path given by the most significant bits of the identifier's 
+	 * UUID.
+	 * 
+	 * @param uri the identifier
+	 * @param msb the most significant bits of the identifier's UUID
+	 * @param timestamp the timestamp extracted from msb
+	 * @param path the StringBuilder to append the path to
 	 */
-	private String getPath(String uri) throws NullPointerException, IllegalArgumentException {
-		UUID uuid = extractUUID(uri);
-		UUIDType uuidType = UUIDUtil.typeOf(uuid);
-		if (uuidType.equals(UUIDType.TIME_BASED)) {
-		    StringBuilder prefix = new StringBuilder();
-		    if (prefixer != null) {
-    		    prefix.append(prefixer.getPrefix(uri));
-    		    if (prefix.length() > 0) {
-    		        prefix.append('/');
-    		    }
-		    }
-
-			return prefix + getDateTime(uuid).toString(fmt) + '/';
-
-		} else {
-			throw new IllegalArgumentException("Wrong type of UUID. " + uuid.toString() + " is " + uuidType);
+	private void appendPath(CharSequence uri, long msb, long timestamp, StringBuilder path) {
+		if (prefixer != null) {
+			String nsPrefix = prefixer.getPrefix(uri);
+			if (!nsPrefix.isEmpty()) {
+				path.append(nsPrefix).append('/');
+			}
+		}
+		path.append(getDatePath(timestamp));
+		if (buckets != null) {
+			path.append(buckets.getPath(msb));
 		}
 	}
+	
+	/**
+	 * Return the date path of the timestamp of a UUID, e.g. "2011/10/13/". 
+	 * 
+	 * @param timestamp the timestamp of the UUID, as given by the 
+	 * {@link TimestampExtractor}, i.e. in 100-ns intervals since the UUID epoch
+	 * @return the date path, including the trailing '/'
+	 */
+	protected String getDatePath(long timestamp) {
+		return renderer.getPath(getMillis(timestamp));
+	}
     
     /**
      * Searches for and returns a UUID embedded in the supplied string.
@@ -245,32 +569,50 @@ public class UUIDDatePathIdMapper implements IdMapper {
     		throw new NullPointerException();
     	}
     	
-    	if (s.length() < 36) {
-    		throw new IllegalArgumentException("String \"" + s + "\" is too short to be a UUID");
-    	}
-    	
-    	Matcher m = pattern.matcher(s);
-    	if (m.matches()) {
-    		return UUIDUtil.uuid(m.group(1));
-    	} else {
+    	int offset = UUIDLocator.lastIndexOf(s);
+    	if (offset == -1) {
     		throw new IllegalArgumentException("\"" + s + "\" is not a UUID");
     	}
+    	return new UUID(UUIDLocator.mostSignificantBits(s, offset), 
+    			UUIDLocator.leastSignificantBits(s, offset));
     }
     
     /**
-     * Get the DateTime from a version 1 UUID.
+     * Get the DateTime from a time-based UUID.
      * 
-     * @param uuid a version 1 UUID
+     * @param uuid a UUID whose time the TimestampExtractor can extract, e.g. 
+     * a version 1 UUID
      * @return DateTime value extracted from the UUID, or IllegalArgumentException 
-     * if uuid is not a version 1 UUID.
+     * if the TimestampExtractor cannot extract its time.
      */
     protected DateTime getDateTime(UUID uuid) {
-    	if (uuid.version() != 1) {
+    	long timestamp = timestampExtractor.getTimestamp(uuid.getMostSignificantBits());
+    	if (timestamp == TimestampExtractor.NO_TIMESTAMP) {
     		throw new IllegalArgumentException("Wrong UUID version: " + uuid.version());
     	}
     	
-		long t1 = uuid.timestamp() - NUM_100NS_INTERVALS_SINCE_UUID_EPOCH;
-    		
-		return new DateTime(t1/10000, DateTimeZone.UTC);
+		return getDateTime(timestamp);
+    }
+    
+    /**
+     * Get the DateTime from the timestamp of a version 1 UUID.
+     * 
+     * @param timestamp the 60-bit timestamp of a version 1 UUID, i.e. the 
+     * number of 100-ns intervals since the UUID epoch
+     * @return DateTime value of the timestamp
+     */
+    private DateTime getDateTime(long timestamp) {
+		return new DateTime(getMillis(timestamp), DateTimeZone.UTC);
+    }
+    
+    /**
+     * Convert the timestamp of a version 1 UUID to milliseconds since the 
+     * Unix epoch.
+     * 
+     * @param timestamp the 60-bit timestamp of a version 1 UUID
+     * @return milliseconds since the Unix epoch
+     */
+    static long getMillis(long timestamp) {
+		return (timestamp - NUM_100NS_INTERVALS_SINCE_UUID_EPOCH) / 10000;
     }
 }
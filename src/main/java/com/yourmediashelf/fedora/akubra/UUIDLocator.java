@@ -0,0 +1,203 @@
+/**
+ * Copyright (C) 2012 MediaShelf <http://www.yourmediashelf.com/>
+ *
+ * This file is part of uuid-datepath-idmapper.
+ *
+ * uuid-datepath-idmapper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * uuid-datepath-idmapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with uuid-datepath-idmapper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.yourmediashelf.fedora.akubra;
+
+/**
+ * Locates and decodes UUIDs in canonical form (32 hexadecimal digits,
+ * separated in 5 groups by hyphens, i.e. 8-4-4-4-12) embedded in a
+ * {@link CharSequence}, without allocating any intermediate objects.
+ *
+ * <p>Where the input contains more than one UUID, the last one wins, i.e. the
+ * same UUID is located as by the regular expression
+ * <code>.*([0-9a-fA-F]{8}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{12}).*</code>
+ *
+ * @author Edwin Shin
+ *
+ */
+final class UUIDLocator {
+
+    /**
+     * The length of a UUID in canonical form.
+     */
+    static final int LENGTH = 36;
+
+    private UUIDLocator() {
+    }
+
+    /**
+     * Returns the index of the last UUID in canonical form within the supplied
+     * character sequence.
+     *
+     * @param s the character sequence to search
+     * @return the index of the first character of the last UUID, or -1 if
+     * <code>s</code> does not contain a UUID.
+     * @throws NullPointerException if <code>s</code> is null
+     */
+    static int lastIndexOf(CharSequence s) throws NullPointerException {
+        return lastIndexOf(s, 0, s.length());
+    }
+
+    /**
+     * Returns the index of the last UUID in canonical form within the part of
+     * the supplied character sequence between <code>begin</code> and
+     * <code>end</code>.
+     *
+     * @param s the character sequence to search
+     * @param begin the index of the first char to search
+     * @param end the index after the last char to search
+     * @return the index (within <code>s</code>) of the first character of the
+     * last UUID, or -1 if the part does not contain a UUID.
+     * @throws NullPointerException if <code>s</code> is null
+     */
+    static int lastIndexOf(CharSequence s, int begin, int end) throws NullPointerException {
+        int tail = end - LENGTH;
+        if (tail < begin) {
+            return -1;
+        }
+
+        // fast path: the UUID is the trailing component, as in
+        // "info:fedora/<ns>:<uuid>"
+        if (matchesAt(s, tail)) {
+            return tail;
+        }
+
+        for (int i = tail - 1; i >= begin; i--) {
+            if (matchesAt(s, i)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns true if a UUID in canonical form begins at the supplied offset.
+     *
+     * @param s the character sequence
+     * @param offset the offset at which the UUID would begin
+     * @return true if <code>s</code> contains a canonical UUID at <code>offset</code>
+     */
+    static boolean matchesAt(CharSequence s, int offset) {
+        if (offset < 0 || offset + LENGTH > s.length()) {
+            return false;
+        }
+        // check the hyphens first, they rule out most offsets cheaply
+        if (s.charAt(offset + 8) != '-' || s.charAt(offset + 13) != '-'
+                || s.charAt(offset + 18) != '-' || s.charAt(offset + 23) != '-') {
+            return false;
+        }
+        for (int i = 0; i < LENGTH; i++) {
+            if (i == 8 || i == 13 || i == 18 || i == 23) {
+                continue;
+            }
+            if (hexValue(s.charAt(offset + i)) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Decodes the most significant 64 bits of the canonical UUID beginning at
+     * the supplied offset. The offset must have been validated with
+     * {@link #matchesAt(CharSequence, int)}.
+     *
+     * @param s the character sequence
+     * @param offset the offset of the UUID
+     * @return the most significant bits of the UUID
+     */
+    static long mostSignificantBits(CharSequence s, int offset) {
+        long msb = hexBits(s, offset, 8);
+        msb = (msb << 16) | hexBits(s, offset + 9, 4);
+        return (msb << 16) | hexBits(s, offset + 14, 4);
+    }
+
+    /**
+     * Decodes the least significant 64 bits of the canonical UUID beginning at
+     * the supplied offset. The offset must have been validated with
+     * {@link #matchesAt(CharSequence, int)}.
+     *
+     * @param s the character sequence
+     * @param offset the offset of the UUID
+     * @return the least significant bits of the UUID
+     */
+    static long leastSignificantBits(CharSequence s, int offset) {
+        long lsb = hexBits(s, offset + 19, 4);
+        return (lsb << 48) | hexBits(s, offset + 24, 12);
+    }
+
+    /**
+     * Returns the version of the UUID with the supplied most significant bits.
+     *
+     * @param msb the most significant bits of a UUID
+     * @return the version number
+     */
+    static int version(long msb) {
+        return (int) (msb >>> 12) & 0x0f;
+    }
+
+    /**
+     * Returns the 60-bit timestamp (100-ns intervals since the UUID epoch) of
+     * the version 1 UUID with the supplied most significant bits.
+     *
+     * @param msb the most significant bits of a version 1 UUID
+     * @return the timestamp
+     */
+    static long timestamp(long msb) {
+        return ((msb & 0x0fffL) << 48)
+                | (((msb >>> 16) & 0xffffL) << 32)
+                | (msb >>> 32);
+    }
+
+    /**
+     * Returns true if the first <code>length</code> chars of a UUID in
+     * canonical form begin at the supplied offset.
+     */
+    private static boolean matchesAt(CharSequence s, int offset, int length) {
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(offset + i);
+            if (i == 8 || i == 13 || i == 18 || i == 23) {
+                if (c != '-') {
+                    return false;
+                }
+            } else if (hexValue(c) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long hexBits(CharSequence s, int offset, int length) {
+        long bits = 0;
+        for (int i = offset; i < offset + length; i++) {
+            bits = (bits << 4) | hexValue(s.charAt(i));
+        }
+        return bits;
+    }
+
+    private static int hexValue(char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        } else if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        } else if (c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,71 @@
+/**
+ * Copyright (C) 2012 MediaShelf <http://www.yourmediashelf.com/>
+ *
+ * This file is part of uuid-datepath-idmapper.
+ *
+ * uuid-datepath-idmapper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * uuid-datepath-idmapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with uuid-datepath-idmapper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.yourmediashelf.fedora.akubra;
+
+/**
+ * The {@link TimestampExtractor}s of the time-based UUID versions of 
+ * RFC 9562, which decode the time directly from the most significant bits.
+ *
+ * @author Edwin Shin
+ *
+ */
+public enum UUIDTimestampExtractor implements TimestampExtractor {
+
+    /**
+     * Version 1 UUIDs: the 60-bit timestamp, with its fields in the order 
+     * time_low, time_mid, time_hi.
+     */
+    V1 {
+        @Override
+        public long getTimestamp(long msb) {
+            return UUIDLocator.version(msb) == 1 ? UUIDLocator.timestamp(msb) : NO_TIMESTAMP;
+        }
+    },
+
+    /**
+     * Version 6 UUIDs: the 60-bit timestamp of version 1, with its fields in
+     * the order time_high, time_mid, time_low.
+     */
+    V6 {
+        @Override
+        public long getTimestamp(long msb) {
+            if (UUIDLocator.version(msb) != 6) {
+                return NO_TIMESTAMP;
+            }
+            return ((msb >>> 32) << 28) | (((msb >>> 16) & 0xffffL) << 12) | (msb & 0x0fffL);
+        }
+    },
+
+    /**
+     * Version 7 UUIDs: the 48-bit unix_ts_ms field. The 12 bits of rand_a 
+     * are added as a fraction of the millisecond (as generators that use 
+     * them for sub-millisecond precision intend), so that the timestamps of
+     * ids minted within a millisecond usually differ.
+     */
+    V7 {
+        @Override
+        public long getTimestamp(long msb) {
+            if (UUIDLocator.version(msb) != 7) {
+                return NO_TIMESTAMP;
+            }
+            return (msb >>> 16) * 10000 + UUIDDatePathIdMapper.NUM_100NS_INTERVALS_SINCE_UUID_EPOCH
+                    + (((msb & 0x0fffL) * 10000) >>> 12);
+        }
+    };
+}
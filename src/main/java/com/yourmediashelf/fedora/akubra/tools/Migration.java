@@ -0,0 +1,286 @@
+/**
+ * Copyright (C) 2012 MediaShelf <http://www.yourmediashelf.com/>
+ *
+ * This file is part of uuid-datepath-idmapper.
+ *
+ * uuid-datepath-idmapper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * uuid-datepath-idmapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with uuid-datepath-idmapper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.yourmediashelf.fedora.akubra.tools;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.akubraproject.map.IdMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Moves the files of a store from the layout of one IdMapper to that of
+ * another, e.g. from a {@link com.yourmediashelf.fedora.akubra.PrefixingHashPathIdMapper}
+ * layout to a {@link com.yourmediashelf.fedora.akubra.UUIDDatePathIdMapper} 
+ * layout. The store must not be in use during the migration.
+ *
+ * <p>The source tree is walked in parallel, one task per directory. The 
+ * internal id of each file (its path relative to the source root) is mapped 
+ * to its external id with the source IdMapper, and to its new internal id 
+ * with the target IdMapper, and the file is moved to that path below the 
+ * target root: it is hard-linked to the target path, which fails atomically
+ * if the target exists, and then unlinked from the source. Files whose 
+ * targets exist (e.g. two source files that decode to the same external id)
+ * are never overwritten, but left in place as conflicts. The source and 
+ * target roots must therefore be on the same file system, and must not 
+ * contain one another.
+ *
+ * <p>Completed directories are recorded in a {@link MigrationJournal}, so 
+ * that an interrupted migration can be resumed by running it again; a file
+ * that was linked but not yet unlinked when it was interrupted is unlinked 
+ * then.
+ *
+ * @author Edwin Shin
+ *
+ */
+class Migration {
+
+    private static final Logger logger = LoggerFactory.getLogger(Migration.class);
+
+    private final Path sourceRoot;
+    private final Path targetRoot;
+    private final IdMapper sourceMapper;
+    private final IdMapper targetMapper;
+    private final MigrationJournal journal;
+    private final Throttle throttle;
+    private final boolean dryRun;
+
+    /**
+     * The target directories known to exist.
+     */
+    private final Set<Path> directories = ConcurrentHashMap.newKeySet();
+
+    private final LongAdder moved = new LongAdder();
+    private final LongAdder conflicts = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+
+    /**
+     *
+     * @param sourceRoot the root directory of the store
+     * @param targetRoot the root directory of the migrated store, created if
+     * it does not exist
+     * @param sourceMapper the IdMapper of the store
+     * @param targetMapper the IdMapper of the migrated store
+     * @param journal the journal of completed directories
+     * @param throttle the throttle of the file moves
+     * @param dryRun true to map the files without moving them
+     * @throws IOException if the roots cannot be resolved
+     * @throws IllegalArgumentException if the source root is not a directory,
+     * or the roots contain one another, or are on different file systems
+     */
+    Migration(Path sourceRoot, Path targetRoot, IdMapper sourceMapper, IdMapper targetMapper, 
+            MigrationJournal journal, Throttle throttle, boolean dryRun) throws IOException {
+        if (!Files.isDirectory(sourceRoot)) {
+            throw new IllegalArgumentException(sourceRoot + " is not a directory");
+        }
+        this.sourceRoot = sourceRoot.toRealPath();
+        if (!dryRun) {
+            Files.createDirectories(targetRoot);
+            this.targetRoot = targetRoot.toRealPath();
+        } else {
+            this.targetRoot = targetRoot.toAbsolutePath().normalize();
+        }
+        if (this.targetRoot.startsWith(this.sourceRoot) || this.sourceRoot.startsWith(this.targetRoot)) {
+            throw new IllegalArgumentException("The source and target directories must not contain"
+                    + " one another: " + this.sourceRoot + ", " + this.targetRoot);
+        }
+        if (!dryRun && !Files.getFileStore(this.sourceRoot).equals(Files.getFileStore(this.targetRoot))) {
+            throw new IllegalArgumentException("The source and target directories must be on the same"
+                    + " file system: " + this.sourceRoot + ", " + this.targetRoot);
+        }
+        this.sourceMapper = sourceMapper;
+        this.targetMapper = targetMapper;
+        this.journal = journal;
+        this.throttle = throttle;
+        this.dryRun = dryRun;
+    }
+
+    /**
+     * Migrates all files that were not migrated before.
+     *
+     * @param threads the number of threads
+     * @return true if all files were migrated, false if some could not be 
+     * (see {@link #getConflicts()} and {@link #getFailures()})
+     * @throws IOException if the journal cannot be written
+     */
+    boolean run(int threads) throws IOException {
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            return pool.invoke(new DirectoryTask(sourceRoot, ""));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * @return the number of files moved (or, in a dry run, that would have 
+     * been moved)
+     */
+    long getMoved() {
+        return moved.sum();
+    }
+
+    /**
+     * @return the number of files not moved because their target exists
+     */
+    long getConflicts() {
+        return conflicts.sum();
+    }
+
+    /**
+     * @return the number of files not moved because they could not be 
+     * mapped, linked or unlinked
+     */
+    long getFailures() {
+        return failures.sum();
+    }
+
+    /**
+     * Migrates a file.
+     *
+     * @return true if the file was moved
+     */
+    private boolean migrate(Path file, String relativePath) throws InterruptedException {
+        Path target;
+        try {
+            URI externalId = sourceMapper.getExternalId(URI.create("file:" + relativePath));
+            URI internalId = targetMapper.getInternalId(externalId);
+            target = targetRoot.resolve(internalId.getRawSchemeSpecificPart());
+        } catch (RuntimeException e) {
+            logger.warn("Unable to map {}: {}", file, e.toString());
+            failures.increment();
+            return false;
+        }
+
+        throttle.acquire();
+        if (dryRun) {
+            logger.debug("{} -> {}", file, target);
+            moved.increment();
+            return true;
+        }
+        try {
+            Path parent = target.getParent();
+            if (!directories.contains(parent)) {
+                Files.createDirectories(parent);
+                directories.add(parent);
+            }
+            try {
+                // unlike a rename, which replaces an existing target
+                Files.createLink(target, file);
+            } catch (FileAlreadyExistsException e) {
+                if (!Files.isSameFile(file, target)) {
+                    logger.warn("Not moving {}: {} exists", file, target);
+                    conflicts.increment();
+                    return false;
+                }
+                // linked by an interrupted migration
+            }
+            Files.delete(file);
+            moved.increment();
+            return true;
+        } catch (IOException e) {
+            logger.warn("Unable to move {} to {}: {}", new Object[] {file, target, e.toString()});
+            failures.increment();
+            return false;
+        }
+    }
+
+    /**
+     * Migrates the files below a directory, and records the directory as 
+     * completed if all were moved.
+     */
+    private final class DirectoryTask extends RecursiveTask<Boolean> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Path dir;
+
+        /**
+         * The path relative to the source root, with '/' as separator.
+         */
+        private final String relativePath;
+
+        DirectoryTask(Path dir, String relativePath) {
+            this.dir = dir;
+            this.relativePath = relativePath;
+        }
+
+        @Override
+        protected Boolean compute() {
+            if (journal.isCompleted(relativePath)) {
+                return true;
+            }
+            boolean completed = true;
+            List<DirectoryTask> subtasks = new ArrayList<DirectoryTask>();
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+                for (Path entry : entries) {
+                    String name = entry.getFileName().toString();
+                    String path = relativePath.isEmpty() ? name : relativePath + '/' + name;
+                    BasicFileAttributes attributes = Files.readAttributes(entry, 
+                            BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                    if (attributes.isDirectory()) {
+                        DirectoryTask subtask = new DirectoryTask(entry, path);
+                        subtask.fork();
+                        subtasks.add(subtask);
+                    } else if (attributes.isRegularFile()) {
+                        completed &= migrate(entry, path);
+                    } else {
+                        logger.warn("Skipping {}: not a regular file", entry);
+                        completed = false;
+                    }
+                }
+            } catch (IOException e) {
+                logger.warn("Unable to list {}: {}", dir, e.toString());
+                failures.increment();
+                completed = false;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                completed = false;
+            }
+            for (DirectoryTask subtask : subtasks) {
+                completed &= subtask.join();
+            }
+            if (completed && !dryRun) {
+                try {
+                    journal.complete(relativePath);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            return completed;
+        }
+    }
+}
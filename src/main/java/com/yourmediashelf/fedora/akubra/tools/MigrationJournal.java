@@ -0,0 +1,123 @@
+/**
+ * Copyright (C) 2012 MediaShelf <http://www.yourmediashelf.com/>
+ *
+ * This file is part of uuid-datepath-idmapper.
+ *
+ * uuid-datepath-idmapper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * uuid-datepath-idmapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with uuid-datepath-idmapper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.yourmediashelf.fedora.akubra.tools;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The source directories that a {@link Migration} has completed, one per 
+ * line, so that an interrupted migration can resume without listing them 
+ * again.
+ *
+ * <p>A directory is only recorded once all files below it were moved. Each
+ * file is moved by hard-linking it to its target and then unlinking it from 
+ * the source, so files moved before an interruption are no longer found in 
+ * the source tree, and a file that was linked but not yet unlinked is found
+ * with its target being the same file, and its move is completed. Losing the
+ * last lines of the journal (e.g. in a power failure) therefore only causes
+ * some directories to be listed again.
+ *
+ * @author Edwin Shin
+ *
+ */
+final class MigrationJournal implements Closeable {
+
+    private static final String HEADER = "# uuid-datepath-idmapper migration journal";
+
+    private final Set<String> completed = ConcurrentHashMap.newKeySet();
+
+    private final Writer writer;
+
+    /**
+     * Opens the journal, creating it if it does not exist.
+     *
+     * @param file the journal file
+     * @throws IOException if the journal cannot be read or opened, or the 
+     * file is not a journal
+     */
+    MigrationJournal(Path file) throws IOException {
+        boolean exists = Files.exists(file) && Files.size(file) > 0;
+        if (exists) {
+            try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                if (!HEADER.equals(reader.readLine())) {
+                    throw new IOException(file + " is not a migration journal");
+                }
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (!line.isEmpty()) {
+                        completed.add(line);
+                    }
+                }
+            }
+        }
+        writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE, 
+                StandardOpenOption.APPEND);
+        if (!exists) {
+            writer.write(HEADER);
+            writer.write('\n');
+            writer.flush();
+        }
+    }
+
+    /**
+     * @param directory the directory, relative to the source root, with '/'
+     * as separator ("" for the root)
+     * @return true if the directory was completed
+     */
+    boolean isCompleted(String directory) {
+        return completed.contains(directory.isEmpty() ? "/" : directory);
+    }
+
+    /**
+     * Records that all files below the directory were moved.
+     *
+     * @param directory the directory, relative to the source root, with '/'
+     * as separator ("" for the root)
+     * @throws IOException if the journal cannot be written
+     */
+    synchronized void complete(String directory) throws IOException {
+        String line = directory.isEmpty() ? "/" : directory;
+        if (completed.add(line)) {
+            writer.write(line);
+            writer.write('\n');
+            writer.flush();
+        }
+    }
+
+    /**
+     * @return the number of directories completed
+     */
+    int size() {
+        return completed.size();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        writer.close();
+    }
+}
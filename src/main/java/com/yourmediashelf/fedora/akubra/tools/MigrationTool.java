@@ -0,0 +1,183 @@
+/**
+ * Copyright (C) 2012 MediaShelf <http://www.yourmediashelf.com/>
+ *
+ * This file is part of uuid-datepath-idmapper.
+ *
+ * uuid-datepath-idmapper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * uuid-datepath-idmapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with uuid-datepath-idmapper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.yourmediashelf.fedora.akubra.tools;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.akubraproject.map.IdMapper;
+
+import com.yourmediashelf.fedora.akubra.FedoraNamespacePrefixer;
+import com.yourmediashelf.fedora.akubra.IdMapperPrefixer;
+import com.yourmediashelf.fedora.akubra.PrefixingHashPathIdMapper;
+import com.yourmediashelf.fedora.akubra.UUIDDatePathIdMapper;
+
+/**
+ * <p>Command-line tool that migrates a store from the layout of a 
+ * {@link PrefixingHashPathIdMapper} (or Fedora's HashPathIdMapper, which is 
+ * the same without a prefixer) to that of a {@link UUIDDatePathIdMapper} 
+ * with a PrefixingHashPathIdMapper as fallbackMapper. See {@link Migration}.
+ *
+ * <pre>
+ * java -cp uuid-datepath-idmapper-with-all-dependencies.jar \
+ *     com.yourmediashelf.fedora.akubra.tools.MigrationTool [options] &lt;source dir&gt; &lt;target dir&gt;
+ * </pre>
+ *
+ * <p>Run the tool again with the same journal to resume an interrupted 
+ * migration.
+ *
+ * @author Edwin Shin
+ *
+ */
+public class MigrationTool {
+
+    private static final String USAGE = "Usage: MigrationTool [options] <source dir> <target dir>\n"
+            + "Options:\n"
+            + "  --source-pattern <pattern>    hash path pattern of the source store (default: ##)\n"
+            + "  --fallback-pattern <pattern>  hash path pattern of the fallbackMapper (default: the\n"
+            + "                                source pattern)\n"
+            + "  --date-format <format>        date format of the target store (default: yyyy/MM/dd)\n"
+            + "  --prefix-namespaces           both stores use the FedoraNamespacePrefixer\n"
+            + "  --threads <n>                 number of threads (default: number of processors)\n"
+            + "  --max-rate <files/s>          maximum number of files moved per second (default: 0,\n"
+            + "                                i.e. unlimited)\n"
+            + "  --journal <file>              journal of completed directories (default:\n"
+            + "                                migration.journal)\n"
+            + "  --dry-run                     map the files without moving them\n";
+
+    private String sourcePattern = "##";
+    private String fallbackPattern;
+    private String dateFormat;
+    private boolean prefixNamespaces;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private double maxRate;
+    private Path journalFile = Paths.get("migration.journal");
+    private boolean dryRun;
+    private Path source;
+    private Path target;
+
+    private MigrationTool() {
+    }
+
+    public static void main(String[] args) {
+        MigrationTool tool = new MigrationTool();
+        try {
+            tool.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.print(USAGE);
+            System.exit(2);
+        }
+        try {
+            System.exit(tool.run() ? 0 : 1);
+        } catch (IOException | IllegalArgumentException | IllegalStateException e) {
+            System.err.println("Migration failed: " + e.getMessage());
+            System.exit(2);
+        }
+    }
+
+    private void parse(String[] args) throws IllegalArgumentException {
+        int i = 0;
+        for (; i < args.length && args[i].startsWith("--"); i++) {
+            String option = args[i];
+            if (option.equals("--prefix-namespaces")) {
+                prefixNamespaces = true;
+            } else if (option.equals("--dry-run")) {
+                dryRun = true;
+            } else if (i + 1 == args.length) {
+                throw new IllegalArgumentException("Missing value of " + option);
+            } else {
+                String value = args[++i];
+                try {
+                    if (option.equals("--source-pattern")) {
+                        sourcePattern = value;
+                    } else if (option.equals("--fallback-pattern")) {
+                        fallbackPattern = value;
+                    } else if (option.equals("--date-format")) {
+                        dateFormat = value;
+                    } else if (option.equals("--threads")) {
+                        threads = Integer.parseInt(value);
+                    } else if (option.equals("--max-rate")) {
+                        maxRate = Double.parseDouble(value);
+                    } else if (option.equals("--journal")) {
+                        journalFile = Paths.get(value);
+                    } else {
+                        throw new IllegalArgumentException("Unknown option: " + option);
+                    }
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Invalid value of " + option + ": " + value);
+                }
+            }
+        }
+        if (args.length - i != 2) {
+            throw new IllegalArgumentException("Expected a source and a target directory");
+        }
+        if (threads < 1 || maxRate < 0) {
+            throw new IllegalArgumentException("The number of threads must be positive, and the"
+                    + " maximum rate must not be negative");
+        }
+        source = Paths.get(args[i]);
+        target = Paths.get(args[i + 1]);
+    }
+
+    private boolean run() throws IOException {
+        IdMapperPrefixer prefixer = prefixNamespaces ? new FedoraNamespacePrefixer() : null;
+        IdMapper sourceMapper = new PrefixingHashPathIdMapper(sourcePattern, prefixer);
+        IdMapper fallbackMapper = new PrefixingHashPathIdMapper(
+                fallbackPattern == null ? sourcePattern : fallbackPattern, prefixer);
+        IdMapper targetMapper = new UUIDDatePathIdMapper(dateFormat, fallbackMapper, prefixer);
+
+        try (MigrationJournal journal = new MigrationJournal(journalFile)) {
+            final Migration migration = new Migration(source, target, sourceMapper, targetMapper, journal, 
+                    new Throttle(maxRate), dryRun);
+            System.out.println((dryRun ? "Mapping " : "Migrating ") + source + " to " + target 
+                    + " (" + journal.size() + " directories completed before)");
+
+            final long start = System.nanoTime();
+            ScheduledExecutorService progress = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "MigrationTool progress");
+                thread.setDaemon(true);
+                return thread;
+            });
+            progress.scheduleAtFixedRate(() -> System.out.println(status(migration, start)), 
+                    10, 10, TimeUnit.SECONDS);
+            boolean completed;
+            try {
+                completed = migration.run(threads);
+            } finally {
+                progress.shutdownNow();
+            }
+            System.out.println(status(migration, start));
+            System.out.println(completed ? "Completed" 
+                    : "Not completed: run again to retry the files not moved");
+            return completed;
+        }
+    }
+
+    private static String status(Migration migration, long start) {
+        double seconds = Math.max(1, System.nanoTime() - start) / 1e9;
+        long moved = migration.getMoved();
+        return String.format("%d moved (%.0f/s), %d conflicts, %d failures, %.0f s", moved, 
+                moved / seconds, migration.getConflicts(), migration.getFailures(), seconds);
+    }
+}
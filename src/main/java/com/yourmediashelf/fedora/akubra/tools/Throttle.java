@@ -0,0 +1,68 @@
+/**
+ * Copyright (C) 2012 MediaShelf <http://www.yourmediashelf.com/>
+ *
+ * This file is part of uuid-datepath-idmapper.
+ *
+ * uuid-datepath-idmapper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * uuid-datepath-idmapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with uuid-datepath-idmapper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.yourmediashelf.fedora.akubra.tools;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the rate of an operation across threads, by handing out evenly 
+ * spaced time slots.
+ *
+ * @author Edwin Shin
+ *
+ */
+final class Throttle {
+
+    private final long intervalNanos;
+
+    // guarded by this
+    private long next;
+
+    /**
+     * @param permitsPerSecond the maximum rate, or 0 for no limit
+     * @throws IllegalArgumentException if permitsPerSecond is negative
+     */
+    Throttle(double permitsPerSecond) {
+        if (permitsPerSecond < 0) {
+            throw new IllegalArgumentException("Rate must not be negative: " + permitsPerSecond);
+        }
+        intervalNanos = permitsPerSecond == 0 ? 0 : (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond);
+        next = System.nanoTime();
+    }
+
+    /**
+     * Waits until the next permit is available.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    void acquire() throws InterruptedException {
+        if (intervalNanos == 0) {
+            return;
+        }
+        long now = System.nanoTime();
+        long slot;
+        synchronized (this) {
+            slot = Math.max(next, now);
+            next = slot + intervalNanos;
+        }
+        if (slot > now) {
+            TimeUnit.NANOSECONDS.sleep(slot - now);
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/**
+ * Copyright (C) 2012 MediaShelf <http://www.yourmediashelf.com/>
+ *
+ * This file is part of uuid-datepath-idmapper.
+ *
+ * uuid-datepath-idmapper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * uuid-datepath-idmapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with uuid-datepath-idmapper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.yourmediashelf.fedora.akubra;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.net.URI;
+import java.util.Random;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.fasterxml.uuid.EthernetAddress;
+import com.fasterxml.uuid.MutableUUIDTimer;
+import com.fasterxml.uuid.impl.UUID1Generator;
+
+/**
+ * @author Edwin Shin
+ *
+ */
+public class AdaptiveUUIDDatePathIdMapperTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testSplits() throws Exception {
+        File indexFile = new File(folder.getRoot(), "periods.idx");
+
+        // 10:00 UTC, two days from now, so that the ids are newer than the 
+        // current time
+        DateTime base = new DateTime(DateTimeZone.UTC).plusDays(2).withTimeAtStartOfDay().plusHours(10);
+        String day = base.toString("yyyy/MM/dd/");
+        UUID1Generator gen = new UUID1Generator(new EthernetAddress("01:aa:75:ed:71:a1"), 
+                new MutableUUIDTimer(new Random(42), null));
+        URI[] externalIds = new URI[30];
+        String[] expected = new String[externalIds.length];
+        for (int i = 0; i < externalIds.length; i++) {
+            externalIds[i] = new URI("info:fedora/test:" + gen.generate(base.getMillis() + i * 60000L));
+            String path = i < 10 ? day : i < 20 ? day + "10/" : day + "10/" + String.format("%02d/", i);
+            expected[i] = "file:" + path + IdMapperUtil.encode(externalIds[i].toString());
+        }
+
+        AdaptiveUUIDDatePathIdMapper m = new AdaptiveUUIDDatePathIdMapper(indexFile, 10, null, null);
+        try {
+            for (int i = 0; i < externalIds.length; i++) {
+                assertEquals(expected[i], m.getInternalId(externalIds[i]).toString());
+                m.setStored(externalIds[i]);
+            }
+            // recording or mapping existing ids again does not count them
+            for (int i = 0; i < externalIds.length; i++) {
+                m.setStored(externalIds[i]);
+            }
+            for (int i = 0; i < externalIds.length; i++) {
+                URI internalId = m.getInternalId(externalIds[i]);
+                assertEquals(expected[i], internalId.toString());
+                assertEquals(externalIds[i], m.getExternalId(internalId));
+            }
+
+            // the index is in use
+            try {
+                new AdaptiveUUIDDatePathIdMapper(indexFile, 10, null, null);
+                fail("Expected IllegalStateException");
+            } catch (IllegalStateException expectedException) {
+            }
+        } finally {
+            m.close();
+        }
+
+        // the splits persist across restarts
+        m = new AdaptiveUUIDDatePathIdMapper(indexFile, 10, null, null);
+        try {
+            for (int i = externalIds.length - 1; i >= 0; i--) {
+                assertEquals(expected[i], m.getInternalId(externalIds[i]).toString());
+            }
+        } finally {
+            m.close();
+        }
+    }
+
+    /**
+     * Test that mapping ids that are not stored, e.g. existence checks of 
+     * later ids, does not delay splits.
+     */
+    @Test
+    public void testLookups() throws Exception {
+        File indexFile = new File(folder.getRoot(), "periods.idx");
+
+        DateTime base = new DateTime(DateTimeZone.UTC).plusDays(2).withTimeAtStartOfDay().plusHours(10);
+        String day = base.toString("yyyy/MM/dd/");
+        UUID1Generator gen = new UUID1Generator(new EthernetAddress("01:aa:75:ed:71:a1"), 
+                new MutableUUIDTimer(new Random(42), null));
+        URI[] externalIds = new URI[8];
+        for (int i = 0; i < externalIds.length; i++) {
+            externalIds[i] = new URI("info:fedora/test:" + gen.generate(base.getMillis() + i * 60000L));
+        }
+        URI late = new URI("info:fedora/test:" + gen.generate(base.plusHours(13).plusMinutes(59).getMillis()));
+
+        AdaptiveUUIDDatePathIdMapper m = new AdaptiveUUIDDatePathIdMapper(indexFile, 3, null, null);
+        try {
+            assertEquals("file:" + day + IdMapperUtil.encode(late.toString()), 
+                    m.getInternalId(late).toString());
+            for (int i = 0; i < externalIds.length; i++) {
+                String path = i < 3 ? day : i < 6 ? day + "10/" : day + "10/" + String.format("%02d/", i);
+                assertEquals("file:" + path + IdMapperUtil.encode(externalIds[i].toString()), 
+                        m.getInternalId(externalIds[i]).toString());
+                m.setStored(externalIds[i]);
+            }
+        } finally {
+            m.close();
+        }
+    }
+}
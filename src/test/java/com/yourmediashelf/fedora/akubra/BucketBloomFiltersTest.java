@@ -0,0 +1,155 @@
+/**
+ * Copyright (C) 2012 MediaShelf <http://www.yourmediashelf.com/>
+ *
+ * This file is part of uuid-datepath-idmapper.
+ *
+ * uuid-datepath-idmapper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * uuid-datepath-idmapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with uuid-datepath-idmapper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.yourmediashelf.fedora.akubra;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author Edwin Shin
+ *
+ */
+public class BucketBloomFiltersTest {
+
+    private static final String UUID_PREFIX = "info:fedora/demo:25f814ce-f5ac-11e0-b139-";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private UUIDDatePathIdMapper mapper;
+
+    private Path root;
+
+    private Path sidecars;
+
+    @Before
+    public void setUp() throws Exception {
+        IdMapperPrefixer prefixer = new FedoraNamespacePrefixer();
+        mapper = new UUIDDatePathIdMapper(new PrefixingHashPathIdMapper("##", prefixer), prefixer);
+        root = folder.newFolder("store").toPath();
+        sidecars = folder.getRoot().toPath().resolve("filters");
+    }
+
+    @Test
+    public void testFilters() throws Exception {
+        // stored before the filters were used
+        store(id(1));
+        store("info:fedora/demo:1");
+
+        BucketBloomFilters filters = new BucketBloomFilters(mapper, root, sidecars);
+        try {
+            assertTrue(filters.mightContain(id(1)));
+            assertTrue(filters.mightContain("info:fedora/demo:1"));
+            assertEquals(2, filters.getScanCount());
+
+            // ids of the same day are rarely positive, those of a day without
+            // a directory never
+            int positives = 0;
+            for (int i = 2; i < 1000; i++) {
+                if (filters.mightContain(id(i))) {
+                    positives++;
+                }
+            }
+            assertTrue(positives < 50);
+            assertFalse(filters.mightContain("info:fedora/demo:25f814ce-f5ac-11e1-b139-2837370107a5"));
+
+            // adds, beyond the capacity of the filter, with flushes in 
+            // between, and an id whose file is not created until the end
+            String late = id(10 * BucketBloomFilters.MIN_CAPACITY);
+            filters.add(late);
+            for (int i = 2; i < 10 * BucketBloomFilters.MIN_CAPACITY; i++) {
+                filters.add(id(i));
+                store(id(i));
+                if (i % 100 == 0) {
+                    filters.flush();
+                }
+            }
+            store(late);
+            for (int i = 1; i <= 10 * BucketBloomFilters.MIN_CAPACITY; i++) {
+                assertTrue(filters.mightContain(id(i)));
+            }
+            assertTrue(filters.getScanCount() > 2);
+        } finally {
+            filters.close();
+        }
+    }
+
+    @Test
+    public void testSidecars() throws Exception {
+        BucketBloomFilters filters = new BucketBloomFilters(mapper, root, sidecars);
+        try {
+            for (int i = 0; i < 100; i++) {
+                filters.add(id(i));
+                store(id(i));
+            }
+            filters.add("info:fedora/demo:1");
+            store("info:fedora/demo:1");
+        } finally {
+            filters.close();
+        }
+
+        // the filters of unmodified directories are read from the sidecars
+        filters = new BucketBloomFilters(mapper, root, sidecars);
+        try {
+            for (int i = 0; i < 100; i++) {
+                assertTrue(filters.mightContain(id(i)));
+            }
+            assertTrue(filters.mightContain("info:fedora/demo:1"));
+            assertEquals(0, filters.getScanCount());
+        } finally {
+            filters.close();
+        }
+
+        // ids stored while the filters were closed
+        Path file = store(id(100));
+        Path dir = file.getParent();
+        Files.setLastModifiedTime(dir, FileTime.fromMillis(Files.getLastModifiedTime(dir).toMillis() + 1000));
+        filters = new BucketBloomFilters(mapper, root, sidecars);
+        try {
+            assertTrue(filters.mightContain(id(100)));
+            assertTrue(filters.mightContain(id(0)));
+            assertEquals(1, filters.getScanCount());
+        } finally {
+            filters.close();
+        }
+    }
+
+    private static String id(int i) {
+        return UUID_PREFIX + String.format("%012x", i);
+    }
+
+    private Path store(String externalId) throws IOException {
+        String internalId = mapper.getInternalId(URI.create(externalId)).getRawSchemeSpecificPart();
+        Path file = root.resolve(internalId);
+        Files.createDirectories(file.getParent());
+        return Files.createFile(file);
+    }
+}
@@ -0,0 +1,153 @@
+/**
+ * Copyright (C) 2012 MediaShelf <http://www.yourmediashelf.com/>
+ *
+ * This file is part of uuid-datepath-idmapper.
+ *
+ * uuid-datepath-idmapper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * uuid-datepath-idmapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with uuid-datepath-idmapper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.yourmediashelf.fedora.akubra;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.akubraproject.map.IdMapper;
+import org.junit.Test;
+
+/**
+ * @author Edwin Shin
+ *
+ */
+public class CachingIdMapperTest {
+
+    private final String upid = "info:fedora/cellar:25f814ce-f5ac-11e0-b139-2837370107a5";
+
+    @Test
+    public void testCaching() throws Exception {
+        IdMapper uncached = new UUIDDatePathIdMapper();
+        CachingIdMapper m = new CachingIdMapper(uncached);
+        URI externalId = new URI(upid);
+
+        URI internalId = m.getInternalId(externalId);
+        assertEquals(uncached.getInternalId(externalId), internalId);
+        assertSame(internalId, m.getInternalId(externalId));
+        assertEquals(1, m.getInternalIdStats().getHitCount());
+        assertEquals(1, m.getInternalIdStats().getMissCount());
+
+        // the reverse mapping was cached as well
+        assertSame(externalId, m.getExternalId(new URI(internalId.toString())));
+        assertEquals(1, m.getExternalIdStats().getHitCount());
+        assertEquals(0, m.getExternalIdStats().getMissCount());
+
+        assertEquals(uncached.getInternalPrefix(upid), m.getInternalPrefix(upid));
+
+        m.clear();
+        assertEquals(0, m.getInternalIdStats().getSize());
+        assertEquals(0, m.getInternalIdStats().getBytes());
+    }
+
+    /**
+     * Test that ids that are equal URIs, but distinct ids, are cached 
+     * separately, and that internal ids passed in do not change the mapping
+     * of their external ids.
+     */
+    @Test
+    public void testDistinctIds() throws Exception {
+        IdMapper uncached = new TrivialIdMapper();
+        CachingIdMapper m = new CachingIdMapper(uncached);
+        URI lower = new URI("info:fedora/a%2fb");
+        URI upper = new URI("info:fedora/a%2Fb");
+        assertEquals(lower, upper);
+        assertEquals(uncached.getInternalId(lower), m.getInternalId(lower));
+        assertEquals(uncached.getInternalId(upper).toString(), m.getInternalId(upper).toString());
+        assertEquals(upper.toString(), m.getExternalId(uncached.getInternalId(upper)).toString());
+
+        URI externalId = new URI("info:fedora/demo:1");
+        URI internalId = new URI("file:info%3afedora%2fdemo%3a1");
+        assertEquals(externalId, m.getExternalId(internalId));
+        assertEquals(uncached.getInternalId(externalId).toString(), m.getInternalId(externalId).toString());
+    }
+
+    /**
+     * Test that the caches stay within their bounds, and that frequently 
+     * hit ids survive a scan of one-off ids.
+     */
+    @Test
+    public void testEviction() throws Exception {
+        CachingIdMapper m = new CachingIdMapper(new TrivialIdMapper(), 50, Long.MAX_VALUE);
+        URI hot = new URI("info:fedora/demo:hot");
+        m.getInternalId(hot);
+        for (int i = 0; i < 1000; i++) {
+            m.getInternalId(hot);
+            m.getInternalId(new URI("info:fedora/demo:" + i));
+        }
+        CachingIdMapper.CacheStats stats = m.getInternalIdStats();
+        assertEquals(50, stats.getSize());
+        assertEquals(951, stats.getEvictionCount());
+        assertEquals(1000, stats.getHitCount());
+        assertEquals(1001, stats.getMissCount());
+
+        m = new CachingIdMapper(new TrivialIdMapper(), 1000, 10000);
+        for (int i = 0; i < 1000; i++) {
+            m.getInternalId(new URI("info:fedora/demo:" + i));
+        }
+        stats = m.getInternalIdStats();
+        assertTrue(stats.getBytes() <= 10000);
+        assertTrue(stats.getSize() > 0 && stats.getSize() < 1000);
+        assertEquals(1000, stats.getSize() + stats.getEvictionCount());
+
+        // a budget that would round down to nothing per segment
+        m = new CachingIdMapper(new TrivialIdMapper(), 100000, 400);
+        m.getInternalId(new URI("info:fedora/demo:1"));
+        assertEquals(1, m.getInternalIdStats().getSize());
+    }
+
+    @Test
+    public void testConcurrentMapping() throws Exception {
+        final IdMapper uncached = new UUIDDatePathIdMapper();
+        final CachingIdMapper m = new CachingIdMapper(uncached, 100, Long.MAX_VALUE);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Void>> results = new ArrayList<Future<Void>>();
+            for (int t = 0; t < 8; t++) {
+                results.add(executor.submit(new Callable<Void>() {
+                    public Void call() throws Exception {
+                        for (int i = 0; i < 10000; i++) {
+                            URI externalId = new URI(upid + "/DS" + (i % 200));
+                            URI internalId = m.getInternalId(externalId);
+                            assertEquals(uncached.getInternalId(externalId), internalId);
+                            assertEquals(externalId, m.getExternalId(internalId));
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> result : results) {
+                result.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertTrue(m.getInternalIdStats().getSize() <= 100);
+        assertTrue(m.getExternalIdStats().getSize() <= 100);
+    }
+}
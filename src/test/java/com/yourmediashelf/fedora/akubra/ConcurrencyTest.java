@@ -0,0 +1,225 @@
+/**
+ * Copyright (C) 2012 MediaShelf <http://www.yourmediashelf.com/>
+ *
+ * This file is part of uuid-datepath-idmapper.
+ *
+ * uuid-datepath-idmapper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * uuid-datepath-idmapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with uuid-datepath-idmapper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.yourmediashelf.fedora.akubra;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.akubraproject.map.IdMapper;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.fasterxml.uuid.EthernetAddress;
+import com.fasterxml.uuid.MutableUUIDTimer;
+import com.fasterxml.uuid.impl.UUID1Generator;
+
+/**
+ * Drives every IdMapper from 1 to N threads with a reproducible corpus, 
+ * checks that each thread gets the same results as a single-threaded run, 
+ * and prints the throughput per number of threads, e.g. to spot contention
+ * in shared state (caches, prefixers, digests).
+ *
+ * @author Edwin Shin
+ *
+ */
+public class ConcurrencyTest {
+
+    private static final int CORPUS_SIZE = 4096;
+
+    private static final int MAX_THREADS = Math.max(8, 2 * Runtime.getRuntime().availableProcessors());
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testConcurrency() throws Exception {
+        URI[] corpus = corpus();
+        Map<String, IdMapper> mappers = mappers();
+        try {
+            StringBuilder report = new StringBuilder(String.format("%-28s", "ops/ms by threads"));
+            for (int threads = 1; threads <= MAX_THREADS; threads *= 2) {
+                report.append(String.format("%8d", threads));
+            }
+            for (Map.Entry<String, IdMapper> entry : mappers.entrySet()) {
+                IdMapper m = entry.getValue();
+                Expected expected = new Expected(m, corpus);
+                report.append(String.format("%n%-28s", entry.getKey()));
+                // warm up
+                run(entry.getKey(), m, corpus, expected, 1);
+                for (int threads = 1; threads <= MAX_THREADS; threads *= 2) {
+                    report.append(String.format("%8.0f", run(entry.getKey(), m, corpus, expected, threads)));
+                }
+            }
+            System.out.println(report);
+        } finally {
+            ((AdaptiveUUIDDatePathIdMapper) mappers.get("AdaptiveUUIDDatePath")).close();
+        }
+    }
+
+    /**
+     * Runs the corpus on the mapper from the supplied number of threads, each
+     * starting at a different offset.
+     *
+     * @return the number of operations per millisecond
+     */
+    private static double run(final String name, final IdMapper m, final URI[] corpus, final Expected expected, 
+            int threads) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final CountDownLatch start = new CountDownLatch(1);
+            List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+            for (int t = 0; t < threads; t++) {
+                final int offset = t * corpus.length / threads;
+                results.add(executor.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws Exception {
+                        start.await();
+                        int ops = 0;
+                        for (int j = 0; j < corpus.length; j++) {
+                            int i = (offset + j) % corpus.length;
+                            URI internalId = m.getInternalId(corpus[i]);
+                            URI externalId = m.getExternalId(internalId);
+                            String prefix = m.getInternalPrefix(expected.externalPrefixes[i]);
+                            ops += 3;
+                            if (!expected.internalIds[i].equals(internalId) || !corpus[i].equals(externalId)
+                                    || !ConcurrencyTest.equals(expected.internalPrefixes[i], prefix)) {
+                                throw new AssertionError(name + " mapped " + corpus[i] + " to " + internalId 
+                                        + ", " + externalId + " and " + prefix);
+                            }
+                        }
+                        return ops;
+                    }
+                }));
+            }
+            long begin = System.nanoTime();
+            start.countDown();
+            long ops = 0;
+            for (Future<Integer> result : results) {
+                ops += result.get();
+            }
+            return ops / ((System.nanoTime() - begin) / 1e6);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static boolean equals(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    /**
+     * The single-threaded results.
+     */
+    private static final class Expected {
+        final URI[] internalIds;
+        final String[] externalPrefixes;
+        final String[] internalPrefixes;
+
+        Expected(IdMapper m, URI[] corpus) {
+            internalIds = new URI[corpus.length];
+            externalPrefixes = new String[corpus.length];
+            internalPrefixes = new String[corpus.length];
+            for (int i = 0; i < corpus.length; i++) {
+                internalIds[i] = m.getInternalId(corpus[i]);
+                assertEquals(corpus[i], m.getExternalId(internalIds[i]));
+                String id = corpus[i].toString();
+                // alternately, the prefix of an object's ids, and of a namespace
+                externalPrefixes[i] = i % 2 == 0 ? id.substring(0, Math.min(id.length(), 53)) 
+                        : id.substring(0, id.indexOf(':', 12) + 1);
+                internalPrefixes[i] = m.getInternalPrefix(externalPrefixes[i]);
+            }
+        }
+    }
+
+    /**
+     * Objects, datastreams, fallback ids and ids that need escaping, in 8 
+     * namespaces, with UUID timestamps spread over two years.
+     */
+    private static URI[] corpus() throws Exception {
+        UUID1Generator generator = new UUID1Generator(new EthernetAddress("01:aa:75:ed:71:a1"), 
+                new MutableUUIDTimer(new Random(42), null));
+        Random random = new Random(42);
+        long base = new DateTime(2011, 1, 1, 0, 0, DateTimeZone.UTC).getMillis();
+        URI[] corpus = new URI[CORPUS_SIZE];
+        for (int i = 0; i < corpus.length; i++) {
+            String ns = "info:fedora/ns" + random.nextInt(8) + ":";
+            String uuid = generator.generate(base + (long) (random.nextDouble() * 2 * 365 * 86400000L)).toString();
+            switch (i % 4) {
+            case 0:
+                corpus[i] = URI.create(ns + uuid);
+                break;
+            case 1:
+                corpus[i] = URI.create(ns + uuid + "/DS" + random.nextInt(10));
+                break;
+            case 2:
+                corpus[i] = URI.create(ns + random.nextInt(100000));
+                break;
+            default:
+                corpus[i] = URI.create(ns + uuid + "/DS%201+%C3%A9." + i);
+            }
+        }
+        return corpus;
+    }
+
+    private Map<String, IdMapper> mappers() throws Exception {
+        IdMapperPrefixer prefixer = new FedoraNamespacePrefixer();
+        IdMapper fallback = new PrefixingHashPathIdMapper("##", prefixer);
+        Map<String, IdMapper> mappers = new LinkedHashMap<String, IdMapper>();
+        mappers.put("UUIDDatePath", new UUIDDatePathIdMapper());
+        mappers.put("UUIDDatePathPrefixed", new UUIDDatePathIdMapper("yyyy/MM/dd/HH", fallback, prefixer));
+        mappers.put("UUIDDateHashPath", new UUIDDateHashPathIdMapper(null, "##/#", fallback, prefixer));
+        mappers.put("AdaptiveUUIDDatePath", new AdaptiveUUIDDatePathIdMapper(
+                new File(folder.getRoot(), "periods.idx"), 100, fallback, prefixer));
+        mappers.put("PrefixingHashPath", fallback);
+        mappers.put("PrefixingHashPathMurmur3", 
+                new PrefixingHashPathIdMapper("##/##", prefixer, PathHashAlgorithm.MURMUR3_128));
+        mappers.put("Trivial", new TrivialIdMapper());
+        // small enough to evict
+        mappers.put("Caching", new CachingIdMapper(new UUIDDatePathIdMapper(null, fallback, prefixer), 
+                CORPUS_SIZE / 4, Long.MAX_VALUE));
+        mappers.put("Instrumented", new InstrumentedIdMapper(new UUIDDatePathIdMapper(), new IdMapperMetrics()));
+        return mappers;
+    }
+
+    @Test
+    public void testCorpusIsReproducible() throws Exception {
+        URI[] a = corpus(), b = corpus();
+        for (int i = 0; i < a.length; i++) {
+            if (!a[i].equals(b[i])) {
+                fail(a[i] + " != " + b[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,139 @@
+/**
+ * Copyright (C) 2012 MediaShelf <http://www.yourmediashelf.com/>
+ *
+ * This file is part of uuid-datepath-idmapper.
+ *
+ * uuid-datepath-idmapper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * uuid-datepath-idmapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with uuid-datepath-idmapper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.yourmediashelf.fedora.akubra;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URI;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author Edwin Shin
+ *
+ */
+public class DirectoryBitmapTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testBitmap() throws Exception {
+        File file = new File(folder.getRoot(), "directories.bitmap");
+        DirectoryBitmap bitmap = new DirectoryBitmap(file, 64);
+        DirectoryBitmap shared = new DirectoryBitmap(file, 64);
+        try {
+            assertFalse(bitmap.contains("demo", 15000));
+            assertTrue(bitmap.add("demo", 15000));
+            assertTrue(bitmap.contains("demo", 15000));
+            assertFalse(bitmap.contains("demo", 15001));
+            assertFalse(bitmap.contains("test", 15000));
+            assertFalse(bitmap.contains("", 15000));
+            assertTrue(bitmap.add("", 0));
+            assertTrue(bitmap.contains("", 0));
+
+            // another instance (or JVM) sees the namespaces and directories
+            assertTrue(shared.contains("demo", 15000));
+            assertTrue(shared.add("test", DirectoryBitmap.DAYS - 1));
+            assertTrue(bitmap.contains("test", DirectoryBitmap.DAYS - 1));
+            assertFalse(bitmap.contains("demo", DirectoryBitmap.DAYS - 1));
+
+            assertFalse(bitmap.add("demo", -1));
+            assertFalse(bitmap.add("demo", DirectoryBitmap.DAYS));
+            assertFalse(bitmap.add(new String(new char[64]).replace('\0', 'x'), 1));
+
+            // the namespace table is full
+            for (int i = 3; i < 64; i++) {
+                assertTrue(bitmap.add("ns" + i, i));
+            }
+            assertFalse(bitmap.add("full", 1));
+            assertFalse(bitmap.contains("full", 1));
+            assertTrue(bitmap.contains("ns63", 63));
+        } finally {
+            bitmap.close();
+            shared.close();
+        }
+
+        // the bitmap survives restarts, and keeps its size
+        bitmap = new DirectoryBitmap(file, 1024);
+        try {
+            assertTrue(bitmap.contains("demo", 15000));
+            assertFalse(bitmap.add("full", 1));
+            bitmap.clear();
+            assertFalse(bitmap.contains("demo", 15000));
+            assertTrue(bitmap.add("demo", 15000));
+        } finally {
+            bitmap.close();
+        }
+
+        File other = folder.newFile("other");
+        FileOutputStream out = new FileOutputStream(other);
+        out.write(new byte[100]);
+        out.close();
+        try {
+            new DirectoryBitmap(other, 64);
+            fail("Expected IOException");
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void testIdMapper() throws Exception {
+        String pid = "info:fedora/cellar:25f814ce-f5ac-11e0-b139-2837370107a5";
+        URI sameDay = URI.create("info:fedora/cellar:25f814ce-f5ac-11e0-b139-2837370107a5/DC");
+        URI nextDay = URI.create("info:fedora/cellar:11f7ef00-f625-11e0-b139-2837370107a5");
+        URI otherNamespace = URI.create("info:fedora/demo:25f814ce-f5ac-11e0-b139-2837370107a5");
+        URI fallback = URI.create("info:fedora/demo:1");
+
+        DirectoryBitmap bitmap = new DirectoryBitmap(new File(folder.getRoot(), "directories.bitmap"), 64);
+        try {
+            UUIDDatePathIdMapper m = new UUIDDatePathIdMapper(null, null, new FedoraNamespacePrefixer());
+            m.setDirectoryCreated(URI.create(pid));
+            assertFalse(m.isDirectoryKnown(URI.create(pid)));
+
+            m.setDirectoryBitmap(bitmap);
+            assertFalse(m.isDirectoryKnown(URI.create(pid)));
+            m.setDirectoryCreated(URI.create(pid));
+            m.setDirectoryCreated(fallback);
+            assertTrue(m.isDirectoryKnown(URI.create(pid)));
+            assertTrue(m.isDirectoryKnown(sameDay));
+            assertFalse(m.isDirectoryKnown(nextDay));
+            assertFalse(m.isDirectoryKnown(otherNamespace));
+            assertFalse(m.isDirectoryKnown(fallback));
+
+            // directories below days are not recorded
+            for (UUIDDatePathIdMapper mapper : new UUIDDatePathIdMapper[] {
+                    new UUIDDatePathIdMapper("yyyy/MM/dd/HH", null, null), 
+                    new UUIDDateHashPathIdMapper("##")}) {
+                mapper.setDirectoryBitmap(bitmap);
+                mapper.setDirectoryCreated(URI.create(pid));
+                assertFalse(mapper.isDirectoryKnown(URI.create(pid)));
+            }
+        } finally {
+            bitmap.close();
+        }
+    }
+}
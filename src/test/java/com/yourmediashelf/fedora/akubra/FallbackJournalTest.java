@@ -0,0 +1,377 @@
+/**
+ * Copyright (C) 2012 MediaShelf <http://www.yourmediashelf.com/>
+ *
+ * This file is part of uuid-datepath-idmapper.
+ *
+ * uuid-datepath-idmapper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * uuid-datepath-idmapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with uuid-datepath-idmapper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.yourmediashelf.fedora.akubra;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author Edwin Shin
+ *
+ */
+public class FallbackJournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testJournal() throws Exception {
+        File file = new File(folder.getRoot(), "fallback.journal");
+        FallbackJournal journal = new FallbackJournal(file);
+        try {
+            assertFalse(journal.isRecovered());
+            assertFalse(journal.contains("info:fedora/demo:1"));
+            assertNull(journal.getInternalPath("info:fedora/demo:1"));
+
+            journal.put("info:fedora/demo:1", "demo/ab/info%3Afedora%2Fdemo%3A1");
+            journal.put(new StringBuilder("info:fedora/demo:2"), "demo/cd/info%3Afedora%2Fdemo%3A2");
+            assertTrue(journal.contains(new StringBuilder("info:fedora/demo:1")));
+            assertEquals("demo/ab/info%3Afedora%2Fdemo%3A1", journal.getInternalPath("info:fedora/demo:1"));
+            StringBuilder path = new StringBuilder("/store/");
+            assertTrue(journal.appendInternalPath("info:fedora/demo:2", path));
+            assertEquals("/store/demo/cd/info%3Afedora%2Fdemo%3A2", path.toString());
+            assertFalse(journal.appendInternalPath("info:fedora/demo:3", path));
+            assertEquals(2, journal.size());
+
+            // replace, remove and re-add
+            journal.put("info:fedora/demo:1", "demo/ef/info%3Afedora%2Fdemo%3A1");
+            assertEquals("demo/ef/info%3Afedora%2Fdemo%3A1", journal.getInternalPath("info:fedora/demo:1"));
+            assertTrue(journal.remove("info:fedora/demo:2"));
+            assertFalse(journal.remove("info:fedora/demo:2"));
+            assertFalse(journal.contains("info:fedora/demo:2"));
+            assertEquals(1, journal.size());
+            journal.put("info:fedora/demo:2", "");
+            assertEquals("", journal.getInternalPath("info:fedora/demo:2"));
+            assertEquals(2, journal.size());
+
+            try {
+                journal.put("", "x");
+                fail();
+            } catch (IllegalArgumentException expected) {
+            }
+            try {
+                new FallbackJournal(file);
+                fail();
+            } catch (IllegalStateException expected) {
+            }
+        } finally {
+            journal.close();
+        }
+
+        journal = new FallbackJournal(file);
+        try {
+            assertFalse(journal.isRecovered());
+            assertEquals(2, journal.size());
+            assertEquals("demo/ef/info%3Afedora%2Fdemo%3A1", journal.getInternalPath("info:fedora/demo:1"));
+            assertEquals("", journal.getInternalPath("info:fedora/demo:2"));
+        } finally {
+            journal.close();
+        }
+    }
+
+    /**
+     * Test that the index grows, and that the journal survives restarts.
+     */
+    @Test
+    public void testGrow() throws Exception {
+        File file = new File(folder.getRoot(), "fallback.journal");
+        FallbackJournal journal = new FallbackJournal(file);
+        try {
+            for (int i = 0; i < 10000; i++) {
+                journal.put("info:fedora/legacy:" + i, "legacy/" + i);
+            }
+            for (int i = 0; i < 10000; i += 2) {
+                assertTrue(journal.remove("info:fedora/legacy:" + i));
+            }
+            assertEquals(5000, journal.size());
+        } finally {
+            journal.close();
+        }
+        journal = new FallbackJournal(file);
+        try {
+            assertEquals(5000, journal.size());
+            for (int i = 0; i < 10000; i++) {
+                assertEquals(i % 2 == 0 ? null : "legacy/" + i, journal.getInternalPath("info:fedora/legacy:" + i));
+            }
+        } finally {
+            journal.close();
+        }
+    }
+
+    /**
+     * Test that a journal that was not closed is recovered up to the first
+     * corrupt record, even if its index is lost.
+     */
+    @Test
+    public void testRecover() throws Exception {
+        File file = new File(folder.getRoot(), "fallback.journal");
+        String[] ids = {"info:fedora/demo:1", "info:fedora/demo:22", "info:fedora/demo:333"};
+        FallbackJournal journal = new FallbackJournal(file);
+        try {
+            for (String id : ids) {
+                journal.put(id, "path/" + id);
+            }
+            journal.remove(ids[0]);
+        } finally {
+            journal.close();
+        }
+
+        // the index of the new journal comes first, then the records
+        int index = FallbackJournal.HEADER_SIZE;
+        int first = index + FallbackJournal.BLOCK_HEADER_SIZE + 64 * 16;
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.seek(8);
+            raf.writeInt(0);
+            raf.seek(index + FallbackJournal.BLOCK_HEADER_SIZE);
+            raf.write(new byte[64 * 16]);
+        } finally {
+            raf.close();
+        }
+        journal = new FallbackJournal(file);
+        try {
+            assertTrue(journal.isRecovered());
+            assertEquals(2, journal.size());
+            assertFalse(journal.contains(ids[0]));
+            assertEquals("path/" + ids[1], journal.getInternalPath(ids[1]));
+            assertEquals("path/" + ids[2], journal.getInternalPath(ids[2]));
+        } finally {
+            journal.close();
+        }
+
+        // a torn second record, which loses the later ones
+        int second = first + recordSize(ids[0], "path/" + ids[0]);
+        raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.seek(8);
+            raf.writeInt(0);
+            raf.seek(second + FallbackJournal.BLOCK_HEADER_SIZE);
+            raf.writeChar('X');
+        } finally {
+            raf.close();
+        }
+        journal = new FallbackJournal(file);
+        try {
+            assertTrue(journal.isRecovered());
+            assertEquals(1, journal.size());
+            assertEquals("path/" + ids[0], journal.getInternalPath(ids[0]));
+            assertFalse(journal.contains(ids[1]));
+            assertFalse(journal.contains(ids[2]));
+            journal.put(ids[2], "new");
+        } finally {
+            journal.close();
+        }
+        journal = new FallbackJournal(file);
+        try {
+            assertFalse(journal.isRecovered());
+            assertEquals("new", journal.getInternalPath(ids[2]));
+        } finally {
+            journal.close();
+        }
+    }
+
+    /**
+     * Test that readers see every id whose put returned, while the journal
+     * grows.
+     */
+    @Test
+    public void testConcurrentReads() throws Exception {
+        File file = new File(folder.getRoot(), "fallback.journal");
+        final FallbackJournal journal = new FallbackJournal(file);
+        final AtomicInteger added = new AtomicInteger();
+        final AtomicReference<String> failure = new AtomicReference<String>();
+        final int count = 20000;
+        try {
+            List<Thread> readers = new ArrayList<Thread>();
+            for (int t = 0; t < 4; t++) {
+                Thread reader = new Thread() {
+                    @Override
+                    public void run() {
+                        StringBuilder path = new StringBuilder();
+                        while (added.get() < count && failure.get() == null) {
+                            int n = added.get();
+                            for (int i = Math.max(0, n - 100); i < n; i++) {
+                                path.setLength(0);
+                                if (!journal.appendInternalPath("info:fedora/legacy:" + i, path)
+                                        || !path.toString().equals("legacy/" + i)) {
+                                    failure.set("info:fedora/legacy:" + i);
+                                }
+                            }
+                        }
+                    }
+                };
+                readers.add(reader);
+                reader.start();
+            }
+            for (int i = 0; i < count; i++) {
+                journal.put("info:fedora/legacy:" + i, "legacy/" + i);
+                added.set(i + 1);
+            }
+            for (Thread reader : readers) {
+                reader.join();
+            }
+            assertNull(failure.get());
+        } finally {
+            journal.close();
+        }
+    }
+
+    @Test
+    public void testMapper() throws Exception {
+        File file = new File(folder.getRoot(), "fallback.journal");
+        FallbackJournal journal = new FallbackJournal(file);
+        try {
+            IdMapperPrefixer prefixer = new FedoraNamespacePrefixer();
+            PrefixingHashPathIdMapper fallback = new PrefixingHashPathIdMapper("##", prefixer);
+            UUIDDatePathIdMapper mapper = new UUIDDatePathIdMapper(fallback, prefixer);
+            mapper.setFallbackJournal(journal);
+
+            URI legacy = URI.create("info:fedora/demo:1");
+            URI uuid = URI.create("info:fedora/demo:25f814ce-f5ac-11e0-b139-2837370107a5");
+            mapper.setFallbackStored(legacy, true);
+            mapper.setFallbackStored(uuid, true);
+            assertEquals(1, journal.size());
+            assertEquals(fallback.getInternalId(legacy).toString(), 
+                    "file:" + journal.getInternalPath(legacy.toString()));
+            assertFalse(journal.contains(uuid.toString()));
+
+            // internal ids are taken from the journal
+            journal.put(legacy.toString(), "moved/info%3Afedora%2Fdemo%3A1");
+            assertEquals("file:moved/info%3Afedora%2Fdemo%3A1", mapper.getInternalId(legacy).toString());
+            StringBuilder path = new StringBuilder();
+            mapper.appendInternalPath(legacy.toString(), path);
+            assertEquals("moved/info%3Afedora%2Fdemo%3A1", path.toString());
+            assertEquals(legacy, mapper.getExternalId(mapper.getInternalId(legacy)));
+
+            mapper.setFallbackStored(legacy, false);
+            assertFalse(journal.contains(legacy.toString()));
+            assertEquals(fallback.getInternalId(legacy), mapper.getInternalId(legacy));
+        } finally {
+            journal.close();
+        }
+    }
+
+    /**
+     * Test that a journal rebuilt from a store holds exactly its legacy ids,
+     * and is complete.
+     */
+    @Test
+    public void testRebuild() throws Exception {
+        File file = new File(folder.getRoot(), "fallback.journal");
+        File root = folder.newFolder("store");
+        IdMapperPrefixer prefixer = new FedoraNamespacePrefixer();
+        UUIDDatePathIdMapper mapper = new UUIDDatePathIdMapper(new PrefixingHashPathIdMapper("##", prefixer), 
+                prefixer);
+        URI[] legacy = {URI.create("info:fedora/demo:1"), URI.create("info:fedora/demo:2"), 
+                URI.create("info:fedora/test:1")};
+        URI uuid = URI.create("info:fedora/demo:25f814ce-f5ac-11e0-b139-2837370107a5");
+        for (URI id : legacy) {
+            createFile(root, mapper.getInternalId(id));
+        }
+        createFile(root, mapper.getInternalId(uuid));
+
+        FallbackJournal journal = new FallbackJournal(file);
+        try {
+            assertFalse(journal.isComplete());
+            journal.put("info:fedora/demo:deleted", "demo/00/info%3Afedora%2Fdemo%3Adeleted");
+            journal.rebuild(mapper, root.toPath());
+            assertTrue(journal.isComplete());
+            assertEquals(legacy.length, journal.size());
+            for (URI id : legacy) {
+                assertEquals(mapper.getInternalId(id).getRawSchemeSpecificPart(), 
+                        journal.getInternalPath(id.toString()));
+            }
+            assertFalse(journal.contains("info:fedora/demo:deleted"));
+            assertFalse(journal.contains(uuid.toString()));
+            journal.remove(legacy[0].toString());
+        } finally {
+            journal.close();
+        }
+
+        journal = new FallbackJournal(file);
+        try {
+            assertTrue(journal.isComplete());
+            assertEquals(legacy.length - 1, journal.size());
+            assertFalse(journal.contains(legacy[0].toString()));
+            assertTrue(journal.contains(legacy[1].toString()));
+        } finally {
+            journal.close();
+        }
+    }
+
+    /**
+     * Test that replaced records and tombstones are reclaimed.
+     */
+    @Test
+    public void testCompaction() throws Exception {
+        File file = new File(folder.getRoot(), "fallback.journal");
+        FallbackJournal journal = new FallbackJournal(file);
+        try {
+            journal.rebuild(new UUIDDatePathIdMapper(), folder.newFolder("store").toPath());
+            for (int i = 0; i < 200000; i++) {
+                journal.put("info:fedora/legacy:" + i % 100, "legacy/" + i);
+                if (i % 7 == 0) {
+                    journal.remove("info:fedora/legacy:" + i % 100);
+                }
+            }
+            assertTrue(file.length() < 4 * FallbackJournal.COMPACTION_THRESHOLD);
+            assertTrue(journal.isComplete());
+        } finally {
+            journal.close();
+        }
+        journal = new FallbackJournal(file);
+        try {
+            assertTrue(journal.isComplete());
+            int size = 0;
+            for (int i = 200000 - 100; i < 200000; i++) {
+                String path = journal.getInternalPath("info:fedora/legacy:" + i % 100);
+                assertEquals(i % 7 == 0 ? null : "legacy/" + i, path);
+                size += path == null ? 0 : 1;
+            }
+            assertEquals(size, journal.size());
+        } finally {
+            journal.close();
+        }
+    }
+
+    private static void createFile(File root, URI internalId) throws Exception {
+        File f = new File(root, internalId.getRawSchemeSpecificPart());
+        f.getParentFile().mkdirs();
+        assertTrue(f.createNewFile());
+    }
+
+    private static int recordSize(String externalId, String path) {
+        return (FallbackJournal.BLOCK_HEADER_SIZE + 2 * (externalId.length() + path.length()) + 7) & ~7;
+    }
+}
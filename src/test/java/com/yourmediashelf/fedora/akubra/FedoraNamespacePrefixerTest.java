@@ -0,0 +1,128 @@
+/**
+ * Copyright (C) 2012 MediaShelf <http://www.yourmediashelf.com/>
+ *
+ * This file is part of uuid-datepath-idmapper.
+ *
+ * uuid-datepath-idmapper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * uuid-datepath-idmapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with uuid-datepath-idmapper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.yourmediashelf.fedora.akubra;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * @author Edwin Shin
+ *
+ */
+public class FedoraNamespacePrefixerTest {
+
+    /**
+     * Test that getPrefix returns the same prefixes as the String.split-based
+     * implementation, on which existing stores depend.
+     */
+    @Test
+    public void testCompatibility() throws Exception {
+        IdMapperPrefixer prefixer = new FedoraNamespacePrefixer();
+        String[] ids = {"info:fedora/demo:1", "info:fedora/demo:1/DC", "info:fedora/demo:", 
+                "info:fedora/demo", "info:fedora/:1", "info:fedora/demo:1::", "info:fedora/demo::1",
+                "info:fedora/demo:1:2", "info:fedora/", "info:fedora/:::", "demo:1", ""};
+        for (String id : ids) {
+            assertEquals(id, legacyGetPrefix(id), prefixer.getPrefix(id));
+        }
+
+        Random random = new Random(42);
+        char[] chars = {'a', 'b', ':', ':', '/', '.'};
+        for (int i = 0; i < 10000; i++) {
+            StringBuilder id = new StringBuilder("info:fedora/");
+            int length = random.nextInt(8);
+            for (int j = 0; j < length; j++) {
+                id.append(chars[random.nextInt(chars.length)]);
+            }
+            assertEquals(id.toString(), legacyGetPrefix(id.toString()), prefixer.getPrefix(id.toString()));
+        }
+    }
+
+    @Test
+    public void testInterned() throws Exception {
+        IdMapperPrefixer prefixer = new FedoraNamespacePrefixer();
+        String prefix = prefixer.getPrefix("info:fedora/demo:1");
+        assertSame("demo", prefix);
+        assertSame(prefix, prefixer.getPrefix("info:fedora/demo:2/DC"));
+        assertSame(prefix, prefixer.getPrefixForIdentifierPrefix("info:fedora/demo:"));
+
+        // more namespaces than the table holds
+        for (int i = 0; i < 2 * FedoraNamespacePrefixer.MAX_NAMESPACES; i++) {
+            assertEquals("ns" + i, prefixer.getPrefix("info:fedora/ns" + i + ":1"));
+        }
+        assertSame(prefix, prefixer.getPrefix("info:fedora/demo:3"));
+    }
+
+    @Test
+    public void testDirectories() throws Exception {
+        Map<String, String> directories = new HashMap<String, String>();
+        directories.put("small1", "small");
+        directories.put("small2", "small");
+        directories.put("big", "big");
+        directories.put("renamed", "other");
+        directories.put("moved", "archive");
+        directories.put("archive", "archive2");
+        IdMapperPrefixer prefixer = new FedoraNamespacePrefixer(directories);
+
+        assertEquals("small", prefixer.getPrefix("info:fedora/small1:1"));
+        assertEquals("small", prefixer.getPrefix("info:fedora/small2:1/DC"));
+        assertEquals("big", prefixer.getPrefix("info:fedora/big:1"));
+        assertEquals("demo", prefixer.getPrefix("info:fedora/demo:1"));
+        assertEquals("archive", prefixer.getPrefix("info:fedora/moved:1"));
+        assertEquals("archive2", prefixer.getPrefix("info:fedora/archive:1"));
+        assertEquals("", prefixer.getPrefix("info:fedora/small1"));
+
+        // only directories of a single namespace can be listed by prefix
+        assertNull(prefixer.getPrefixForIdentifierPrefix("info:fedora/small1:"));
+        assertEquals("big", prefixer.getPrefixForIdentifierPrefix("info:fedora/big:"));
+        assertEquals("demo", prefixer.getPrefixForIdentifierPrefix("info:fedora/demo:"));
+        // namespace "other" is not in the table, and shares its directory
+        assertNull(prefixer.getPrefixForIdentifierPrefix("info:fedora/renamed:"));
+        assertNull(prefixer.getPrefixForIdentifierPrefix("info:fedora/other:"));
+        // namespace "archive" is in the table, so "moved" has its own directory
+        assertEquals("archive", prefixer.getPrefixForIdentifierPrefix("info:fedora/moved:"));
+
+        for (String[] entry : new String[][] {{"", "a"}, {"a:b", "a"}, {"a", ""}, {"a", "b/c"}}) {
+            try {
+                new FedoraNamespacePrefixer(Collections.singletonMap(entry[0], entry[1]));
+                fail("Expected IllegalArgumentException for " + entry[0] + " -> " + entry[1]);
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+
+    private static String legacyGetPrefix(String identifier) {
+        if (identifier.startsWith("info:fedora/")) {
+            identifier = identifier.substring("info:fedora/".length());
+            String[] split = identifier.split(":");
+            if (split.length == 2) {
+                return split[0];
+            }
+        }
+        return "";
+    }
+}
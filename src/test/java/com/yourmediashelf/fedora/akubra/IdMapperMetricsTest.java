@@ -0,0 +1,103 @@
+/**
+ * Copyright (C) 2012 MediaShelf <http://www.yourmediashelf.com/>
+ *
+ * This file is part of uuid-datepath-idmapper.
+ *
+ * uuid-datepath-idmapper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * uuid-datepath-idmapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with uuid-datepath-idmapper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.yourmediashelf.fedora.akubra;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.util.Map;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+/**
+ * @author Edwin Shin
+ *
+ */
+public class IdMapperMetricsTest {
+
+    private final String upid = "info:fedora/cellar:25f814ce-f5ac-11e0-b139-2837370107a5";
+
+    @Test
+    public void testMetrics() throws Exception {
+        IdMapperMetrics metrics = new IdMapperMetrics();
+        UUIDDatePathIdMapper uuidMapper = new UUIDDatePathIdMapper();
+        uuidMapper.setMetrics(metrics);
+        InstrumentedIdMapper m = new InstrumentedIdMapper(uuidMapper, metrics);
+
+        URI internalId = m.getInternalId(new URI(upid));
+        m.getExternalId(internalId);
+        m.getInternalId(new URI("info:fedora/demo:1"));
+        m.getInternalId(new URI("info:fedora/demo:2"));
+        m.getInternalId(new URI("info:fedora/test:25f814ce-f5ac-41e0-b139-2837370107a5"));
+        m.getInternalId(new URI("urn:example1"));
+        m.getInternalPrefix("info:fedora/demo:");
+
+        assertEquals(5, metrics.getInternalIdCount());
+        assertEquals(1, metrics.getExternalIdCount());
+        assertEquals(1, metrics.getInternalPrefixCount());
+        assertTrue(metrics.getInternalIdP99Nanos() >= metrics.getInternalIdMeanNanos());
+
+        assertEquals(4, metrics.getFallbackCount());
+        assertEquals(3, metrics.getNoUUIDCount());
+        Map<String, Long> fallbacks = metrics.getFallbackCountsByPrefix();
+        assertEquals(Long.valueOf(2), fallbacks.get("demo"));
+        assertEquals(Long.valueOf(1), fallbacks.get("test"));
+        assertEquals(Long.valueOf(1), fallbacks.get(IdMapperMetrics.NO_PREFIX));
+        assertEquals(Long.valueOf(1), metrics.getVersionMismatchCounts().get("v4"));
+        assertTrue(metrics.summary().contains("versionMismatches={v4=1}"));
+
+        metrics.reset();
+        assertEquals(0, metrics.getInternalIdCount());
+        assertEquals(0, metrics.getFallbackCount());
+    }
+
+    @Test
+    public void testMBean() throws Exception {
+        IdMapperMetrics metrics = new IdMapperMetrics();
+        metrics.register("test");
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName("com.yourmediashelf.fedora.akubra:type=IdMapperMetrics,name=\"test\"");
+            metrics.record(IdMapperMetrics.Operation.GET_INTERNAL_ID, 1000);
+            assertEquals(1L, server.getAttribute(name, "InternalIdCount"));
+            assertEquals(1023L, server.getAttribute(name, "InternalIdP99Nanos"));
+        } finally {
+            metrics.unregister();
+        }
+    }
+
+    @Test
+    public void testLatencyHistogram() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 99; i++) {
+            histogram.record(100);
+        }
+        histogram.record(1000000);
+        assertEquals(100, histogram.count());
+        assertEquals(127, histogram.percentileNanos(50));
+        assertEquals(127, histogram.percentileNanos(99));
+        assertEquals((1 << 20) - 1, histogram.percentileNanos(100));
+        assertEquals((99 * 100 + 1000000) / 100, histogram.meanNanos());
+    }
+}
@@ -0,0 +1,207 @@
+/**
+ * Copyright (C) 2012 MediaShelf <http://www.yourmediashelf.com/>
+ *
+ * This file is part of uuid-datepath-idmapper.
+ *
+ * uuid-datepath-idmapper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * uuid-datepath-idmapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with uuid-datepath-idmapper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.yourmediashelf.fedora.akubra;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * @author Edwin Shin
+ *
+ */
+public class IdMapperUtilTest {
+
+    @Test
+    public void testEncode() throws Exception {
+        assertEquals("info%3Afedora%2Fdemo%3A1", IdMapperUtil.encode("info:fedora/demo:1"));
+        assertEquals("a%20b%2Bc%5Fd%2Ae.f%2E", IdMapperUtil.encode("a b+c_d*e.f."));
+        assertEquals("%C3%A9%E4%B8%AD%3F%3F", IdMapperUtil.encode("é中😀"));
+        assertEquals("%2E", IdMapperUtil.encode("."));
+        assertEquals("", IdMapperUtil.encode(""));
+
+        String unescaped = "25f814ce-f5ac-11e0-b139-2837370107a5.0001";
+        assertSame(unescaped, IdMapperUtil.encode(unescaped));
+    }
+
+    /**
+     * Test that the encoding of every URI begins with the encoding of each of
+     * its prefixes.
+     */
+    @Test
+    public void testEncodePrefix() throws Exception {
+        assertEquals("info%3Afedora%2Fdemo%3A", IdMapperUtil.encodePrefix("info:fedora/demo:"));
+        assertNull(IdMapperUtil.encodePrefix("info:fedora/demo:1."));
+
+        Random random = new Random(42);
+        for (int i = 0; i < 1000; i++) {
+            String uri = randomURI(random);
+            String encoded = IdMapperUtil.encode(uri);
+            for (int j = 0; j <= uri.length(); j++) {
+                String encodedPrefix = IdMapperUtil.encodePrefix(uri.substring(0, j));
+                assertTrue(encodedPrefix == null || encoded.startsWith(encodedPrefix));
+            }
+        }
+    }
+
+    /**
+     * Test that encode produces exactly the filenames of the original,
+     * URLEncoder-based implementation, and that decode reverses them.
+     */
+    @Test
+    public void testCompatibility() throws Exception {
+        Random random = new Random(42);
+        for (int i = 0; i < 10000; i++) {
+            String uri = randomURI(random);
+            String encoded = IdMapperUtil.encode(uri);
+            assertEquals(legacyEncode(uri), encoded);
+            assertEquals(legacyDecode(encoded), IdMapperUtil.decode(encoded));
+        }
+    }
+
+    @Test
+    public void testDecode() throws Exception {
+        assertEquals("info:fedora/demo:1", IdMapperUtil.decode("info%3Afedora%2Fdemo%3A1"));
+        assertEquals("a b c.", IdMapperUtil.decode("a+b%20c%2E"));
+        assertEquals("é中", IdMapperUtil.decode("%c3%a9%E4%B8%AD"));
+
+        String unescaped = "25f814ce-f5ac-11e0-b139-2837370107a5.0001";
+        assertSame(unescaped, IdMapperUtil.decode(unescaped));
+
+        String internalId = "file:2011/10/13/info%3Afedora%2Fdemo%3A1";
+        assertEquals("info:fedora/demo:1", IdMapperUtil.decode(internalId, 16, internalId.length()));
+        assertEquals("2011", IdMapperUtil.decode(internalId, 5, 9));
+        assertEquals(":", IdMapperUtil.decode(internalId, 20, 23));
+
+        for (String s : new String[] {"%", "a%2", "%zz", "%2%41"}) {
+            try {
+                IdMapperUtil.decode(s);
+                fail("Expected IllegalArgumentException for " + s);
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+
+    /**
+     * Test that the StringBuilder variants of encode and decode append
+     * exactly what the String variants return.
+     */
+    @Test
+    public void testAppend() throws Exception {
+        Random random = new Random(42);
+        StringBuilder out = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            String uri = randomURI(random);
+            out.setLength(0);
+            out.append("file:");
+            IdMapperUtil.encode(new StringBuilder(uri), out);
+            String encoded = IdMapperUtil.encode(uri);
+            assertEquals("file:" + encoded, out.toString());
+
+            IdMapperUtil.decode(out, 5, out.length(), out);
+            // not necessarily uri, as surrogates are encoded as '?'
+            assertEquals("file:" + encoded + IdMapperUtil.decode(encoded), out.toString());
+        }
+
+        // escaped bytes that are not (valid) UTF-8
+        String[] hex = {"41", "7F", "80", "C3", "A9", "E4", "B8", "AD", "FF"};
+        for (int i = 0; i < 10000; i++) {
+            StringBuilder encoded = new StringBuilder();
+            int length = random.nextInt(6);
+            for (int j = 0; j < length; j++) {
+                encoded.append(random.nextBoolean() ? "%" + hex[random.nextInt(hex.length)] : "+");
+            }
+            out.setLength(0);
+            IdMapperUtil.decode(encoded, 0, encoded.length(), out);
+            assertEquals(IdMapperUtil.decode(encoded.toString()), out.toString());
+        }
+    }
+
+    private static String legacyEncode(String uri) throws Exception {
+        StringBuilder out = new StringBuilder();
+        for (int i = 0; i < uri.length(); i++) {
+            char c = uri.charAt(i);
+            if (c >= 'a' && c <= 'z') {
+                out.append(c);
+            } else if (c >= '0' && c <= '9') {
+                out.append(c);
+            } else if (c >= 'A' && c <= 'Z') {
+                out.append(c);
+            } else if (c == '-' || c == '=' || c == '(' || c == ')'
+                    || c == '[' || c == ']' || c == ';') {
+                out.append(c);
+            } else if (c == ':') {
+                out.append("%3A");
+            } else if (c == ' ') {
+                out.append("%20");
+            } else if (c == '+') {
+                out.append("%2B");
+            } else if (c == '_') {
+                out.append("%5F");
+            } else if (c == '*') {
+                out.append("%2A");
+            } else if (c == '.') {
+                if (i == uri.length() - 1) {
+                    out.append("%2E");
+                } else {
+                    out.append(".");
+                }
+            } else {
+                out.append(URLEncoder.encode("" + c, "UTF-8"));
+            }
+        }
+        return out.toString();
+    }
+
+    private static String legacyDecode(String encodedURI) throws Exception {
+        if (encodedURI.endsWith("%2E")) {
+            encodedURI = encodedURI.substring(0, encodedURI.length() - 3) + ".";
+        }
+        return URLDecoder.decode(encodedURI, "UTF-8");
+    }
+
+    private static String randomURI(Random random) {
+        StringBuilder sb = new StringBuilder();
+        int length = random.nextInt(20);
+        for (int j = 0; j < length; j++) {
+            switch (random.nextInt(4)) {
+            case 0:
+                sb.append((char) random.nextInt(0x80));
+                break;
+            case 1:
+                sb.append((char) random.nextInt(0x800));
+                break;
+            case 2:
+                sb.append((char) random.nextInt(0x10000));
+                break;
+            default:
+                sb.append('.');
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,158 @@
+/**
+ * Copyright (C) 2012 MediaShelf <http://www.yourmediashelf.com/>
+ *
+ * This file is part of uuid-datepath-idmapper.
+ *
+ * uuid-datepath-idmapper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * uuid-datepath-idmapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with uuid-datepath-idmapper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.yourmediashelf.fedora.akubra;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.net.URI;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.akubraproject.map.IdMapper;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Edwin Shin
+ *
+ */
+public class NamespaceRoutingIdMapperTest {
+
+    private static final String UUID_PID = "info:fedora/cellar:25f814ce-f5ac-11e0-b139-2837370107a5";
+
+    private NamespaceRoutingIdMapper mapper;
+
+    @Before
+    public void setUp() throws Exception {
+        Map<String, IdMapper> routes = new LinkedHashMap<String, IdMapper>();
+        routes.put("cellar", new UUIDDatePathIdMapper(new TrivialIdMapper()));
+        routes.put("legacy", new PrefixingHashPathIdMapper("##"));
+        mapper = new NamespaceRoutingIdMapper(routes, new TrivialIdMapper());
+    }
+
+    @Test
+    public void testGetInternalId() throws Exception {
+        assertEquals("file:cellar/2011/10/13/info%3Afedora%2Fcellar%3A25f814ce-f5ac-11e0-b139-2837370107a5",
+                mapper.getInternalId(URI.create(UUID_PID)).toString());
+        assertEquals("file:cellar/2011/10/13/info%3Afedora%2Fcellar%3A25f814ce-f5ac-11e0-b139-2837370107a5%2FDC",
+                mapper.getInternalId(URI.create(UUID_PID + "/DC")).toString());
+        assertTrue(mapper.getInternalId(URI.create("info:fedora/legacy:1")).toString()
+                .matches("file:legacy/[0-9a-f]{2}/info%3Afedora%2Flegacy%3A1"));
+        assertEquals("file:_default/info%3Afedora%2Fdemo%3A1",
+                mapper.getInternalId(URI.create("info:fedora/demo:1")).toString());
+        // a namespace that begins with that of a route
+        assertEquals("file:_default/info%3Afedora%2Fcellar2%3A1",
+                mapper.getInternalId(URI.create("info:fedora/cellar2:1")).toString());
+        assertEquals("file:_default/urn%3Aexample1",
+                mapper.getInternalId(URI.create("urn:example1")).toString());
+        assertEquals("file:_default/info%3Afedora%2Fcellar",
+                mapper.getInternalId(URI.create("info:fedora/cellar")).toString());
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        String[] ids = {UUID_PID, UUID_PID + "/DC/DC.0", "info:fedora/cellar:1", "info:fedora/legacy:1",
+                "info:fedora/legacy:1/RELS-EXT", "info:fedora/demo:1", "info:fedora/cellar",
+                "info:fedora/:1", "urn:example1", "http://tinyurl.com/cxzzf"};
+        for (String id : ids) {
+            URI externalId = URI.create(id);
+            URI internalId = mapper.getInternalId(externalId);
+            assertEquals(externalId, mapper.getExternalId(internalId));
+        }
+
+        URI[] externalIds = new URI[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            externalIds[i] = URI.create(ids[i]);
+        }
+        URI[] internalIds = new URI[ids.length];
+        mapper.getInternalIds(externalIds, internalIds);
+        URI[] roundTrip = new URI[ids.length];
+        mapper.getExternalIds(internalIds, roundTrip, false);
+        for (int i = 0; i < ids.length; i++) {
+            assertEquals(mapper.getInternalId(externalIds[i]), internalIds[i]);
+            assertEquals(externalIds[i], roundTrip[i]);
+        }
+    }
+
+    @Test
+    public void testGetExternalIdOfUnknownDirectory() throws Exception {
+        String[] internalIds = {"file:demo/info%3Afedora%2Fdemo%3A1", "file:info%3Afedora%2Fdemo%3A1"};
+        for (String internalId : internalIds) {
+            try {
+                mapper.getExternalId(URI.create(internalId));
+                fail(internalId);
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void testGetInternalPrefix() throws Exception {
+        // the ids of a namespace are spread over the date directories
+        assertNull(mapper.getInternalPrefix(UUID_PID));
+        assertNull(mapper.getInternalPrefix("info:fedora/cellar:"));
+        assertEquals("file:_default/info%3Afedora%2Fdemo%3A",
+                mapper.getInternalPrefix("info:fedora/demo:"));
+        assertEquals("file:_default/urn%3Aex", mapper.getInternalPrefix("urn:ex"));
+        // the hash of an incomplete id is unknown
+        assertNull(mapper.getInternalPrefix("info:fedora/legacy:"));
+        // prefixes of more than one route
+        assertNull(mapper.getInternalPrefix("info:fedora/cel"));
+        assertNull(mapper.getInternalPrefix("info:fed"));
+        assertNull(mapper.getInternalPrefix(""));
+    }
+
+    @Test
+    public void testInvalidRoutes() throws Exception {
+        IdMapper trivial = new TrivialIdMapper();
+        try {
+            new NamespaceRoutingIdMapper(Collections.singletonMap("a:b", trivial), trivial);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            new NamespaceRoutingIdMapper(Collections.singletonMap("", trivial), trivial);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            new NamespaceRoutingIdMapper(Collections.singletonMap("other", trivial), trivial, "other");
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            new NamespaceRoutingIdMapper(Collections.<String, IdMapper> emptyMap(), trivial, "a/b");
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            new NamespaceRoutingIdMapper(Collections.<String, IdMapper> emptyMap(), null);
+            fail();
+        } catch (NullPointerException expected) {
+        }
+        NamespaceRoutingIdMapper other = new NamespaceRoutingIdMapper(
+                Collections.singletonMap("demo", trivial), trivial, "other");
+        assertEquals("file:other/urn%3Aexample1", other.getInternalId(URI.create("urn:example1")).toString());
+        assertEquals(Collections.singletonMap("demo", trivial), other.getRoutes());
+    }
+}
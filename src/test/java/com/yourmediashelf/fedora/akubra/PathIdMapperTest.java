@@ -0,0 +1,97 @@
+/**
+ * Copyright (C) 2012 MediaShelf <http://www.yourmediashelf.com/>
+ *
+ * This file is part of uuid-datepath-idmapper.
+ *
+ * uuid-datepath-idmapper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * uuid-datepath-idmapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with uuid-datepath-idmapper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.yourmediashelf.fedora.akubra;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.net.URI;
+import java.util.Collections;
+
+import org.akubraproject.map.IdMapper;
+import org.junit.Test;
+
+/**
+ * @author Edwin Shin
+ *
+ */
+public class PathIdMapperTest {
+
+    private static final String[] IDS = {
+            "info:fedora/demo:25f814ce-f5ac-11e0-b139-2837370107a5",
+            "info:fedora/demo:25f814ce-f5ac-11e0-b139-2837370107a5/DC/DC.0",
+            "info:fedora/demo:1",
+            "info:fedora/demo:dde3b5b1-1c61-4a0e-8d1e-37fdfb3c5c29",
+            "info:fedora/cellar:25f814ce-f5ac-11e0-b139-2837370107a5",
+            "info:fedora/résumé:1.",
+            "urn:example1"};
+
+    /**
+     * Test that the paths of every mapper are its internal ids without the
+     * scheme, and that they are mapped back to the external ids.
+     */
+    @Test
+    public void testPaths() throws Exception {
+        IdMapperPrefixer prefixer = new FedoraNamespacePrefixer();
+        IdMapper fallback = new PrefixingHashPathIdMapper("##", prefixer);
+        IdMapper[] mappers = {
+                new TrivialIdMapper(),
+                new PrefixingHashPathIdMapper("##/#", prefixer),
+                new PrefixingHashPathIdMapper("##", null, PathHashAlgorithm.MURMUR3_128),
+                new UUIDDatePathIdMapper(fallback, prefixer),
+                new UUIDDatePathIdMapper("yyyy/MM/dd/HH", fallback, null,
+                        TimestampExtractor.anyOf(UUIDTimestampExtractor.values())),
+                new UUIDDateHashPathIdMapper("##", fallback, prefixer),
+                // a fallback that is adapted
+                new UUIDDatePathIdMapper(new CachingIdMapper(fallback)),
+                new NamespaceRoutingIdMapper(Collections.singletonMap("demo", 
+                        new UUIDDatePathIdMapper(fallback)), fallback),
+                new InstrumentedIdMapper(new UUIDDatePathIdMapper(fallback), new IdMapperMetrics()),
+                PathIdMapper.adapt(new CachingIdMapper(fallback))};
+
+        StringBuilder path = new StringBuilder();
+        StringBuilder externalId = new StringBuilder();
+        for (IdMapper m : mappers) {
+            PathIdMapper mapper = PathIdMapper.adapt(m);
+            for (String id : IDS) {
+                String internalId = m.getInternalId(URI.create(id)).toString();
+
+                path.setLength(0);
+                path.append("/store/");
+                mapper.appendInternalPath(new StringBuilder(id), path);
+                assertEquals(id, "/store/" + internalId.substring("file:".length()), path.toString());
+
+                externalId.setLength(0);
+                externalId.append('>');
+                mapper.appendExternalId(path, "/store/".length(), path.length(), externalId);
+                assertEquals(internalId, ">" + id, externalId.toString());
+
+                externalId.setLength(0);
+                mapper.appendExternalId(internalId.substring("file:".length()), externalId);
+                assertEquals(internalId, id, externalId.toString());
+            }
+        }
+    }
+
+    @Test
+    public void testAdapt() throws Exception {
+        IdMapper mapper = new TrivialIdMapper();
+        assertSame(mapper, PathIdMapper.adapt(mapper));
+    }
+}
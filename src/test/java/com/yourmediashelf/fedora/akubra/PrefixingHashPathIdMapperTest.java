@@ -0,0 +1,105 @@
+/**
+ * Copyright (C) 2012 MediaShelf <http://www.yourmediashelf.com/>
+ *
+ * This file is part of uuid-datepath-idmapper.
+ *
+ * uuid-datepath-idmapper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * uuid-datepath-idmapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with uuid-datepath-idmapper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.yourmediashelf.fedora.akubra;
+
+import static org.junit.Assert.assertEquals;
+
+import java.net.URI;
+import java.util.Random;
+
+import org.akubraproject.map.IdMapper;
+import org.junit.Test;
+
+import com.twmacinta.util.MD5;
+
+/**
+ * @author Edwin Shin
+ *
+ */
+public class PrefixingHashPathIdMapperTest {
+
+    @Test
+    public void testExampleMappings() throws Exception {
+        IdMapper m = new PrefixingHashPathIdMapper("#/#");
+        assertEquals("file:0/8/urn%3Aexample1", m.getInternalId(new URI("urn:example1")).toString());
+        assertEquals("file:6/2/http%3A%2F%2Ftinyurl.com%2Fcxzzf", 
+                m.getInternalId(new URI("http://tinyurl.com/cxzzf")).toString());
+
+        m = new PrefixingHashPathIdMapper("##/##");
+        assertEquals("file:08/86/urn%3Aexample1", m.getInternalId(new URI("urn:example1")).toString());
+        assertEquals("file:62/ca/http%3A%2F%2Ftinyurl.com%2Fcxzzf", 
+                m.getInternalId(new URI("http://tinyurl.com/cxzzf")).toString());
+
+        m = new PrefixingHashPathIdMapper("##/##", new FedoraNamespacePrefixer());
+        assertEquals("file:test/f5/b3/info%3Afedora%2Ftest%3A123", 
+                m.getInternalId(new URI("info:fedora/test:123")).toString());
+    }
+
+    /**
+     * Test that the paths are those of the original implementation, which 
+     * used the hex string of the whole MD5 digest.
+     */
+    @Test
+    public void testCompatibility() throws Exception {
+        String[] patterns = {"#", "##/#", "##/##/##", "################################", 
+                "################/################"};
+        Random random = new Random(42);
+        for (String pattern : patterns) {
+            IdMapper m = new PrefixingHashPathIdMapper(pattern);
+            for (int i = 0; i < 1000; i++) {
+                StringBuilder sb = new StringBuilder("info:fedora/");
+                int length = random.nextInt(300);
+                for (int j = 0; j < length; j++) {
+                    // mostly ASCII, some non-ASCII
+                    sb.append((char) ('a' + random.nextInt(i % 10 == 0 ? 0x100 : 26)));
+                }
+                URI uri = new URI(null, sb.toString(), null);
+                assertEquals(legacyPath(pattern, uri.toString()) + IdMapperUtil.encode(uri.toString()), 
+                        m.getInternalId(uri).toString());
+            }
+        }
+    }
+
+    @Test
+    public void testMurmur3() throws Exception {
+        IdMapper m = new PrefixingHashPathIdMapper("##/##", null, PathHashAlgorithm.MURMUR3_128);
+        URI uri = new URI("urn:example1");
+        assertEquals("file:59/fb/urn%3Aexample1", m.getInternalId(uri).toString());
+        assertEquals(uri, m.getExternalId(m.getInternalId(uri)));
+
+        m = new PrefixingHashPathIdMapper("##", new FedoraNamespacePrefixer(), PathHashAlgorithm.MURMUR3_128);
+        assertEquals("file:demo/5a/info%3Afedora%2Fdemo%3A1", 
+                m.getInternalId(new URI("info:fedora/demo:1")).toString());
+    }
+
+    private static String legacyPath(String pattern, String uri) {
+        StringBuilder builder = new StringBuilder("file:");
+        String hash = MD5.asHex(new MD5(uri).Final());
+        int hashPos = 0;
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            if (c == '#') {
+                builder.append(hash.charAt(hashPos++));
+            } else {
+                builder.append(c);
+            }
+        }
+        return builder.append('/').toString();
+    }
+}
@@ -0,0 +1,177 @@
+/**
+ * Copyright (C) 2012 MediaShelf <http://www.yourmediashelf.com/>
+ *
+ * This file is part of uuid-datepath-idmapper.
+ *
+ * uuid-datepath-idmapper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * uuid-datepath-idmapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with uuid-datepath-idmapper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.yourmediashelf.fedora.akubra;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import org.akubraproject.map.IdMapper;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.fasterxml.uuid.EthernetAddress;
+import com.fasterxml.uuid.MutableUUIDTimer;
+import com.fasterxml.uuid.impl.UUID1Generator;
+
+/**
+ * @author Edwin Shin
+ *
+ */
+public class TimeRangeScannerTest {
+
+    private static final long HOUR = 3600000L;
+
+    private static final long DAY = 24 * HOUR;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final long base = new DateTime(2012, 1, 1, 0, 0, DateTimeZone.UTC).getMillis();
+
+    private UUID1Generator generator;
+
+    @Before
+    public void setUp() throws Exception {
+        generator = new UUID1Generator(new EthernetAddress("01:aa:75:ed:71:a1"), 
+                new MutableUUIDTimer(new Random(42), null));
+    }
+
+    @Test
+    public void testScan() throws Exception {
+        IdMapperPrefixer prefixer = new FedoraNamespacePrefixer();
+        UUIDDatePathIdMapper m = new UUIDDateHashPathIdMapper(null, "#", 
+                new PrefixingHashPathIdMapper("##", prefixer), prefixer);
+        Path root = folder.getRoot().toPath();
+
+        // 40 objects, with a datastream each, every 5 hours from 2012-01-01
+        List<URI> expected = new ArrayList<URI>();
+        List<URI> expectedA = new ArrayList<URI>();
+        for (int i = 0; i < 40; i++) {
+            long millis = base + i * 5 * HOUR;
+            UUID uuid = generator.generate(millis);
+            String pid = "info:fedora/" + (i % 3 == 0 ? "a" : "b") + ":" + uuid;
+            for (String id : new String[] {pid, pid + "/DC"}) {
+                write(m, root, id);
+                if (millis >= base + DAY && millis < base + 4 * DAY) {
+                    expected.add(URI.create(id));
+                    if (id.startsWith("info:fedora/a:")) {
+                        expectedA.add(URI.create(id));
+                    }
+                }
+            }
+            write(m, root, "info:fedora/b:" + i);
+        }
+        assertEquals(30, expected.size());
+
+        TimeRangeScanner scanner = new TimeRangeScanner(m, root);
+        assertEquals(new HashSet<URI>(expected), 
+                scanner.stream(base + DAY, base + 4 * DAY).collect(Collectors.toSet()));
+        assertEquals(0, scanner.stream(base + 4 * DAY, base + 4 * DAY).count());
+
+        // chronological pages
+        List<URI> ids = new ArrayList<URI>();
+        String token = null;
+        TimeRangeScanner.Page page;
+        int pages = 0;
+        do {
+            page = scanner.scan(base + DAY, base + 4 * DAY, token, 7);
+            assertTrue(page.getIds().size() <= 7);
+            ids.addAll(page.getIds());
+            token = page.getContinuationToken();
+            pages++;
+        } while (!page.isComplete());
+        assertEquals(expected, ids);
+        assertEquals(5, pages);
+
+        // the token of the last page continues with a later window
+        page = scanner.scan(base + DAY, base + 5 * DAY, token, 100);
+        assertTrue(page.isComplete());
+        // the objects at 96, 101, 106 and 111 hours
+        assertEquals(8, page.getIds().size());
+        assertFalse(page.getIds().contains(expected.get(29)));
+        page = scanner.scan(base + 5 * DAY, base + 6 * DAY, page.getContinuationToken(), 100);
+        // the objects at 120, 125, 130, 135 and 140 hours
+        assertEquals(10, page.getIds().size());
+
+        // explicit prefixes
+        scanner = new TimeRangeScanner(m, root, Collections.singleton("a"));
+        assertEquals(expectedA, scanner.scan(base + DAY, base + 4 * DAY, null, 100).getIds());
+    }
+
+    /**
+     * Test that ids without a namespace prefix, which are below the root, 
+     * are scanned along with the prefixed ones.
+     */
+    @Test
+    public void testUnprefixedIds() throws Exception {
+        IdMapperPrefixer prefixer = new FedoraNamespacePrefixer();
+        UUIDDatePathIdMapper m = new UUIDDatePathIdMapper(null, new PrefixingHashPathIdMapper("##", prefixer), 
+                prefixer);
+        Path root = folder.getRoot().toPath();
+        List<URI> expected = new ArrayList<URI>();
+        for (int i = 0; i < 4; i++) {
+            String id = (i % 2 == 0 ? "urn:uuid:" : "info:fedora/a:") + generator.generate(base + i * HOUR);
+            write(m, root, id);
+            expected.add(URI.create(id));
+        }
+        assertTrue(Files.isDirectory(root.resolve("2012/01/01")));
+
+        TimeRangeScanner scanner = new TimeRangeScanner(m, root);
+        assertEquals(new HashSet<URI>(expected), scanner.stream(base, base + DAY).collect(Collectors.toSet()));
+        assertEquals(expected, scanner.scan(base, base + DAY, null, 100).getIds());
+    }
+
+    @Test
+    public void testCoarseDateFormat() throws Exception {
+        UUIDDatePathIdMapper m = new UUIDDatePathIdMapper("yyyy/MM");
+        Path root = folder.getRoot().toPath();
+        List<URI> expected = new ArrayList<URI>();
+        for (int i = 0; i < 10; i++) {
+            String pid = "info:fedora/demo:" + generator.generate(base + i * 10 * DAY);
+            write(m, root, pid);
+            if (i >= 2 && i < 7) {
+                expected.add(URI.create(pid));
+            }
+        }
+        TimeRangeScanner scanner = new TimeRangeScanner(m, root);
+        assertEquals(expected, scanner.scan(base + 20 * DAY, base + 70 * DAY, null, 100).getIds());
+    }
+
+    private static void write(IdMapper m, Path root, String id) throws Exception {
+        Path file = root.resolve(m.getInternalId(URI.create(id)).getRawSchemeSpecificPart());
+        Files.createDirectories(file.getParent());
+        Files.createFile(file);
+    }
+}
@@ -0,0 +1,44 @@
+/**
+ * Copyright (C) 2012 MediaShelf <http://www.yourmediashelf.com/>
+ *
+ * This file is part of uuid-datepath-idmapper.
+ *
+ * uuid-datepath-idmapper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * uuid-datepath-idmapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with uuid-datepath-idmapper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.yourmediashelf.fedora.akubra;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URI;
+
+import org.akubraproject.map.IdMapper;
+import org.junit.Test;
+
+/**
+ * @author Edwin Shin
+ *
+ */
+public class TrivialIdMapperTest {
+
+    @Test
+    public void testGetInternalPrefix() throws Exception {
+        IdMapper m = new TrivialIdMapper();
+        assertEquals("file:info%3Afedora%2Fdemo%3A", m.getInternalPrefix("info:fedora/demo:"));
+        assertTrue(m.getInternalId(new URI("info:fedora/demo:1.")).toString()
+                .startsWith(m.getInternalPrefix("info:fedora/demo:1")));
+        assertNull(m.getInternalPrefix("info:fedora/demo:1."));
+    }
+}
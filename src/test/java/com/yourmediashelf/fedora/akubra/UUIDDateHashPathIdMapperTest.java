@@ -0,0 +1,121 @@
+/**
+ * Copyright (C) 2012 MediaShelf <http://www.yourmediashelf.com/>
+ *
+ * This file is part of uuid-datepath-idmapper.
+ *
+ * uuid-datepath-idmapper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * uuid-datepath-idmapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with uuid-datepath-idmapper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.yourmediashelf.fedora.akubra;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.akubraproject.map.IdMapper;
+import org.junit.Test;
+
+import com.fasterxml.uuid.EthernetAddress;
+import com.fasterxml.uuid.MutableUUIDTimer;
+import com.fasterxml.uuid.impl.UUID1Generator;
+
+/**
+ * @author Edwin Shin
+ *
+ */
+public class UUIDDateHashPathIdMapperTest {
+
+    private final String upid1 = "info:fedora/test:25f814ce-f5ac-11e0-b139-2837370107a5";
+    private final String upid2 = "info:fedora/test:25f814ce-f5ac-11e0-b139-2837370107a5/DS1";
+
+    @Test
+    public void testMapping() throws Exception {
+        IdMapper m = new UUIDDateHashPathIdMapper("##");
+        for (String pid : new String[] {upid1, upid2}) {
+            URI internalId = m.getInternalId(new URI(pid));
+            // ids containing the same UUID share a bucket
+            assertEquals("file:2011/10/13/81/" + IdMapperUtil.encode(pid), internalId.toString());
+            assertEquals(pid, m.getExternalId(internalId).toString());
+        }
+
+        // the bucket paths of longer patterns are rendered, not precomputed
+        m = new UUIDDateHashPathIdMapper("yyyy/MM", "#/###", null, new FedoraNamespacePrefixer());
+        URI internalId = m.getInternalId(new URI(upid1));
+        assertEquals("file:test/2011/10/8/11c/" + IdMapperUtil.encode(upid1), internalId.toString());
+        assertEquals(upid1, m.getExternalId(internalId).toString());
+
+        // non-UUID ids are not bucketed
+        assertEquals("file:info%3Afedora%2Fdemo%3A1", m.getInternalId(new URI("info:fedora/demo:1")).toString());
+    }
+
+    @Test
+    public void testGetInternalPrefix() throws Exception {
+        IdMapper m = new UUIDDateHashPathIdMapper("##/#");
+        // ids beginning with a UUID may be mapped by a later one
+        assertNull(m.getInternalPrefix(upid1.substring(0, upid1.length() - 18)));
+        assertNull(m.getInternalPrefix(upid1));
+    }
+
+    /**
+     * Test that the ids of a single day are spread evenly over the buckets, 
+     * and that batch mapping matches single mapping.
+     */
+    @Test
+    public void testDistribution() throws Exception {
+        BatchIdMapper m = new UUIDDateHashPathIdMapper("##");
+        UUID1Generator generator = new UUID1Generator(EthernetAddress.constructMulticastAddress(), 
+                new MutableUUIDTimer(new Random(42), null));
+        URI[] externalIds = new URI[25600];
+        for (int i = 0; i < externalIds.length; i++) {
+            externalIds[i] = new URI("info:fedora/test:" + generator.generate());
+        }
+        URI[] internalIds = new URI[externalIds.length];
+        m.getInternalIds(externalIds, internalIds);
+
+        Map<String, Integer> counts = new HashMap<String, Integer>();
+        for (int i = 0; i < externalIds.length; i++) {
+            assertEquals(m.getInternalId(externalIds[i]), internalIds[i]);
+            String path = internalIds[i].toString();
+            String bucket = path.substring(0, path.lastIndexOf('/'));
+            Integer count = counts.get(bucket);
+            counts.put(bucket, count == null ? 1 : count + 1);
+        }
+        // 256 buckets, or twice that if the ids span midnight
+        assertTrue(counts.size() == 256 || counts.size() == 512);
+        for (int count : counts.values()) {
+            assertTrue("uneven distribution: " + counts, count < 4 * externalIds.length / counts.size());
+        }
+
+        URI[] roundTrip = new URI[internalIds.length];
+        m.getExternalIds(internalIds, roundTrip, false);
+        assertArrayEquals(externalIds, roundTrip);
+    }
+
+    @Test
+    public void testInvalidPatterns() throws Exception {
+        for (String pattern : new String[] {null, "", "a", "##/", "/#", "##//##", "#################"}) {
+            try {
+                new UUIDDateHashPathIdMapper(pattern);
+                fail("Expected IllegalArgumentException for " + pattern);
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+}
@@ -21,7 +21,12 @@
  */
 package com.yourmediashelf.fedora.akubra;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.net.URI;
 import java.nio.ByteBuffer;
@@ -33,8 +38,13 @@ import java.util.Date;
 import java.util.Random;
 import java.util.TimeZone;
 import java.util.UUID;
+import java.util.stream.StreamSupport;
 
 import org.akubraproject.map.IdMapper;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
 import org.junit.Test;
 
 import com.fasterxml.uuid.EthernetAddress;
@@ -100,6 +110,42 @@ public class UUIDDatePathIdMapperTest {
 		}
 	}
 
+	/**
+	 * Test that compiled and cached date paths match those rendered by Joda-Time.
+	 */
+	@Test
+	public void testDatePathRenderer() throws Exception {
+		String[] formats = {"yyyy/MM/dd", "yy/HH", "yyyy/M/d/H/m/s", "y-MM/'day'dd''", "yyyy/MMM/dd", "yyyy/DDD"};
+		Random random = new Random(42);
+		for (String format : formats) {
+			DatePathRenderer renderer = new DatePathRenderer(format);
+			DateTimeFormatter fmt = DateTimeFormat.forPattern(format);
+			for (int i = 0; i < 1000; i++) {
+				// between 1970 and 2100, or else 1582 and 5236 (all UUID timestamps)
+				long millis = i % 2 == 0 ? (long) (random.nextDouble() * 4102444800000L) 
+						: -12219292800000L + (long) (random.nextDouble() * (1L << 60) / 10000);
+				String expected = new DateTime(millis, DateTimeZone.UTC).toString(fmt) + '/';
+				assertEquals(expected, renderer.getPath(millis));
+				assertEquals(expected, renderer.getPath(millis));
+			}
+		}
+	}
+
+	/**
+	 * Test the arithmetic date conversion against Joda-Time around leap days
+	 * and century boundaries.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testCivilFromDays() throws Exception {
+		for (long days = -200000; days <= 1200000; days++) {
+			DateTime dt = new DateTime(days * 86400000L, DateTimeZone.UTC);
+			long expected = (long) dt.getYear() << 16 | dt.getMonthOfYear() << 8 | dt.getDayOfMonth();
+			assertEquals(expected, DatePathRenderer.civilFromDays(days));
+		}
+	}
+
 	/**
 	 * Test use of IdMapperPrefixer
 	 *
@@ -128,6 +174,213 @@ public class UUIDDatePathIdMapperTest {
         assertEquals(fallbackId, externalId.toString());
 	}
 
+	/**
+	 * Test that extractUUID finds the last UUID, as the regex-based
+	 * implementation did.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testExtractUUID() throws Exception {
+		UUIDDatePathIdMapper m = new UUIDDatePathIdMapper();
+		String uuid = "25f814ce-f5ac-11e0-b139-2837370107a5";
+		String other = "6ba7b810-9dad-11d1-80b4-00c04fd430c8";
+
+		assertEquals(UUID.fromString(uuid), m.extractUUID(upid1));
+		assertEquals(UUID.fromString(uuid), m.extractUUID(upid3));
+		assertEquals(UUID.fromString(uuid), m.extractUUID(uuid.toUpperCase()));
+		assertEquals(UUID.fromString(other), m.extractUUID("info:fedora/" + uuid + ":" + other + "/DS1"));
+		// overlapping candidates: the right-most start wins
+		assertEquals(UUID.fromString("5f814ce0-f5ac-11e0-b139-2837370107a5"),
+				m.extractUUID("25f814ce0-f5ac-11e0-b139-2837370107a5"));
+
+		for (String s : new String[] {pid1, "", uuid.substring(1), uuid.replace('-', '_')}) {
+			try {
+				m.extractUUID(s);
+				fail("Expected IllegalArgumentException for " + s);
+			} catch (IllegalArgumentException expected) {
+			}
+		}
+	}
+
+	/**
+	 * Test that ids with UUIDs of a version other than 1 use the fallbackMapper.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testNonTimeBasedUUIDs() throws Exception {
+		IdMapper m = new UUIDDatePathIdMapper();
+		for (String pid : new String[] {"info:fedora/demo:" + UUID.randomUUID(),
+				"info:fedora/demo:25f814ce-f5ac-01e0-b139-2837370107a5"}) {
+			URI internalId = m.getInternalId(new URI(pid));
+			assertEquals("file:" + IdMapperUtil.encode(pid), internalId.toString());
+			assertEquals(pid, m.getExternalId(internalId).toString());
+		}
+	}
+
+	/**
+	 * Test that version 6 and 7 UUIDs are mapped by their time if the 
+	 * TimestampExtractor supports them, and use the fallbackMapper otherwise.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testTimestampExtractors() throws Exception {
+		// the time of upid1 (2011-10-13T15:00:54Z), as version 6 and 7 UUIDs
+		UUID v1 = UUID.fromString("25f814ce-f5ac-11e0-b139-2837370107a5");
+		long timestamp = v1.timestamp();
+		UUID v6 = new UUID((timestamp >>> 12) << 16 | 0x6000L | (timestamp & 0x0fffL), 
+				v1.getLeastSignificantBits());
+		long millis = UUIDDatePathIdMapper.getMillis(timestamp);
+		UUID v7 = new UUID(millis << 16 | 0x7000L | 0x0800L, v1.getLeastSignificantBits());
+		assertEquals("1e0f5ac2-5f81-64ce-b139-2837370107a5", v6.toString());
+
+		assertEquals(timestamp, UUIDTimestampExtractor.V1.getTimestamp(v1.getMostSignificantBits()));
+		assertEquals(timestamp, UUIDTimestampExtractor.V6.getTimestamp(v6.getMostSignificantBits()));
+		// half a millisecond
+		assertEquals(millis * 10000 + UUIDDatePathIdMapper.NUM_100NS_INTERVALS_SINCE_UUID_EPOCH + 5000,
+				UUIDTimestampExtractor.V7.getTimestamp(v7.getMostSignificantBits()));
+		for (UUIDTimestampExtractor extractor : UUIDTimestampExtractor.values()) {
+			for (UUID uuid : new UUID[] {v1, v6, v7, UUID.randomUUID()}) {
+				if (!extractor.name().equals("V" + uuid.version())) {
+					assertEquals(TimestampExtractor.NO_TIMESTAMP, extractor.getTimestamp(uuid.getMostSignificantBits()));
+				}
+			}
+		}
+
+		String[] pids = {"info:fedora/cellar:" + v6, "info:fedora/cellar:" + v7 + "/DC"};
+		IdMapper defaultMapper = new UUIDDatePathIdMapper();
+		IdMapper m = new UUIDDatePathIdMapper(null, null, null, 
+				TimestampExtractor.anyOf(UUIDTimestampExtractor.values()));
+		for (String pid : pids) {
+			assertEquals("file:" + IdMapperUtil.encode(pid), defaultMapper.getInternalId(new URI(pid)).toString());
+			URI internalId = m.getInternalId(new URI(pid));
+			assertEquals("file:2011/10/13/" + IdMapperUtil.encode(pid), internalId.toString());
+			assertEquals(pid, m.getExternalId(internalId).toString());
+		}
+		assertEquals("file:2011/10/13/" + IdMapperUtil.encode(upid1), m.getInternalId(new URI(upid1)).toString());
+	}
+
+	/**
+	 * Test that getExternalId decodes the last path segment, and uses the 
+	 * fallbackMapper for internal ids of other schemes, or whose last path 
+	 * segment does not contain a UUID.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testGetExternalId() throws Exception {
+		final URI fallbackId = URI.create("info:fedora/fallback:1");
+		IdMapper fallback = new TrivialIdMapper() {
+			@Override
+			public URI getExternalId(URI internalId) {
+				return fallbackId;
+			}
+		};
+		IdMapper m = new UUIDDatePathIdMapper(null, fallback, new FedoraNamespacePrefixer());
+		String uuid = "25f814ce-f5ac-11e0-b139-2837370107a5";
+		for (String pid : new String[] {upid2, "info:fedora/a+b%c:" + uuid + "/DS 1", 
+				"info:fedora/\u00e9\u4e2d:" + uuid}) {
+			URI externalId = URI.create(new URI("info", pid.substring(5), null).toASCIIString());
+			URI internalId = m.getInternalId(externalId);
+			assertEquals(externalId, m.getExternalId(internalId));
+		}
+
+		assertEquals(URI.create(upid1), m.getExternalId(URI.create("file:" + IdMapperUtil.encode(upid1))));
+		for (String internalId : new String[] {"file:2011/10/13/" + uuid + "/" + IdMapperUtil.encode(pid1),
+				"file:" + IdMapperUtil.encode(pid1), "files:" + IdMapperUtil.encode(upid1), 
+				"fil:" + IdMapperUtil.encode(upid1)}) {
+			assertEquals(fallbackId, m.getExternalId(URI.create(internalId)));
+		}
+	}
+
+	/**
+	 * Test that getInternalPrefix returns the prefix of the internal ids of 
+	 * all external ids beginning with the external prefix, or null.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testGetInternalPrefix() throws Exception {
+		IdMapper m = new UUIDDatePathIdMapper();
+		// ids beginning with a UUID may be mapped by a later UUID, or by the
+		// fallbackMapper
+		String later = upid1 + "/DS-" + upid1.substring(upid1.length() - 36).replace("11e0", "11e1");
+		String invalid = upid1.substring(0, upid1.length() - 18) + "-xyz";
+		assertFalse(m.getInternalId(new URI(later)).toString().startsWith("file:2011/10/13/"));
+		assertEquals("file:" + IdMapperUtil.encode(invalid), m.getInternalId(new URI(invalid)).toString());
+		for (String prefix : new String[] {upid1, upid1.substring(0, upid1.length() - 18), 
+				"info:fedora/cellar:25f814ce-f5ac-11e0-b139", "info:fedora/cellar:"}) {
+			assertNull(m.getInternalPrefix(prefix));
+		}
+
+		IdMapperPrefixer prefixer = new FedoraNamespacePrefixer();
+		m = new UUIDDatePathIdMapper(null, new PrefixingHashPathIdMapper("##", prefixer), prefixer);
+		assertEquals("file:cellar/", m.getInternalPrefix("info:fedora/cellar:"));
+		for (String pid : new String[] {upid1, later, invalid}) {
+			assertTrue(m.getInternalId(new URI(pid)).toString().startsWith("file:cellar/"));
+			assertNull(m.getInternalPrefix(pid));
+		}
+		assertEquals("file:test/", m.getInternalPrefix("info:fedora/test:"));
+		assertTrue(m.getInternalId(new URI("info:fedora/test:123")).toString().startsWith("file:test/"));
+		assertNull(m.getInternalPrefix("info:fedora/"));
+		assertNull(m.getInternalPrefix("info:fedora/cellar"));
+		assertNull(m.getInternalPrefix("info:fedora/cellar:1"));
+
+		// the fallbackMapper does not map namespaces to directories
+		m = new UUIDDatePathIdMapper(null, new PrefixingHashPathIdMapper("##"), prefixer);
+		assertNull(m.getInternalPrefix("info:fedora/cellar:"));
+	}
+
+	/**
+	 * Test that the batch methods map ids exactly as getInternalId and 
+	 * getExternalId do.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testBatchMapping() throws Exception {
+		IdMapperPrefixer prefixer = new FedoraNamespacePrefixer();
+		BatchIdMapper m = new UUIDDatePathIdMapper(new PrefixingHashPathIdMapper("##", prefixer), prefixer);
+
+		EthernetAddress addr = new EthernetAddress("01:aa:75:ed:71:a1");
+		UUID1Generator gen = new UUID1Generator(addr, new MutableUUIDTimer(new Random(42), null));
+		URI[] externalIds = new URI[5000];
+		URI[] expected = new URI[externalIds.length];
+		for (int i = 0; i < externalIds.length; i++) {
+			String ns = i % 3 == 0 ? "demo" : "cellar";
+			if (i % 10 == 0) {
+				externalIds[i] = new URI("info:fedora/" + ns + ":" + i);
+			} else {
+				// spread over 4 days
+				long millis = 1325376000000L + (i / 1250) * 86400000L;
+				externalIds[i] = new URI("info:fedora/" + ns + ":" + gen.generate(millis));
+			}
+			expected[i] = m.getInternalId(externalIds[i]);
+		}
+
+		URI[] internalIds = new URI[externalIds.length];
+		m.getInternalIds(externalIds, internalIds);
+		assertArrayEquals(expected, internalIds);
+
+		internalIds = new URI[externalIds.length];
+		m.getInternalIds(externalIds, internalIds, true);
+		assertArrayEquals(expected, internalIds);
+
+		internalIds = new URI[externalIds.length];
+		assertEquals(externalIds.length, m.getInternalIds(Arrays.asList(externalIds), internalIds));
+		assertArrayEquals(expected, internalIds);
+
+		assertArrayEquals(expected, m.getInternalIds(Arrays.stream(externalIds).parallel()).toArray());
+		assertArrayEquals(expected, StreamSupport.stream(
+				m.getInternalIds(Arrays.spliterator(externalIds)), false).toArray());
+
+		URI[] roundTrip = new URI[externalIds.length];
+		m.getExternalIds(expected, roundTrip, true);
+		assertArrayEquals(externalIds, roundTrip);
+	}
+
 	@Test
     public void testUUIDGeneration() throws Exception {
         EthernetAddress addr = new EthernetAddress("01:aa:75:ed:71:a1");
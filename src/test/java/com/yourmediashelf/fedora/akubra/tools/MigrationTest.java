@@ -0,0 +1,202 @@
+/**
+ * Copyright (C) 2012 MediaShelf <http://www.yourmediashelf.com/>
+ *
+ * This file is part of uuid-datepath-idmapper.
+ *
+ * uuid-datepath-idmapper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * uuid-datepath-idmapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with uuid-datepath-idmapper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.yourmediashelf.fedora.akubra.tools;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.akubraproject.map.IdMapper;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.yourmediashelf.fedora.akubra.FedoraNamespacePrefixer;
+import com.yourmediashelf.fedora.akubra.IdMapperPrefixer;
+import com.yourmediashelf.fedora.akubra.PrefixingHashPathIdMapper;
+import com.yourmediashelf.fedora.akubra.UUIDDatePathIdMapper;
+
+/**
+ * @author Edwin Shin
+ *
+ */
+public class MigrationTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private IdMapper sourceMapper;
+    private IdMapper targetMapper;
+    private Path source;
+    private Path target;
+    private Path journalFile;
+    private List<String> ids;
+
+    @Before
+    public void setUp() throws Exception {
+        IdMapperPrefixer prefixer = new FedoraNamespacePrefixer();
+        sourceMapper = new PrefixingHashPathIdMapper("##", prefixer);
+        targetMapper = new UUIDDatePathIdMapper(null, new PrefixingHashPathIdMapper("##", prefixer), prefixer);
+        source = folder.newFolder("source").toPath();
+        target = new File(folder.getRoot(), "target").toPath();
+        journalFile = new File(folder.getRoot(), "migration.journal").toPath();
+
+        ids = new ArrayList<String>();
+        for (int i = 0; i < 100; i++) {
+            ids.add(String.format("info:fedora/cellar:25f814ce-f5ac-11e0-b139-2837370107%02x", i));
+            ids.add(String.format("info:fedora/demo:%d/DC 1.0", i));
+        }
+        for (String id : ids) {
+            write(source, sourceMapper.getInternalId(URI.create(id.replace(" ", "%20"))), id);
+        }
+    }
+
+    @Test
+    public void testMigration() throws Exception {
+        Migration migration;
+        try (MigrationJournal journal = new MigrationJournal(journalFile)) {
+            migration = new Migration(source, target, sourceMapper, targetMapper, journal, new Throttle(0), false);
+            assertTrue(migration.run(4));
+            assertTrue(journal.isCompleted(""));
+            assertTrue(journal.isCompleted("cellar"));
+        }
+        assertEquals(ids.size(), migration.getMoved());
+        for (String id : ids) {
+            Path file = resolve(target, targetMapper.getInternalId(URI.create(id.replace(" ", "%20"))));
+            assertEquals(id, new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+            assertFalse(Files.exists(resolve(source, sourceMapper.getInternalId(URI.create(id.replace(" ", "%20"))))));
+        }
+        assertTrue(Files.exists(target.resolve("cellar/2011/10/13")));
+
+        // completed directories are skipped when run again
+        String id = "info:fedora/demo:new";
+        Path file = write(source, sourceMapper.getInternalId(URI.create(id)), id);
+        try (MigrationJournal journal = new MigrationJournal(journalFile)) {
+            migration = new Migration(source, target, sourceMapper, targetMapper, journal, new Throttle(0), false);
+            assertTrue(migration.run(1));
+        }
+        assertEquals(0, migration.getMoved());
+        assertTrue(Files.exists(file));
+    }
+
+    @Test
+    public void testResume() throws Exception {
+        // a file whose target exists is not moved, and its directory is not completed
+        String id = ids.get(0);
+        Path conflict = write(target, targetMapper.getInternalId(URI.create(id)), "conflict");
+        try (MigrationJournal journal = new MigrationJournal(journalFile)) {
+            Migration migration = new Migration(source, target, sourceMapper, targetMapper, journal, 
+                    new Throttle(0), false);
+            assertFalse(migration.run(2));
+            assertEquals(1, migration.getConflicts());
+            assertEquals(ids.size() - 1, migration.getMoved());
+            assertFalse(journal.isCompleted(""));
+            assertFalse(journal.isCompleted("cellar"));
+            assertTrue(journal.isCompleted("demo"));
+        }
+
+        Files.delete(conflict);
+        try (MigrationJournal journal = new MigrationJournal(journalFile)) {
+            Migration migration = new Migration(source, target, sourceMapper, targetMapper, journal, 
+                    new Throttle(0), false);
+            assertTrue(migration.run(2));
+            assertEquals(1, migration.getMoved());
+            assertTrue(journal.isCompleted(""));
+        }
+        assertEquals(id, new String(Files.readAllBytes(conflict), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Test that of two source files that decode to the same id, only one is
+     * moved, and the other is left in place.
+     */
+    @Test
+    public void testDuplicateIds() throws Exception {
+        String id = "info:fedora/demo:dup";
+        Path upper = write(source, sourceMapper.getInternalId(URI.create(id)), "upper");
+        Path lower = upper.resolveSibling(upper.getFileName().toString().replace("%3A", "%3a"));
+        Files.write(lower, "lower".getBytes(StandardCharsets.UTF_8));
+        try (MigrationJournal journal = new MigrationJournal(journalFile)) {
+            Migration migration = new Migration(source, target, sourceMapper, targetMapper, journal, 
+                    new Throttle(0), false);
+            assertFalse(migration.run(4));
+            assertEquals(1, migration.getConflicts());
+            assertEquals(ids.size() + 1, migration.getMoved());
+        }
+        String moved = new String(Files.readAllBytes(resolve(target, targetMapper.getInternalId(URI.create(id)))), 
+                StandardCharsets.UTF_8);
+        Path left = Files.exists(upper) ? upper : lower;
+        assertFalse(Files.exists(moved.equals("upper") ? upper : lower));
+        assertEquals(moved.equals("upper") ? "lower" : "upper", 
+                new String(Files.readAllBytes(left), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testDryRun() throws Exception {
+        try (MigrationJournal journal = new MigrationJournal(journalFile)) {
+            Migration migration = new Migration(source, target, sourceMapper, targetMapper, journal, 
+                    new Throttle(0), true);
+            assertTrue(migration.run(2));
+            assertEquals(ids.size(), migration.getMoved());
+            assertEquals(0, journal.size());
+        }
+        assertFalse(Files.exists(target));
+    }
+
+    @Test
+    public void testNestedDirectories() throws Exception {
+        try (MigrationJournal journal = new MigrationJournal(journalFile)) {
+            new Migration(source, source.resolve("target"), sourceMapper, targetMapper, journal, 
+                    new Throttle(0), false);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void testThrottle() throws Exception {
+        Throttle throttle = new Throttle(200);
+        long start = System.nanoTime();
+        for (int i = 0; i < 41; i++) {
+            throttle.acquire();
+        }
+        assertTrue((System.nanoTime() - start) / 1000000 >= 190);
+    }
+
+    private static Path resolve(Path root, URI internalId) {
+        return root.resolve(internalId.getRawSchemeSpecificPart());
+    }
+
+    private static Path write(Path root, URI internalId, String content) throws Exception {
+        Path file = resolve(root, internalId);
+        Files.createDirectories(file.getParent());
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+}